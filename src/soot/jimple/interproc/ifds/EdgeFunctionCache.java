@@ -1,5 +1,9 @@
 package soot.jimple.interproc.ifds;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -16,6 +20,27 @@ public class EdgeFunctionCache<N, D, M, V> implements EdgeFunctions<N, D, M, V>
 
 	protected final LoadingCache<NDNDKey, EdgeFunction<V>> callToReturnCache;
 	
+	/**
+	 * Gets the functions whose results are cached
+	 * @return The underlying functions
+	 */
+	public EdgeFunctions<N, D, M, V> getDelegate() {
+		return delegate;
+	}
+	
+	/**
+	 * Creates a cache that does not use any Guava caches. Subclasses calling
+	 * this constructor must override all methods accessing the caches.
+	 * @param delegate The functions to cache
+	 */
+	protected EdgeFunctionCache(EdgeFunctions<N, D, M, V> delegate) {
+		this.delegate = delegate;
+		this.normalCache = null;
+		this.callCache = null;
+		this.returnCache = null;
+		this.callToReturnCache = null;
+	}
+
 	@SuppressWarnings("unchecked")
 	public EdgeFunctionCache(final EdgeFunctions<N, D, M, V> delegate, @SuppressWarnings("rawtypes") CacheBuilder builder) {
 		this.delegate = delegate;
@@ -71,6 +96,45 @@ public class EdgeFunctionCache<N, D, M, V> implements EdgeFunctions<N, D, M, V>
 		this.callToReturnCache.invalidateAll();
 	}
 
+	/**
+	 * Invalidates all cache contents that refer to one of the given methods or
+	 * to a statement inside them. Statements that are no longer part of the
+	 * given control-flow graph are considered changed as well. Contents
+	 * referring only to other methods remain cached.
+	 * @param methods The methods whose edge functions shall be invalidated
+	 * @param icfg The control-flow graph to which the statements belong
+	 */
+	public void invalidateMethods(Set<M> methods, InterproceduralCFG<N,M> icfg) {
+		List<NDNDKey> normalKeys = new ArrayList<NDNDKey>();
+		for (NDNDKey key : normalCache.asMap().keySet())
+			if (isChanged(key.n1, methods, icfg) || isChanged(key.n2, methods, icfg))
+				normalKeys.add(key);
+		this.normalCache.invalidateAll(normalKeys);
+
+		List<CallKey> callKeys = new ArrayList<CallKey>();
+		for (CallKey key : callCache.asMap().keySet())
+			if (isChanged(key.callSite, methods, icfg) || methods.contains(key.calleeMethod))
+				callKeys.add(key);
+		this.callCache.invalidateAll(callKeys);
+
+		List<ReturnKey> returnKeys = new ArrayList<ReturnKey>();
+		for (ReturnKey key : returnCache.asMap().keySet())
+			if (isChanged(key.getCallSite(), methods, icfg) || methods.contains(key.getCalleeMethod())
+					|| isChanged(key.exitStmt, methods, icfg) || isChanged(key.returnSite, methods, icfg))
+				returnKeys.add(key);
+		this.returnCache.invalidateAll(returnKeys);
+
+		List<NDNDKey> callToReturnKeys = new ArrayList<NDNDKey>();
+		for (NDNDKey key : callToReturnCache.asMap().keySet())
+			if (isChanged(key.n1, methods, icfg) || isChanged(key.n2, methods, icfg))
+				callToReturnKeys.add(key);
+		this.callToReturnCache.invalidateAll(callToReturnKeys);
+	}
+
+	protected static <N,M> boolean isChanged(N n, Set<M> methods, InterproceduralCFG<N,M> icfg) {
+		return n != null && (!icfg.containsStmt(n) || methods.contains(icfg.getMethodOf(n)));
+	}
+
 	private class NDNDKey {
 		private final N n1, n2;
 		private final D d1, d2;
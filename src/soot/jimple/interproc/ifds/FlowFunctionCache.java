@@ -1,5 +1,9 @@
 package soot.jimple.interproc.ifds;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -16,6 +20,27 @@ public class FlowFunctionCache<N, D, M> implements FlowFunctions<N, D, M> {
 
 	protected final LoadingCache<NNKey, FlowFunction<D>> callToReturnCache;
 
+	/**
+	 * Gets the functions whose results are cached
+	 * @return The underlying functions
+	 */
+	public FlowFunctions<N, D, M> getDelegate() {
+		return delegate;
+	}
+	
+	/**
+	 * Creates a cache that does not use any Guava caches. Subclasses calling
+	 * this constructor must override all methods accessing the caches.
+	 * @param delegate The functions to cache
+	 */
+	protected FlowFunctionCache(FlowFunctions<N, D, M> delegate) {
+		this.delegate = delegate;
+		this.normalCache = null;
+		this.callCache = null;
+		this.returnCache = null;
+		this.callToReturnCache = null;
+	}
+
 	@SuppressWarnings("unchecked")
 	public FlowFunctionCache(final FlowFunctions<N, D, M> delegate, @SuppressWarnings("rawtypes") CacheBuilder builder) {
 		this.delegate = delegate;
@@ -75,6 +100,45 @@ public class FlowFunctionCache<N, D, M> implements FlowFunctions<N, D, M> {
 		this.callToReturnCache.invalidateAll();
 	}
 	
+	/**
+	 * Invalidates all items in the cache that refer to one of the given
+	 * methods or to a statement inside them. Statements that are no longer
+	 * part of the given control-flow graph are considered changed as well.
+	 * Items referring only to other methods remain cached.
+	 * @param methods The methods whose flow functions shall be invalidated
+	 * @param icfg The control-flow graph to which the statements belong
+	 */
+	public void invalidateMethods(Set<M> methods, InterproceduralCFG<N,M> icfg) {
+		List<NNKey> normalKeys = new ArrayList<NNKey>();
+		for (NNKey key : normalCache.asMap().keySet())
+			if (isChanged(key.curr, methods, icfg) || isChanged(key.succ, methods, icfg))
+				normalKeys.add(key);
+		this.normalCache.invalidateAll(normalKeys);
+		
+		List<CallKey> callKeys = new ArrayList<CallKey>();
+		for (CallKey key : callCache.asMap().keySet())
+			if (isChanged(key.callStmt, methods, icfg) || methods.contains(key.destinationMethod))
+				callKeys.add(key);
+		this.callCache.invalidateAll(callKeys);
+		
+		List<ReturnKey> returnKeys = new ArrayList<ReturnKey>();
+		for (ReturnKey key : returnCache.asMap().keySet())
+			if (isChanged(key.getCallStmt(), methods, icfg) || methods.contains(key.getDestinationMethod())
+					|| isChanged(key.exitStmt, methods, icfg) || isChanged(key.returnSite, methods, icfg))
+				returnKeys.add(key);
+		this.returnCache.invalidateAll(returnKeys);
+		
+		List<NNKey> callToReturnKeys = new ArrayList<NNKey>();
+		for (NNKey key : callToReturnCache.asMap().keySet())
+			if (isChanged(key.curr, methods, icfg) || isChanged(key.succ, methods, icfg))
+				callToReturnKeys.add(key);
+		this.callToReturnCache.invalidateAll(callToReturnKeys);
+	}
+	
+	protected static <N,M> boolean isChanged(N n, Set<M> methods, InterproceduralCFG<N,M> icfg) {
+		return n != null && (!icfg.containsStmt(n) || methods.contains(icfg.getMethodOf(n)));
+	}
+	
 	private class NNKey {
 		private final N curr, succ; 
 
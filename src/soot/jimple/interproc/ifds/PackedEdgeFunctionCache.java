@@ -0,0 +1,227 @@
+package soot.jimple.interproc.ifds;
+
+import static soot.jimple.interproc.ifds.utils.LongObjectHashMap.high;
+import static soot.jimple.interproc.ifds.utils.LongObjectHashMap.low;
+import static soot.jimple.interproc.ifds.utils.LongObjectHashMap.pack;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.utils.ConcurrentPackedKeyMap;
+import soot.jimple.interproc.ifds.utils.DenseIdMap;
+
+/**
+ * Edge function cache that interns nodes, facts and methods to integer ids
+ * and stores the functions in primitive open-addressing maps keyed by the
+ * packed ids. In contrast to {@link EdgeFunctionCache}, lookups do not create
+ * any key objects. Entries are never evicted, they are only removed by the
+ * invalidation methods, which also release the ids no longer in use.
+ */
+@ThreadSafe
+public class PackedEdgeFunctionCache<N, D, M, V> extends EdgeFunctionCache<N, D, M, V> {
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<N> nodeIds = new DenseIdMap<N>(10000);
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<D> factIds = new DenseIdMap<D>(10000);
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<M> methodIds = new DenseIdMap<M>(1000);
+
+	//(curr, succ), (curr fact, succ fact) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<EdgeFunction<V>> normalFunctions =
+			new ConcurrentPackedKeyMap<EdgeFunction<V>>(10000);
+
+	//(call, callee), (call fact, callee fact) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<EdgeFunction<V>> callFunctions =
+			new ConcurrentPackedKeyMap<EdgeFunction<V>>(1000);
+
+	//(call, callee), (exit, return site), (exit fact, return fact) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<EdgeFunction<V>> returnFunctions =
+			new ConcurrentPackedKeyMap<EdgeFunction<V>>(1000);
+
+	//(call, return site), (call fact, return fact) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<EdgeFunction<V>> callToReturnFunctions =
+			new ConcurrentPackedKeyMap<EdgeFunction<V>>(1000);
+
+	public PackedEdgeFunctionCache(EdgeFunctions<N, D, M, V> delegate) {
+		super(delegate);
+	}
+
+	private int nodeId(N n) {
+		return n == null ? -1 : nodeIds.getOrCreateId(n);
+	}
+
+	private int factId(D d) {
+		return d == null ? -1 : factIds.getOrCreateId(d);
+	}
+
+	private int methodId(M m) {
+		return m == null ? -1 : methodIds.getOrCreateId(m);
+	}
+
+	private N node(int id) {
+		return id < 0 ? null : nodeIds.getObject(id);
+	}
+
+	private M method(int id) {
+		return id < 0 ? null : methodIds.getObject(id);
+	}
+
+	@Override
+	public EdgeFunction<V> getNormalEdgeFunction(N curr, D currNode, N succ, D succNode) {
+		long nodeKey = pack(nodeId(curr), nodeId(succ));
+		long factKey = pack(factId(currNode), factId(succNode));
+		EdgeFunction<V> f = normalFunctions.get(nodeKey, factKey, 0);
+		if (f == null)
+			f = normalFunctions.putIfAbsent(nodeKey, factKey, 0,
+					delegate.getNormalEdgeFunction(curr, currNode, succ, succNode));
+		return f;
+	}
+
+	@Override
+	public EdgeFunction<V> getCallEdgeFunction(N callStmt, D srcNode, M destinationMethod, D destNode) {
+		long callKey = pack(nodeId(callStmt), methodId(destinationMethod));
+		long factKey = pack(factId(srcNode), factId(destNode));
+		EdgeFunction<V> f = callFunctions.get(callKey, factKey, 0);
+		if (f == null)
+			f = callFunctions.putIfAbsent(callKey, factKey, 0,
+					delegate.getCallEdgeFunction(callStmt, srcNode, destinationMethod, destNode));
+		return f;
+	}
+
+	@Override
+	public EdgeFunction<V> getReturnEdgeFunction(N callSite, M calleeMethod, N exitStmt, D exitNode,
+			N returnSite, D retNode) {
+		long callKey = pack(nodeId(callSite), methodId(calleeMethod));
+		long exitKey = pack(nodeId(exitStmt), nodeId(returnSite));
+		long factKey = pack(factId(exitNode), factId(retNode));
+		EdgeFunction<V> f = returnFunctions.get(callKey, exitKey, factKey);
+		if (f == null)
+			f = returnFunctions.putIfAbsent(callKey, exitKey, factKey,
+					delegate.getReturnEdgeFunction(callSite, calleeMethod, exitStmt, exitNode, returnSite, retNode));
+		return f;
+	}
+
+	@Override
+	public EdgeFunction<V> getCallToReturnEdgeFunction(N callSite, D callNode, N returnSite, D returnSideNode) {
+		long nodeKey = pack(nodeId(callSite), nodeId(returnSite));
+		long factKey = pack(factId(callNode), factId(returnSideNode));
+		EdgeFunction<V> f = callToReturnFunctions.get(nodeKey, factKey, 0);
+		if (f == null)
+			f = callToReturnFunctions.putIfAbsent(nodeKey, factKey, 0,
+					delegate.getCallToReturnEdgeFunction(callSite, callNode, returnSite, returnSideNode));
+		return f;
+	}
+
+	@Override
+	public void invalidateAll() {
+		this.normalFunctions.clear();
+		this.callFunctions.clear();
+		this.returnFunctions.clear();
+		this.callToReturnFunctions.clear();
+		this.nodeIds.clear();
+		this.factIds.clear();
+		this.methodIds.clear();
+	}
+
+	@Override
+	public void invalidateMethods(final Set<M> methods, final InterproceduralCFG<N,M> icfg) {
+		// Node pairs are used by the normal and the call-to-return functions
+		ConcurrentPackedKeyMap.KeyFilter nodePairFilter = new ConcurrentPackedKeyMap.KeyFilter() {
+			public boolean matches(long k1, long k2, long k3) {
+				return isChanged(node(high(k1)), methods, icfg)
+						|| isChanged(node(low(k1)), methods, icfg);
+			}
+		};
+		this.normalFunctions.removeIf(nodePairFilter);
+		this.callToReturnFunctions.removeIf(nodePairFilter);
+
+		ConcurrentPackedKeyMap.KeyFilter callFilter = new ConcurrentPackedKeyMap.KeyFilter() {
+			public boolean matches(long k1, long k2, long k3) {
+				return isChanged(node(high(k1)), methods, icfg)
+						|| methods.contains(method(low(k1)));
+			}
+		};
+		this.callFunctions.removeIf(callFilter);
+
+		ConcurrentPackedKeyMap.KeyFilter returnFilter = new ConcurrentPackedKeyMap.KeyFilter() {
+			public boolean matches(long k1, long k2, long k3) {
+				return isChanged(node(high(k1)), methods, icfg)
+						|| methods.contains(method(low(k1)))
+						|| isChanged(node(high(k2)), methods, icfg)
+						|| isChanged(node(low(k2)), methods, icfg);
+			}
+		};
+		this.returnFunctions.removeIf(returnFilter);
+
+		releaseUnusedIds();
+	}
+
+	/**
+	 * Releases the ids of all nodes, facts and methods no cached function
+	 * refers to any more, e.g. those of expired statements. Must not run
+	 * concurrently with lookups, which might still hold the released ids.
+	 */
+	private void releaseUnusedIds() {
+		final BitSet usedNodes = new BitSet(nodeIds.size());
+		final BitSet usedFacts = new BitSet(factIds.size());
+		final BitSet usedMethods = new BitSet(methodIds.size());
+		ConcurrentPackedKeyMap.KeyVisitor nodePairVisitor = new ConcurrentPackedKeyMap.KeyVisitor() {
+			public void visit(long k1, long k2, long k3) {
+				use(usedNodes, high(k1));
+				use(usedNodes, low(k1));
+				use(usedFacts, high(k2));
+				use(usedFacts, low(k2));
+			}
+		};
+		this.normalFunctions.forEachKey(nodePairVisitor);
+		this.callToReturnFunctions.forEachKey(nodePairVisitor);
+
+		ConcurrentPackedKeyMap.KeyVisitor callVisitor = new ConcurrentPackedKeyMap.KeyVisitor() {
+			public void visit(long k1, long k2, long k3) {
+				use(usedNodes, high(k1));
+				use(usedMethods, low(k1));
+				use(usedFacts, high(k2));
+				use(usedFacts, low(k2));
+			}
+		};
+		this.callFunctions.forEachKey(callVisitor);
+
+		ConcurrentPackedKeyMap.KeyVisitor returnVisitor = new ConcurrentPackedKeyMap.KeyVisitor() {
+			public void visit(long k1, long k2, long k3) {
+				use(usedNodes, high(k1));
+				use(usedMethods, low(k1));
+				use(usedNodes, high(k2));
+				use(usedNodes, low(k2));
+				use(usedFacts, high(k3));
+				use(usedFacts, low(k3));
+			}
+		};
+		this.returnFunctions.forEachKey(returnVisitor);
+
+		this.nodeIds.removeAllExcept(usedNodes);
+		this.factIds.removeAllExcept(usedFacts);
+		this.methodIds.removeAllExcept(usedMethods);
+	}
+
+	private static void use(BitSet ids, int id) {
+		if (id >= 0)
+			ids.set(id);
+	}
+
+	@Override
+	public void printStats() {
+		System.err.println("Stats for edge-function cache:");
+		System.err.println("Normal:         " + normalFunctions.size() + " functions");
+		System.err.println("Call:           " + callFunctions.size() + " functions");
+		System.err.println("Return:         " + returnFunctions.size() + " functions");
+		System.err.println("Call-to-return: " + callToReturnFunctions.size() + " functions");
+	}
+
+}
@@ -0,0 +1,204 @@
+package soot.jimple.interproc.ifds;
+
+import static soot.jimple.interproc.ifds.utils.LongObjectHashMap.high;
+import static soot.jimple.interproc.ifds.utils.LongObjectHashMap.low;
+import static soot.jimple.interproc.ifds.utils.LongObjectHashMap.pack;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.utils.ConcurrentPackedKeyMap;
+import soot.jimple.interproc.ifds.utils.DenseIdMap;
+
+/**
+ * Flow function cache that interns nodes and methods to integer ids and
+ * stores the functions in primitive open-addressing maps keyed by the packed
+ * ids. In contrast to {@link FlowFunctionCache}, lookups do not create any
+ * key objects. Entries are never evicted, they are only removed by the
+ * invalidation methods, which also release the ids no longer in use.
+ */
+@ThreadSafe
+public class PackedFlowFunctionCache<N, D, M> extends FlowFunctionCache<N, D, M> {
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<N> nodeIds = new DenseIdMap<N>(10000);
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<M> methodIds = new DenseIdMap<M>(1000);
+
+	//(curr, succ) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<FlowFunction<D>> normalFunctions =
+			new ConcurrentPackedKeyMap<FlowFunction<D>>(10000);
+
+	//(call, callee) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<FlowFunction<D>> callFunctions =
+			new ConcurrentPackedKeyMap<FlowFunction<D>>(1000);
+
+	//(call, callee), (exit, return site) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<FlowFunction<D>> returnFunctions =
+			new ConcurrentPackedKeyMap<FlowFunction<D>>(1000);
+
+	//(call, return site) -> function
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentPackedKeyMap<FlowFunction<D>> callToReturnFunctions =
+			new ConcurrentPackedKeyMap<FlowFunction<D>>(1000);
+
+	public PackedFlowFunctionCache(FlowFunctions<N, D, M> delegate) {
+		super(delegate);
+	}
+
+	private int nodeId(N n) {
+		return n == null ? -1 : nodeIds.getOrCreateId(n);
+	}
+
+	private int methodId(M m) {
+		return m == null ? -1 : methodIds.getOrCreateId(m);
+	}
+
+	private N node(int id) {
+		return id < 0 ? null : nodeIds.getObject(id);
+	}
+
+	private M method(int id) {
+		return id < 0 ? null : methodIds.getObject(id);
+	}
+
+	@Override
+	public FlowFunction<D> getNormalFlowFunction(N curr, N succ) {
+		long key = pack(nodeId(curr), nodeId(succ));
+		FlowFunction<D> f = normalFunctions.get(key, 0, 0);
+		if (f == null)
+			f = normalFunctions.putIfAbsent(key, 0, 0, delegate.getNormalFlowFunction(curr, succ));
+		return f;
+	}
+
+	@Override
+	public FlowFunction<D> getCallFlowFunction(N callStmt, M destinationMethod) {
+		long key = pack(nodeId(callStmt), methodId(destinationMethod));
+		FlowFunction<D> f = callFunctions.get(key, 0, 0);
+		if (f == null)
+			f = callFunctions.putIfAbsent(key, 0, 0, delegate.getCallFlowFunction(callStmt, destinationMethod));
+		return f;
+	}
+
+	@Override
+	public FlowFunction<D> getReturnFlowFunction(N callSite, M calleeMethod, N exitStmt, N returnSite) {
+		long callKey = pack(nodeId(callSite), methodId(calleeMethod));
+		long exitKey = pack(nodeId(exitStmt), nodeId(returnSite));
+		FlowFunction<D> f = returnFunctions.get(callKey, exitKey, 0);
+		if (f == null)
+			f = returnFunctions.putIfAbsent(callKey, exitKey, 0,
+					delegate.getReturnFlowFunction(callSite, calleeMethod, exitStmt, returnSite));
+		return f;
+	}
+
+	@Override
+	public FlowFunction<D> getCallToReturnFlowFunction(N callSite, N returnSite) {
+		long key = pack(nodeId(callSite), nodeId(returnSite));
+		FlowFunction<D> f = callToReturnFunctions.get(key, 0, 0);
+		if (f == null)
+			f = callToReturnFunctions.putIfAbsent(key, 0, 0,
+					delegate.getCallToReturnFlowFunction(callSite, returnSite));
+		return f;
+	}
+
+	@Override
+	public void invalidateAll() {
+		this.normalFunctions.clear();
+		this.callFunctions.clear();
+		this.returnFunctions.clear();
+		this.callToReturnFunctions.clear();
+		this.nodeIds.clear();
+		this.methodIds.clear();
+	}
+
+	@Override
+	public void invalidateMethods(final Set<M> methods, final InterproceduralCFG<N,M> icfg) {
+		// Node pairs are used by the normal and the call-to-return functions
+		ConcurrentPackedKeyMap.KeyFilter nodePairFilter = new ConcurrentPackedKeyMap.KeyFilter() {
+			public boolean matches(long k1, long k2, long k3) {
+				return isChanged(node(high(k1)), methods, icfg)
+						|| isChanged(node(low(k1)), methods, icfg);
+			}
+		};
+		this.normalFunctions.removeIf(nodePairFilter);
+		this.callToReturnFunctions.removeIf(nodePairFilter);
+
+		ConcurrentPackedKeyMap.KeyFilter callFilter = new ConcurrentPackedKeyMap.KeyFilter() {
+			public boolean matches(long k1, long k2, long k3) {
+				return isChanged(node(high(k1)), methods, icfg)
+						|| methods.contains(method(low(k1)));
+			}
+		};
+		this.callFunctions.removeIf(callFilter);
+
+		ConcurrentPackedKeyMap.KeyFilter returnFilter = new ConcurrentPackedKeyMap.KeyFilter() {
+			public boolean matches(long k1, long k2, long k3) {
+				return isChanged(node(high(k1)), methods, icfg)
+						|| methods.contains(method(low(k1)))
+						|| isChanged(node(high(k2)), methods, icfg)
+						|| isChanged(node(low(k2)), methods, icfg);
+			}
+		};
+		this.returnFunctions.removeIf(returnFilter);
+
+		releaseUnusedIds();
+	}
+
+	/**
+	 * Releases the ids of all nodes and methods no cached function refers
+	 * to any more, e.g. those of expired statements. Must not run
+	 * concurrently with lookups, which might still hold the released ids.
+	 */
+	private void releaseUnusedIds() {
+		final BitSet usedNodes = new BitSet(nodeIds.size());
+		final BitSet usedMethods = new BitSet(methodIds.size());
+		ConcurrentPackedKeyMap.KeyVisitor nodePairVisitor = new ConcurrentPackedKeyMap.KeyVisitor() {
+			public void visit(long k1, long k2, long k3) {
+				use(usedNodes, high(k1));
+				use(usedNodes, low(k1));
+			}
+		};
+		this.normalFunctions.forEachKey(nodePairVisitor);
+		this.callToReturnFunctions.forEachKey(nodePairVisitor);
+
+		ConcurrentPackedKeyMap.KeyVisitor callVisitor = new ConcurrentPackedKeyMap.KeyVisitor() {
+			public void visit(long k1, long k2, long k3) {
+				use(usedNodes, high(k1));
+				use(usedMethods, low(k1));
+			}
+		};
+		this.callFunctions.forEachKey(callVisitor);
+
+		ConcurrentPackedKeyMap.KeyVisitor returnVisitor = new ConcurrentPackedKeyMap.KeyVisitor() {
+			public void visit(long k1, long k2, long k3) {
+				use(usedNodes, high(k1));
+				use(usedMethods, low(k1));
+				use(usedNodes, high(k2));
+				use(usedNodes, low(k2));
+			}
+		};
+		this.returnFunctions.forEachKey(returnVisitor);
+
+		this.nodeIds.removeAllExcept(usedNodes);
+		this.methodIds.removeAllExcept(usedMethods);
+	}
+
+	private static void use(BitSet ids, int id) {
+		if (id >= 0)
+			ids.set(id);
+	}
+
+	@Override
+	public void printStats() {
+		System.err.println("Stats for flow-function cache:");
+		System.err.println("Normal:         " + normalFunctions.size() + " functions");
+		System.err.println("Call:           " + callFunctions.size() + " functions");
+		System.err.println("Return:         " + returnFunctions.size() + " functions");
+		System.err.println("Call-to-return: " + callToReturnFunctions.size() + " functions");
+	}
+
+}
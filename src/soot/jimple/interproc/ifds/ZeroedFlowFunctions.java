@@ -1,55 +1,85 @@
 package soot.jimple.interproc.ifds;
 
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
+import soot.jimple.interproc.ifds.flowfunc.Identity;
+import soot.jimple.interproc.ifds.flowfunc.KillAll;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Flow functions that additionally generate the zero value from the zero
+ * value. The targets of the zero value are computed once per wrapper and then
+ * shared as an immutable set. Wrappers are not cached here, as the flow
+ * function cache of the solver already keeps them per statement. The shared
+ * {@link Identity} and {@link KillAll} singletons are mapped to one
+ * precomputed wrapper each.
+ */
 public class ZeroedFlowFunctions<N, D, M> implements FlowFunctions<N, D, M> {
 
 	protected final FlowFunctions<N, D, M> delegate;
 	protected  final D zeroValue;
 
+	private final ZeroedFlowFunction identity = new ZeroedFlowFunction(Identity.<D>v());
+	private final ZeroedFlowFunction killAll = new ZeroedFlowFunction(KillAll.<D>v());
+
 	public ZeroedFlowFunctions(FlowFunctions<N, D, M> delegate, D zeroValue) {
 		this.delegate = delegate;
 		this.zeroValue = zeroValue;
 	}
 
 	public FlowFunction<D> getNormalFlowFunction(N curr, N succ) {
-		return new ZeroedFlowFunction(delegate.getNormalFlowFunction(curr, succ));
+		return wrap(delegate.getNormalFlowFunction(curr, succ));
 	}
 
 	public FlowFunction<D> getCallFlowFunction(N callStmt, M destinationMethod) {
-		return new ZeroedFlowFunction(delegate.getCallFlowFunction(callStmt, destinationMethod));
+		return wrap(delegate.getCallFlowFunction(callStmt, destinationMethod));
 	}
 
 	public FlowFunction<D> getReturnFlowFunction(N callSite, M calleeMethod, N exitStmt, N returnSite) {
-		return new ZeroedFlowFunction(delegate.getReturnFlowFunction(callSite, calleeMethod, exitStmt, returnSite));
+		return wrap(delegate.getReturnFlowFunction(callSite, calleeMethod, exitStmt, returnSite));
 	}
 
 	public FlowFunction<D> getCallToReturnFlowFunction(N callSite, N returnSite) {
-		return new ZeroedFlowFunction(delegate.getCallToReturnFlowFunction(callSite, returnSite));
+		return wrap(delegate.getCallToReturnFlowFunction(callSite, returnSite));
 	}
-	
+
+	private FlowFunction<D> wrap(FlowFunction<D> del) {
+		if (del == Identity.v())
+			return identity;
+		if (del == KillAll.v())
+			return killAll;
+		return new ZeroedFlowFunction(del);
+	}
+
 	protected class ZeroedFlowFunction implements FlowFunction<D> {
 
 		protected FlowFunction<D> del;
 
+		//the targets of the zero value, null if not computed yet
+		@DontSynchronize("benign race, the set is immutable")
+		private volatile Set<D> zeroTargets;
+
 		private ZeroedFlowFunction(FlowFunction<D> del) {
 			this.del = del;
-		}		
-		
+		}
+
 		@Override
 		public Set<D> computeTargets(D source) {
 			if (source == zeroValue || source.equals(zeroValue)) {
-				HashSet<D> res = new LinkedHashSet<D>(del.computeTargets(source));
-				res.add(zeroValue);
+				Set<D> res = zeroTargets;
+				if (res == null) {
+					res = ImmutableSet.<D>builder().addAll(del.computeTargets(source))
+							.add(zeroValue).build();
+					zeroTargets = res;
+				}
 				return res;
 			} else {
 				return del.computeTargets(source);
 			}
 		}
-		
+
 	}
-	
+
 
 }
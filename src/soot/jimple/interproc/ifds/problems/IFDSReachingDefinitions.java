@@ -54,7 +54,7 @@ public class IFDSReachingDefinitions extends DefaultIFDSTabulationProblem
 		});
 	}
 	
-	private UpdatableReachingDefinition createReachingDefinition(Value value, Set<DefinitionStmt> definitions) {
+	UpdatableReachingDefinition createReachingDefinition(Value value, Set<DefinitionStmt> definitions) {
 		UpdatableWrapper<Value> wrappedValue = this.interproceduralCFG().wrapWeak(value);
 		Set<UpdatableWrapper<DefinitionStmt>> wrappedDefs = this.interproceduralCFG().wrapWeak(definitions);
 		Pair<UpdatableWrapper<Value>, Set<UpdatableWrapper<DefinitionStmt>>> pair =
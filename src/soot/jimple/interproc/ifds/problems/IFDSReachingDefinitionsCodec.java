@@ -0,0 +1,144 @@
+package soot.jimple.interproc.ifds.problems;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.EquivalentValue;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IdentityRef;
+import soot.jimple.interproc.ifds.template.JimpleIFDSSolverStateCodec;
+import soot.jimple.interproc.incremental.UpdatableWrapper;
+
+/**
+ * Codec for saving and restoring the state of an IFDS solver for the
+ * {@link IFDSReachingDefinitions} problem. The value of a reaching definition
+ * is identified by the first statement using or defining it together with the
+ * index of the respective value box in that statement. The definitions are
+ * written as statements. Restored facts are created through the problem so
+ * that they are shared with the facts the solver creates later on.
+ */
+public class IFDSReachingDefinitionsCodec extends JimpleIFDSSolverStateCodec<UpdatableReachingDefinition> {
+
+	private static final int ZERO = 0;
+	private static final int VALUE = 1;
+	private static final int EQUIVALENT_VALUE = 2;
+
+	private final IFDSReachingDefinitions problem;
+
+	private Map<Value, ValueLocation> valueLocations = null;
+	private Map<EquivalentValue, ValueLocation> equivalentValueLocations = null;
+
+	private static class ValueLocation {
+		private final UpdatableWrapper<Unit> node;
+		private final int box;
+
+		public ValueLocation(UpdatableWrapper<Unit> node, int box) {
+			this.node = node;
+			this.box = box;
+		}
+	}
+
+	/**
+	 * Creates a new instance of the IFDSReachingDefinitionsCodec class
+	 * @param problem The problem whose solver state shall be saved or
+	 * restored. Its control-flow graph is used to resolve statements.
+	 */
+	public IFDSReachingDefinitionsCodec(IFDSReachingDefinitions problem) {
+		super(problem.interproceduralCFG());
+		this.problem = problem;
+	}
+
+	/**
+	 * Indexes the values of all statements in the control-flow graph. Values
+	 * are compared by identity. Parameter and this references are created
+	 * anew by the call flow function, so they are compared by equivalence.
+	 */
+	private void buildValueIndex() {
+		valueLocations = new IdentityHashMap<Value, ValueLocation>();
+		equivalentValueLocations = new HashMap<EquivalentValue, ValueLocation>();
+		for (UpdatableWrapper<Unit> n : icfg.getAllNodes()) {
+			List<ValueBox> boxes = n.getContents().getUseAndDefBoxes();
+			for (int i = 0; i < boxes.size(); i++) {
+				Value v = boxes.get(i).getValue();
+				if (!valueLocations.containsKey(v))
+					valueLocations.put(v, new ValueLocation(n, i));
+				if (v instanceof IdentityRef) {
+					EquivalentValue ev = new EquivalentValue(v);
+					if (!equivalentValueLocations.containsKey(ev))
+						equivalentValueLocations.put(ev, new ValueLocation(n, i));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void writeFact(UpdatableReachingDefinition d, DataOutput out) throws IOException {
+		if (d == UpdatableReachingDefinition.zero) {
+			out.writeByte(ZERO);
+			return;
+		}
+
+		if (valueLocations == null)
+			buildValueIndex();
+		Value v = d.getValue();
+		ValueLocation location;
+		if (v instanceof EquivalentValue) {
+			out.writeByte(EQUIVALENT_VALUE);
+			location = equivalentValueLocations.get(v);
+		}
+		else {
+			out.writeByte(VALUE);
+			location = valueLocations.get(v);
+		}
+		if (location == null)
+			throw new IOException("Value " + v + " not found in the control-flow graph");
+		writeNode(location.node, out);
+		out.writeInt(location.box);
+
+		Set<DefinitionStmt> definitions = d.getDefinitions();
+		out.writeInt(definitions.size());
+		for (DefinitionStmt def : definitions)
+			writeNode(icfg.wrapWeak((Unit) def), out);
+	}
+
+	@Override
+	public UpdatableReachingDefinition readFact(DataInput in) throws IOException {
+		int type = in.readByte();
+		if (type == ZERO)
+			return UpdatableReachingDefinition.zero;
+		if (type != VALUE && type != EQUIVALENT_VALUE)
+			throw new IOException("Corrupt snapshot, invalid fact type " + type);
+
+		UpdatableWrapper<Unit> node = readNode(in);
+		int box = in.readInt();
+		if (node == null)
+			return null;
+		List<ValueBox> boxes = node.getContents().getUseAndDefBoxes();
+		if (box < 0 || box >= boxes.size())
+			return null;
+		Value v = boxes.get(box).getValue();
+		if (type == EQUIVALENT_VALUE)
+			v = new EquivalentValue(v);
+
+		int count = in.readInt();
+		Set<DefinitionStmt> definitions = new LinkedHashSet<DefinitionStmt>(count);
+		for (int i = 0; i < count; i++) {
+			UpdatableWrapper<Unit> def = readNode(in);
+			if (def == null || !(def.getContents() instanceof DefinitionStmt))
+				return null;
+			definitions.add((DefinitionStmt) def.getContents());
+		}
+		return problem.createReachingDefinition(v, definitions);
+	}
+
+}
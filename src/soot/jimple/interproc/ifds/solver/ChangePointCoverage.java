@@ -0,0 +1,263 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+
+/**
+ * Determines which nodes of a method are covered by the change points in the
+ * method, i.e. which nodes can be reached from a change point other than
+ * themselves along a non-empty path. Propagations starting at or returning to
+ * a covered node are redundant, because the propagation from the covering
+ * change point will reach the node anyway.
+ *
+ * The nodes reachable from the change points are condensed into their strongly
+ * connected components, which are then visited in topological order. For
+ * every component, at most two distinct change points reaching it are
+ * recorded, which suffices to tell whether a change point other than the node
+ * itself reaches it. The effort is linear in the size of the part of the
+ * method reachable from the change points.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ */
+public class ChangePointCoverage<N> {
+
+	private final List<N> nodes = new ArrayList<N>();
+	private final Map<N, Integer> ids = new HashMap<N, Integer>();
+	private final List<int[]> succs = new ArrayList<int[]>();
+
+	// The component of every node, and per component the first change point
+	// inside it and the first change point of another component reaching it
+	private int[] component;
+	private int[] ownA;
+	private int[] inA;
+
+	private ChangePointCoverage() {
+	}
+
+	/**
+	 * Computes the nodes covered by the given change points
+	 * @param icfg The interprocedural control-flow graph
+	 * @param changePoints The change points within a single method
+	 * @return The nodes reachable from a change point other than themselves
+	 */
+	public static <N> Set<N> coveredNodes(InterproceduralCFG<N, ?> icfg, Set<N> changePoints) {
+		if (changePoints == null || changePoints.isEmpty())
+			return Collections.emptySet();
+		ChangePointCoverage<N> coverage = new ChangePointCoverage<N>();
+		coverage.explore(icfg, changePoints);
+		return coverage.computeCovered(changePoints);
+	}
+
+	/**
+	 * Selects the change points from which a propagation must be started so
+	 * that all change points are reached. These are the change points not
+	 * covered by other change points. Change points that reach each other
+	 * mutually, e.g. inside a loop, are all covered, so the first of them is
+	 * kept as the representative of their strongly connected component
+	 * unless a change point outside the component reaches it.
+	 * @param icfg The interprocedural control-flow graph
+	 * @param changePoints The change points within a single method
+	 * @return The change points from which to start the propagation, in the
+	 * iteration order of the given set
+	 */
+	public static <N> List<N> changeRoots(InterproceduralCFG<N, ?> icfg, Set<N> changePoints) {
+		if (changePoints == null || changePoints.isEmpty())
+			return Collections.emptyList();
+		ChangePointCoverage<N> coverage = new ChangePointCoverage<N>();
+		coverage.explore(icfg, changePoints);
+		coverage.computeCovered(changePoints);
+
+		List<N> roots = new ArrayList<N>();
+		for (N n : changePoints) {
+			int i = coverage.ids.get(n);
+			int c = coverage.component[i];
+			if (coverage.inA[c] == -1 && coverage.ownA[c] == i)
+				roots.add(n);
+		}
+		return roots;
+	}
+
+	private int idOf(N n, List<N> workList) {
+		Integer id = ids.get(n);
+		if (id == null) {
+			id = nodes.size();
+			ids.put(n, id);
+			nodes.add(n);
+			workList.add(n);
+		}
+		return id;
+	}
+
+	/**
+	 * Numbers all nodes reachable from the change points and records their
+	 * successors
+	 */
+	private void explore(InterproceduralCFG<N, ?> icfg, Set<N> changePoints) {
+		List<N> workList = new ArrayList<N>();
+		for (N n : changePoints)
+			idOf(n, workList);
+		for (int i = 0; i < workList.size(); i++) {
+			N n = workList.get(i);
+			if (!icfg.containsStmt(n)) {
+				succs.add(new int[0]);
+				continue;
+			}
+			List<N> nodeSuccs = icfg.getSuccsOf(n);
+			int[] succIds = new int[nodeSuccs.size()];
+			for (int j = 0; j < succIds.length; j++)
+				succIds[j] = idOf(nodeSuccs.get(j), workList);
+			succs.add(succIds);
+		}
+	}
+
+	private Set<N> computeCovered(Set<N> changePoints) {
+		int count = nodes.size();
+		component = new int[count];
+		int componentCount = computeComponents(component);
+
+		boolean[] isChangePoint = new boolean[count];
+		for (N n : changePoints)
+			isChangePoint[ids.get(n)] = true;
+
+		// Tarjan's algorithm numbers the components in reverse topological
+		// order. Find the change points inside each component and whether
+		// the component contains a cycle.
+		ownA = new int[componentCount];
+		int[] ownB = new int[componentCount];
+		int[] size = new int[componentCount];
+		boolean[] cyclic = new boolean[componentCount];
+		inA = new int[componentCount];
+		int[] inB = new int[componentCount];
+		Arrays.fill(ownA, -1);
+		Arrays.fill(ownB, -1);
+		Arrays.fill(inA, -1);
+		Arrays.fill(inB, -1);
+		List<List<Integer>> members = new ArrayList<List<Integer>>(componentCount);
+		for (int c = 0; c < componentCount; c++)
+			members.add(new ArrayList<Integer>(1));
+		for (int i = 0; i < count; i++) {
+			int c = component[i];
+			members.get(c).add(i);
+			size[c]++;
+			if (isChangePoint[i])
+				addReacher(ownA, ownB, c, i);
+			for (int s : succs.get(i))
+				if (s == i)
+					cyclic[c] = true;
+		}
+
+		// Push the change points reaching each component to its successors
+		Set<N> covered = new HashSet<N>();
+		for (int c = componentCount - 1; c >= 0; c--) {
+			if (size[c] > 1)
+				cyclic[c] = true;
+			for (int i : members.get(c)) {
+				// Inside a cycle, every change point of the component reaches
+				// all of its nodes
+				if (isOther(inA[c], i) || isOther(inB[c], i)
+						|| (cyclic[c] && (isOther(ownA[c], i) || isOther(ownB[c], i))))
+					covered.add(nodes.get(i));
+
+				for (int s : succs.get(i)) {
+					int t = component[s];
+					if (t == c)
+						continue;
+					addReacher(inA, inB, t, inA[c]);
+					addReacher(inA, inB, t, inB[c]);
+					addReacher(inA, inB, t, ownA[c]);
+					addReacher(inA, inB, t, ownB[c]);
+				}
+			}
+		}
+		return covered;
+	}
+
+	private static boolean isOther(int id, int node) {
+		return id != -1 && id != node;
+	}
+
+	/**
+	 * Records that the given change point reaches the given component,
+	 * keeping at most two distinct change points per component
+	 */
+	private static void addReacher(int[] a, int[] b, int c, int id) {
+		if (id == -1 || a[c] == id || b[c] == id)
+			return;
+		if (a[c] == -1)
+			a[c] = id;
+		else if (b[c] == -1)
+			b[c] = id;
+	}
+
+	/**
+	 * Computes the strongly connected components using an iterative version
+	 * of Tarjan's algorithm
+	 * @param component The array that receives the component of every node
+	 * @return The number of components
+	 */
+	private int computeComponents(int[] component) {
+		int count = nodes.size();
+		int[] index = new int[count];
+		int[] lowLink = new int[count];
+		int[] nextSucc = new int[count];
+		boolean[] onStack = new boolean[count];
+		Arrays.fill(index, -1);
+		int[] stack = new int[count];
+		int stackSize = 0;
+		int[] callStack = new int[count];
+		int nextIndex = 0;
+		int componentCount = 0;
+
+		for (int root = 0; root < count; root++) {
+			if (index[root] != -1)
+				continue;
+			int depth = 0;
+			callStack[depth++] = root;
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+
+			while (depth > 0) {
+				int v = callStack[depth - 1];
+				int[] vSuccs = succs.get(v);
+				if (nextSucc[v] < vSuccs.length) {
+					int w = vSuccs[nextSucc[v]++];
+					if (index[w] == -1) {
+						index[w] = lowLink[w] = nextIndex++;
+						stack[stackSize++] = w;
+						onStack[w] = true;
+						callStack[depth++] = w;
+					}
+					else if (onStack[w])
+						lowLink[v] = Math.min(lowLink[v], index[w]);
+					continue;
+				}
+
+				depth--;
+				if (depth > 0) {
+					int parent = callStack[depth - 1];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+				}
+				if (lowLink[v] == index[v]) {
+					int w;
+					do {
+						w = stack[--stackSize];
+						onStack[w] = false;
+						component[w] = componentCount;
+					} while (w != v);
+					componentCount++;
+				}
+			}
+		}
+		return componentCount;
+	}
+
+}
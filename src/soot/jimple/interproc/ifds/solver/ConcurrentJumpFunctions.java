@@ -0,0 +1,396 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import soot.jimple.interproc.ifds.DontSynchronize;
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+
+/**
+ * Concurrent index over the jump functions. In contrast to {@link JumpFunctions},
+ * there is no global monitor. All jump functions that share the same target
+ * statement are kept in one entry with its own lock, so threads propagating
+ * to different statements never contend. Callers may iterate over the maps
+ * handed out by the lookup methods while other threads change the index.
+ * Small maps are immutable snapshots that are replaced on every write (copy
+ * on write). Once a map grows beyond {@link #COPY_ON_WRITE_LIMIT} entries, it
+ * is replaced by a concurrent map that is changed in place and handed out as
+ * an unmodifiable, weakly consistent view. This keeps filling a large map
+ * linear instead of quadratic in its size.
+ */
+@ThreadSafe
+public class ConcurrentJumpFunctions<N,D,L> implements IJumpFunctions<N,D,L> {
+
+	/**
+	 * Maximum number of entries of an inner map that is still copied on
+	 * write. Larger inner maps are changed in place.
+	 */
+	static final int COPY_ON_WRITE_LIMIT = 8;
+
+	/**
+	 * mapping from target node to all jump functions ending at this node
+	 * we exclude empty default functions
+	 */
+	@SynchronizedBy("thread safe data structure, entries are locked individually")
+	private final ConcurrentMap<N,TargetEntry<D,L>> byTarget = new ConcurrentHashMap<N,TargetEntry<D,L>>
+		(10000, 0.75f, Runtime.getRuntime().availableProcessors());
+
+	@DontSynchronize("immutable")
+	private final EdgeFunction<L> allTop;
+
+	public ConcurrentJumpFunctions(EdgeFunction<L> allTop) {
+		this.allTop = allTop;
+	}
+
+	/**
+	 * Gets the entry for the given target node, creating it if necessary.
+	 * Callers must lock the entry and check that it has not been retired in
+	 * the meantime.
+	 */
+	private TargetEntry<D,L> entryFor(N target) {
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null) {
+			TargetEntry<D,L> newEntry = new TargetEntry<D,L>();
+			entry = byTarget.putIfAbsent(target, newEntry);
+			if (entry == null)
+				entry = newEntry;
+		}
+		return entry;
+	}
+
+	/**
+	 * Removes the given entry from the index. The caller must hold the lock
+	 * on the entry.
+	 */
+	private void retire(N target, TargetEntry<D,L> entry) {
+		entry.retired = true;
+		byTarget.remove(target, entry);
+	}
+
+	@Override
+	public void addFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function) {
+		assert sourceVal!=null;
+		assert target!=null;
+		assert targetVal!=null;
+		assert function!=null;
+
+		//we do not store the default function (all-top)
+		if(function.equalTo(allTop)) return;
+
+		while (true) {
+			TargetEntry<D,L> entry = entryFor(target);
+			synchronized (entry) {
+				if (entry.retired)
+					continue;
+				entry.put(sourceVal, targetVal, function);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public EdgeFunction<L> joinFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function) {
+		assert sourceVal!=null;
+		assert target!=null;
+		assert targetVal!=null;
+		assert function!=null;
+
+		while (true) {
+			TargetEntry<D,L> entry = entryFor(target);
+			synchronized (entry) {
+				if (entry.retired)
+					continue;
+				EdgeFunction<L> jumpFnE = entry.get(sourceVal, targetVal);
+				if(jumpFnE==null) jumpFnE = allTop; //JumpFn is initialized to all-top (see line [2] in SRH96 paper)
+				EdgeFunction<L> fPrime = jumpFnE.joinWith(function);
+				if (fPrime.equalTo(jumpFnE)) {
+					if (entry.isEmpty())
+						retire(target, entry);
+					return null;
+				}
+				entry.put(sourceVal, targetVal, fPrime);
+				return fPrime;
+			}
+		}
+	}
+
+	@Override
+	public boolean removeFunction(D sourceVal, N target, D targetVal) {
+		assert sourceVal!=null;
+		assert target!=null;
+		assert targetVal!=null;
+
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null)
+			return false;
+		synchronized (entry) {
+			if (entry.retired)
+				return false;
+			boolean removed = entry.remove(sourceVal, targetVal);
+			if (entry.isEmpty())
+				retire(target, entry);
+			return removed;
+		}
+	}
+
+	@Override
+	public Map<D,EdgeFunction<L>> removeFunctions(D sourceVal, N target) {
+		assert sourceVal!=null;
+		assert target!=null;
+
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null)
+			return Collections.emptyMap();
+		synchronized (entry) {
+			if (entry.retired)
+				return Collections.emptyMap();
+			Map<D,EdgeFunction<L>> removed = entry.removeSource(sourceVal);
+			if (entry.isEmpty())
+				retire(target, entry);
+			return removed;
+		}
+	}
+
+	@Override
+	public void removeByTarget(N target) {
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			if (!entry.retired)
+				retire(target, entry);
+		}
+	}
+
+	@Override
+	public Map<D,EdgeFunction<L>> reverseLookup(N target, D targetVal) {
+		assert target!=null;
+		assert targetVal!=null;
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null) return Collections.emptyMap();
+		Map<D,EdgeFunction<L>> res = entry.reverse.get(targetVal);
+		if (res == null) return Collections.emptyMap();
+		return TargetEntry.view(res);
+	}
+
+	@Override
+	public Map<D,EdgeFunction<L>> forwardLookup(D sourceVal, N target) {
+		assert sourceVal!=null;
+		assert target!=null;
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null) return Collections.emptyMap();
+		Map<D,EdgeFunction<L>> res = entry.forward.get(sourceVal);
+		if (res == null) return Collections.emptyMap();
+		return TargetEntry.view(res);
+	}
+
+	@Override
+	public Set<Cell<D,D,EdgeFunction<L>>> lookupByTarget(N target) {
+		assert target!=null;
+		TargetEntry<D,L> entry = byTarget.get(target);
+		if (entry == null) return Collections.emptySet();
+		return entry.cells();
+	}
+
+	@Override
+	public void clear() {
+		for (Entry<N,TargetEntry<D,L>> entry : byTarget.entrySet())
+			synchronized (entry.getValue()) {
+				entry.getValue().retired = true;
+			}
+		byTarget.clear();
+	}
+
+	@Override
+	public void replaceNode(N oldStmt, N newStmt) {
+		assert oldStmt != null;
+		assert newStmt != null;
+
+		TargetEntry<D,L> entry = byTarget.remove(oldStmt);
+		if (entry != null)
+			byTarget.put(newStmt, entry);
+	}
+
+	@Override
+	public Table<D, N, Map<D, EdgeFunction<L>>> getAllFunctions() {
+		Table<D, N, Map<D, EdgeFunction<L>>> res = HashBasedTable.create();
+		for (Entry<N,TargetEntry<D,L>> entry : byTarget.entrySet())
+			for (Entry<D,Map<D,EdgeFunction<L>>> fwd : entry.getValue().forward.entrySet())
+				res.put(fwd.getKey(), entry.getKey(), TargetEntry.view(fwd.getValue()));
+		return res;
+	}
+
+	@Override
+	public Set<N> getTargets() {
+		return Collections.unmodifiableSet(byTarget.keySet());
+	}
+
+	@Override
+	public int targetCount() {
+		return byTarget.size();
+	}
+
+	@Override
+	public int sourceFactCount() {
+		Set<D> sources = new HashSet<D>();
+		for (TargetEntry<D,L> entry : byTarget.values())
+			sources.addAll(entry.forward.keySet());
+		return sources.size();
+	}
+
+	/**
+	 * All jump functions that end at one target statement. The outer maps
+	 * can be read without locking. Inner maps with up to
+	 * {@link ConcurrentJumpFunctions#COPY_ON_WRITE_LIMIT} entries are
+	 * immutable and replaced on every change, larger ones are concurrent maps
+	 * that are changed in place. All writes must hold the lock on the entry.
+	 */
+	private static class TargetEntry<D,L> {
+
+		//mapping from target value to all source values and associated functions
+		@SynchronizedBy("writes lock the entry, inner maps are immutable or concurrent")
+		private final Map<D,Map<D,EdgeFunction<L>>> reverse =
+				new ConcurrentHashMap<D,Map<D,EdgeFunction<L>>>(4, 0.75f, 1);
+
+		//mapping from source value to all target values and associated functions
+		@SynchronizedBy("writes lock the entry, inner maps are immutable or concurrent")
+		private final Map<D,Map<D,EdgeFunction<L>>> forward =
+				new ConcurrentHashMap<D,Map<D,EdgeFunction<L>>>(4, 0.75f, 1);
+
+		//snapshot of all (source value, target value, function) triples,
+		//null if it needs to be rebuilt
+		@SynchronizedBy("writes lock the entry")
+		private volatile Set<Cell<D,D,EdgeFunction<L>>> cells = null;
+
+		//true once this entry has been removed from the index
+		@SynchronizedBy("lock on the entry")
+		private boolean retired = false;
+
+		private EdgeFunction<L> get(D sourceVal, D targetVal) {
+			Map<D,EdgeFunction<L>> targets = forward.get(sourceVal);
+			return targets == null ? null : targets.get(targetVal);
+		}
+
+		private void put(D sourceVal, D targetVal, EdgeFunction<L> function) {
+			forward.put(sourceVal, copyAndPut(forward.get(sourceVal), targetVal, function));
+			reverse.put(targetVal, copyAndPut(reverse.get(targetVal), sourceVal, function));
+			cells = null;
+		}
+
+		private boolean remove(D sourceVal, D targetVal) {
+			Map<D,EdgeFunction<L>> targets = forward.get(sourceVal);
+			if (targets == null || !targets.containsKey(targetVal))
+				return false;
+			putOrRemove(forward, sourceVal, copyAndRemove(targets, targetVal));
+			putOrRemove(reverse, targetVal, copyAndRemove(reverse.get(targetVal), sourceVal));
+			cells = null;
+			return true;
+		}
+
+		private Map<D,EdgeFunction<L>> removeSource(D sourceVal) {
+			Map<D,EdgeFunction<L>> targets = forward.remove(sourceVal);
+			if (targets == null)
+				return Collections.emptyMap();
+			for (D targetVal : targets.keySet())
+				putOrRemove(reverse, targetVal, copyAndRemove(reverse.get(targetVal), sourceVal));
+			cells = null;
+			//the map is no longer reachable from the index, so it will not
+			//change anymore
+			return view(targets);
+		}
+
+		private boolean isEmpty() {
+			return forward.isEmpty();
+		}
+
+		private Set<Cell<D,D,EdgeFunction<L>>> cells() {
+			Set<Cell<D,D,EdgeFunction<L>>> res = cells;
+			if (res != null)
+				return res;
+			synchronized (this) {
+				if (cells == null) {
+					ImmutableSet.Builder<Cell<D,D,EdgeFunction<L>>> builder = ImmutableSet.builder();
+					for (Entry<D,Map<D,EdgeFunction<L>>> fwd : forward.entrySet())
+						for (Entry<D,EdgeFunction<L>> tgt : fwd.getValue().entrySet())
+							builder.add(Tables.immutableCell(fwd.getKey(), tgt.getKey(), tgt.getValue()));
+					cells = builder.build();
+				}
+				return cells;
+			}
+		}
+
+		/**
+		 * Gets a read-only view of the given inner map
+		 */
+		private static <D,L> Map<D,EdgeFunction<L>> view(Map<D,EdgeFunction<L>> map) {
+			//small maps are already unmodifiable
+			return map instanceof ConcurrentMap ? Collections.unmodifiableMap(map) : map;
+		}
+
+		/**
+		 * Adds the given entry to an inner map. Small maps are copied, large
+		 * maps are changed in place.
+		 * @return The map that now contains the entry
+		 */
+		private static <D,L> Map<D,EdgeFunction<L>> copyAndPut
+				(Map<D,EdgeFunction<L>> map, D key, EdgeFunction<L> function) {
+			if (map instanceof ConcurrentMap) {
+				map.put(key, function);
+				return map;
+			}
+			if (map != null && map.size() >= COPY_ON_WRITE_LIMIT && !map.containsKey(key)) {
+				Map<D,EdgeFunction<L>> res = new ConcurrentHashMap<D,EdgeFunction<L>>
+					(4 * COPY_ON_WRITE_LIMIT, 0.75f, 1);
+				res.putAll(map);
+				res.put(key, function);
+				return res;
+			}
+			Map<D,EdgeFunction<L>> res = map == null ? new LinkedHashMap<D,EdgeFunction<L>>(2)
+					: new LinkedHashMap<D,EdgeFunction<L>>(map);
+			res.put(key, function);
+			return Collections.unmodifiableMap(res);
+		}
+
+		/**
+		 * Removes the given key from an inner map. Small maps are copied,
+		 * large maps are changed in place.
+		 * @return The map without the key or null if it has become empty
+		 */
+		private static <D,L> Map<D,EdgeFunction<L>> copyAndRemove
+				(Map<D,EdgeFunction<L>> map, D key) {
+			if (map instanceof ConcurrentMap) {
+				map.remove(key);
+				return map.isEmpty() ? null : map;
+			}
+			if (map == null || map.size() <= 1)
+				return null;
+			Map<D,EdgeFunction<L>> res = new LinkedHashMap<D,EdgeFunction<L>>(map);
+			res.remove(key);
+			return Collections.unmodifiableMap(res);
+		}
+
+		private static <D,L> void putOrRemove
+				(Map<D,Map<D,EdgeFunction<L>>> map, D key, Map<D,EdgeFunction<L>> value) {
+			if (value == null)
+				map.remove(key);
+			else
+				map.put(key, value);
+		}
+
+	}
+
+}
@@ -0,0 +1,169 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.toolkits.scalar.Pair;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+
+/**
+ * Stores the end summaries of methods, see CC 2010 paper by Naeem, Lhotak and
+ * Rodriguez. For every start point and fact at the start point, the exit
+ * statements and facts reached together with the respective edge functions
+ * are stored. A reverse index from exit statements to the entries mentioning
+ * them allows expired or changed exit statements to be removed without
+ * scanning the whole table.
+ *
+ * Reads return immutable snapshots that remain valid while the table is
+ * modified, so callers can iterate over them after releasing the lock. A
+ * snapshot is only rebuilt on the first read after a modification.
+ *
+ * This class is not thread-safe; callers must synchronize on the instance.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <V> The type of values to be computed along flow edges.
+ */
+public class EndSummaries<N,D,V> {
+
+	//start point, fact at start point -> exit statement, fact at exit statement -> function
+	private final Table<N,D,Summaries<N,D,V>> table = HashBasedTable.create();
+
+	//exit statement -> (start point, fact at start point) pairs it appears in
+	private final Map<N,Set<Pair<N,D>>> exitIndex = new HashMap<N,Set<Pair<N,D>>>();
+
+	/**
+	 * Records an end summary
+	 * @param sP The start point of the method
+	 * @param d1 The fact at the start point
+	 * @param eP The exit statement of the method
+	 * @param d2 The fact at the exit statement
+	 * @param f The edge function from the start point to the exit statement
+	 */
+	public void addEndSummary(N sP, D d1, N eP, D d2, EdgeFunction<V> f) {
+		Summaries<N,D,V> summaries = table.get(sP, d1);
+		if(summaries==null) {
+			summaries = new Summaries<N,D,V>();
+			table.put(sP, d1, summaries);
+		}
+		summaries.functions.put(eP,d2,f);
+		summaries.snapshot = null;
+
+		Set<Pair<N,D>> keys = exitIndex.get(eP);
+		if (keys == null) {
+			keys = new HashSet<Pair<N,D>>();
+			exitIndex.put(eP, keys);
+		}
+		keys.add(new Pair<N,D>(sP, d1));
+	}
+
+	/**
+	 * Gets the end summaries for the given start point and fact
+	 * @param sP The start point of the method
+	 * @param d1 The fact at the start point
+	 * @return The exit statements, facts and functions. The returned set is
+	 * an immutable snapshot.
+	 */
+	public Set<Cell<N, D, EdgeFunction<V>>> endSummary(N sP, D d1) {
+		Summaries<N,D,V> map = table.get(sP, d1);
+		if(map==null) return Collections.emptySet();
+		return map.snapshot();
+	}
+
+	/**
+	 * Removes all end summaries ending at the given exit statement
+	 * @param eP The exit statement
+	 */
+	public void removeExitStmt(N eP) {
+		Set<Pair<N,D>> keys = exitIndex.remove(eP);
+		if (keys == null)
+			return;
+		for (Pair<N,D> key : keys) {
+			Summaries<N,D,V> summaries = table.get(key.getO1(), key.getO2());
+			if (summaries == null)
+				continue;
+			summaries.functions.row(eP).clear();
+			summaries.snapshot = null;
+			if (summaries.functions.isEmpty())
+				table.remove(key.getO1(), key.getO2());
+		}
+	}
+
+	/**
+	 * Removes all entries for which one of the given nodes is either the start
+	 * point or the exit statement. The effort is proportional to the number of
+	 * entries removed.
+	 * @param nodes The nodes to remove
+	 */
+	public void removeNodes(Collection<N> nodes) {
+		for (N n : nodes) {
+			// Entries at this start point
+			Map<D, Summaries<N,D,V>> row = table.row(n);
+			if (!row.isEmpty()) {
+				for (Entry<D, Summaries<N,D,V>> entry : row.entrySet())
+					for (N eP : entry.getValue().functions.rowKeySet()) {
+						Set<Pair<N,D>> keys = exitIndex.get(eP);
+						if (keys != null)
+							keys.remove(new Pair<N,D>(n, entry.getKey()));
+					}
+				row.clear();
+			}
+
+			// Entries with this exit statement
+			removeExitStmt(n);
+		}
+	}
+
+	/**
+	 * Gets all entries of this table
+	 * @return A set of cells mapping start points and facts to the exit
+	 * statements, facts and functions. The returned set is a snapshot.
+	 */
+	public Set<Cell<N, D, Table<N, D, EdgeFunction<V>>>> cellSet() {
+		Set<Cell<N, D, Table<N, D, EdgeFunction<V>>>> res =
+				new HashSet<Cell<N, D, Table<N, D, EdgeFunction<V>>>>(table.size());
+		for (Cell<N, D, Summaries<N,D,V>> cell : table.cellSet())
+			res.add(Tables.immutableCell(cell.getRowKey(), cell.getColumnKey(),
+					(Table<N, D, EdgeFunction<V>>) HashBasedTable.create(cell.getValue().functions)));
+		return res;
+	}
+
+	/**
+	 * Removes all entries from this table
+	 */
+	public void clear() {
+		table.clear();
+		exitIndex.clear();
+	}
+
+	/**
+	 * The end summaries for a single start point and fact, together with an
+	 * immutable snapshot of them
+	 */
+	private static class Summaries<N,D,V> {
+
+		private final Table<N, D, EdgeFunction<V>> functions = HashBasedTable.create();
+
+		//null if the functions have been modified since the last read
+		private Set<Cell<N, D, EdgeFunction<V>>> snapshot;
+
+		private Set<Cell<N, D, EdgeFunction<V>>> snapshot() {
+			if (snapshot == null)
+				snapshot = ImmutableSet.copyOf(functions.cellSet());
+			return snapshot;
+		}
+
+	}
+
+}
@@ -2,6 +2,9 @@ package soot.jimple.interproc.ifds.solver;
 
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
@@ -11,15 +14,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import soot.PatchingChain;
 import soot.SootMethod;
@@ -34,6 +38,8 @@ import soot.jimple.interproc.ifds.FlowFunctions;
 import soot.jimple.interproc.ifds.IDETabulationProblem;
 import soot.jimple.interproc.ifds.InterproceduralCFG;
 import soot.jimple.interproc.ifds.JoinLattice;
+import soot.jimple.interproc.ifds.PackedEdgeFunctionCache;
+import soot.jimple.interproc.ifds.PackedFlowFunctionCache;
 import soot.jimple.interproc.ifds.SynchronizedBy;
 import soot.jimple.interproc.ifds.ZeroedFlowFunctions;
 import soot.jimple.interproc.ifds.edgefunc.EdgeIdentity;
@@ -86,6 +92,117 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	@DontSynchronize("only used by single thread")
 	private OperationMode operationMode = OperationMode.Compute;
 	
+	/**
+	 * Enumeration containing the strategies for distributing path edges
+	 * onto the worker threads
+	 */
+	public enum SchedulerMode
+	{
+		/**
+		 * A single broker thread pops the edges from a global worklist and
+		 * dispatches them to the executor
+		 */
+		Broker,
+		/**
+		 * Every worker thread pushes the edges it creates onto its own deque
+		 * and steals from the other workers when it runs out of work. There
+		 * is no global worklist and no broker thread.
+		 */
+		WorkStealing
+	};
+	
+	@DontSynchronize("only used by single thread")
+	private SchedulerMode schedulerMode = SchedulerMode.Broker;
+	
+	/**
+	 * Enumeration containing the available implementations of the jump
+	 * function index
+	 */
+	public enum JumpFunctionsImplementation
+	{
+		/**
+		 * All accesses are serialized on one global monitor
+		 * (see {@link JumpFunctions})
+		 */
+		Synchronized,
+		/**
+		 * Accesses are only serialized per target node, lookups return
+		 * snapshots or read-only views (see {@link ConcurrentJumpFunctions})
+		 */
+		Concurrent,
+		/**
+		 * Nodes and facts are interned to integer ids, the functions are
+		 * stored in primitive maps to save memory (see {@link PackedJumpFunctions})
+		 */
+		Packed
+	};
+	
+	@DontSynchronize("only used by single thread")
+	private JumpFunctionsImplementation jumpFunctionsImplementation;
+	
+	/**
+	 * Enumeration containing the strategies for computing the values in
+	 * phase II
+	 */
+	public enum ValueMode
+	{
+		/**
+		 * The values at all nodes are computed after the jump functions
+		 */
+		Eager,
+		/**
+		 * Only the values at start points and call sites are computed after
+		 * the jump functions. The values at all other nodes are computed when
+		 * they are first queried and then memoized.
+		 */
+		Lazy
+	};
+	
+	@DontSynchronize("only used by single thread")
+	private ValueMode valueMode = ValueMode.Eager;
+	
+	/**
+	 * Enumeration containing the strategies for re-processing the change
+	 * points of an update
+	 */
+	public enum UpdateMode
+	{
+		/**
+		 * Every change point is re-processed in a worklist run of its own
+		 */
+		Sequential,
+		/**
+		 * All change points not reachable from another change point are
+		 * seeded together and re-processed in a single worklist run
+		 */
+		Batched
+	};
+	
+	@DontSynchronize("only used by single thread")
+	private UpdateMode updateMode = UpdateMode.Sequential;
+	
+	/**
+	 * Enumeration containing the available implementations of the flow
+	 * function and edge function caches
+	 */
+	public enum FunctionCacheImplementation
+	{
+		/**
+		 * The functions are stored in Guava caches built by the cache builders
+		 * passed to the constructor (see {@link FlowFunctionCache})
+		 */
+		Guava,
+		/**
+		 * Nodes, facts and methods are interned to integer ids, the functions
+		 * are stored in primitive maps keyed by the packed ids, so lookups do
+		 * not allocate (see {@link PackedFlowFunctionCache})
+		 */
+		Packed
+	};
+	
+	@DontSynchronize("only used by single thread")
+	private FunctionCacheImplementation functionCacheImplementation = FunctionCacheImplementation.Guava;
+	
 	public static CacheBuilder<Object, Object> DEFAULT_CACHE_BUILDER =
 			CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors()).initialCapacity(10000).softValues();
 	
@@ -93,15 +210,27 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	
 	private static final boolean DUMP_RESULTS = false;
 	
-	//executor for dispatching individual compute jobs (may be multi-threaded)
+	//executor for dispatching individual compute jobs (may be multi-threaded),
+	//kept alive across all runs of the solver as long as the number of
+	//threads does not change
+	@DontSynchronize("only used by single thread")
+	private ForkJoinPool executor;
+	
+	//true if the executor has been supplied from the outside and must neither
+	//be replaced nor shut down by the solver
 	@DontSynchronize("only used by single thread")
-	private ExecutorService executor;
+	private boolean externalExecutor = false;
 	
 	@DontSynchronize("only used by single thread")
 	private int numThreads;
 	
 	//the number of currently running tasks
 	private final AtomicInteger numTasks = new AtomicInteger();
+	
+	//scheduler for path edges, only non-null while the edges are drained in
+	//work-stealing mode
+	@SynchronizedBy("thread safe data structure, volatile reference")
+	private volatile WorkStealingScheduler edgeScheduler = null;
 
 	@SynchronizedBy("consistent lock on field")
 	//We are using a LinkedHashSet here to enforce FIFO semantics, which leads to a breath-first construction
@@ -109,11 +238,11 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	private final Collection<PathEdge<N,D,M>> pathWorklist = new LinkedHashSet<PathEdge<N,D,M>>();
 	
 	@SynchronizedBy("thread safe data structure, consistent locking when used")
-	private final JumpFunctions<N,D,V> jumpFn;
+	private IJumpFunctions<N,D,V> jumpFn;	// not final, see setJumpFunctionsImplementation()
 	private Table<N,D,Map<D, EdgeFunction<V>>> jumpSave = null;
 
 	@SynchronizedBy("thread safe data structure, consistent locking when used")
-	private final SummaryFunctions<N,D,V> summaryFunctions = new SummaryFunctions<N,D,V>();
+	private final SummaryFunctions<N,D,V> summaryFunctions;
 
 	@SynchronizedBy("thread safe data structure, only modified internally")
 	private I icfg;	// not final, see update(I newCFG) method
@@ -124,20 +253,25 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	//stores summaries that were queried before they were computed
 	//see CC 2010 paper by Naeem, Lhotak and Rodriguez
 	@SynchronizedBy("consistent lock on 'incoming'")
-	private final Table<N,D,Table<N,D,EdgeFunction<V>>> endSummary = HashBasedTable.create();
+	private final EndSummaries<N,D,V> endSummary = new EndSummaries<N,D,V>();
 
 	//edges going along calls
 	//see CC 2010 paper by Naeem, Lhotak and Rodriguez
 	@SynchronizedBy("consistent lock on field")
-	private final Table<N,D,Map<N,Set<D>>> incoming = HashBasedTable.create();
+	private final IncomingEdges<N,D> incoming = new IncomingEdges<N,D>();
 	
 	private Set<N> changedNodes = null;
 	
-	@DontSynchronize("stateless")
-	private final FlowFunctions<N, D, M> flowFunctions;
+	//nodes whose jump functions have changed during an update, used to
+	//restrict the recomputation of values to the affected methods
+	@SynchronizedBy("thread safe data structure")
+	private volatile Set<N> jumpFnChangedNodes = null;
+	
+	@DontSynchronize("stateless, only changed before solving")
+	private FlowFunctions<N, D, M> flowFunctions;
 
-	@DontSynchronize("stateless")
-	private final EdgeFunctions<N,D,M,V> edgeFunctions;
+	@DontSynchronize("stateless, only changed before solving")
+	private EdgeFunctions<N,D,M,V> edgeFunctions;
 
 	@DontSynchronize("only used by single thread")
 	// can be changed during update()
@@ -149,11 +283,18 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	@DontSynchronize("stateless")
 	private final EdgeFunction<V> allTop;
 	
-	@DontSynchronize("only used by single thread - phase II not parallelized (yet)")
-	private final List<Pair<N,D>> nodeWorklist = new LinkedList<Pair<N,D>>();
+	//scheduler for the nodes in phase II(i), only non-null while the values
+	//are propagated
+	@SynchronizedBy("thread safe data structure, volatile reference")
+	private volatile WorkStealingScheduler valueScheduler = null;
 
-	@DontSynchronize("only used by single thread - phase II not parallelized (yet)")
-	private final Table<N,D,V> val = HashBasedTable.create();
+	@SynchronizedBy("thread safe data structure")
+	private final ValueTable<N,D,V> val = new ValueTable<N,D,V>();
+	
+	//nodes whose values have been computed on demand in lazy value mode,
+	//grouped by method so that they can be invalidated per method
+	@SynchronizedBy("thread safe data structure, lock on the node set while computing")
+	private final ConcurrentMap<M,Set<N>> lazyNodes = new ConcurrentHashMap<M,Set<N>>();
 	
 	@DontSynchronize("benign races")
 	public long flowFunctionApplicationCount;
@@ -161,8 +302,8 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	@DontSynchronize("benign races")
 	public long flowFunctionConstructionCount;
 	
-	@DontSynchronize("benign races")
-	public long propagationCount;
+	@SynchronizedBy("thread safe data structure, incremented by all workers")
+	public final AtomicLong propagationCount = new AtomicLong();
 	
 	@DontSynchronize("benign races")
 	public long durationFlowFunctionConstruction;
@@ -173,17 +314,30 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	@DontSynchronize("stateless")
 	private final D zeroValue;
 
-	@DontSynchronize("readOnly")
-	private final FlowFunctionCache<N,D,M> ffCache; 
+	@DontSynchronize("readOnly, only changed before solving")
+	private FlowFunctionCache<N,D,M> ffCache; 
 
+	@DontSynchronize("readOnly, only changed before solving")
+	private EdgeFunctionCache<N,D,M,V> efCache;
+	
 	@DontSynchronize("readOnly")
-	private final EdgeFunctionCache<N,D,M,V> efCache;
+	@SuppressWarnings("rawtypes")
+	private final CacheBuilder flowFunctionCacheBuilder;
+	
+	@DontSynchronize("readOnly")
+	@SuppressWarnings("rawtypes")
+	private final CacheBuilder edgeFunctionCacheBuilder;
 		
 	@DontSynchronize("readOnly")
 	private final IDETabulationProblem<N,D,M,V,I> tabulationProblem;
 		
 	private Map<M, Set<N>> changeSet = null; 
 	
+	//nodes reachable from another change point in the same method, computed
+	//on demand once per method and update
+	@SynchronizedBy("thread safe data structure")
+	private ConcurrentMap<M, Set<N>> coveredNodes = null;
+	
 	/**
 	 * Creates a solver for the given problem, which caches flow functions and edge functions.
 	 * The solver must then be started by calling {@link #solve()}.
@@ -221,14 +375,163 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 		}
 		this.flowFunctions = flowFunctions;
 		this.edgeFunctions = edgeFunctions;
+		this.flowFunctionCacheBuilder = flowFunctionCacheBuilder;
+		this.edgeFunctionCacheBuilder = edgeFunctionCacheBuilder;
 		this.initialSeeds = tabulationProblem.initialSeeds();
 		this.valueLattice = tabulationProblem.joinLattice();
 		this.zeroValue = tabulationProblem.zeroValue();
 		this.allTop = tabulationProblem.allTopFunction();
-		this.jumpFn = new JumpFunctions<N,D,V>(allTop);
+		this.summaryFunctions = new SummaryFunctions<N,D,V>(allTop);
+		setJumpFunctionsImplementation(JumpFunctionsImplementation.Synchronized);
 		this.tabulationProblem = tabulationProblem;
 	}
 
+	/**
+	 * Sets the strategy by which path edges are distributed onto the worker
+	 * threads. The mode takes effect with the next call to {@link #solve()}
+	 * or {@link #update(InterproceduralCFG)}.
+	 * @param schedulerMode The scheduler mode to use
+	 */
+	public void setSchedulerMode(SchedulerMode schedulerMode) {
+		assert schedulerMode != null;
+		this.schedulerMode = schedulerMode;
+	}
+
+	/**
+	 * Gets the strategy by which path edges are distributed onto the worker
+	 * threads
+	 * @return The current scheduler mode
+	 */
+	public SchedulerMode getSchedulerMode() {
+		return this.schedulerMode;
+	}
+
+	/**
+	 * Sets the data structure in which the jump functions are stored. This
+	 * discards all jump functions computed so far, so it must be called
+	 * before {@link #solve()}.
+	 * @param implementation The jump function index to use
+	 */
+	public void setJumpFunctionsImplementation(JumpFunctionsImplementation implementation) {
+		assert implementation != null;
+		this.jumpFunctionsImplementation = implementation;
+		switch (implementation) {
+		case Concurrent:
+			this.jumpFn = new ConcurrentJumpFunctions<N,D,V>(allTop);
+			break;
+		case Packed:
+			this.jumpFn = new PackedJumpFunctions<N,D,V>(allTop);
+			break;
+		default:
+			this.jumpFn = new JumpFunctions<N,D,V>(allTop);
+		}
+	}
+
+	/**
+	 * Gets the data structure in which the jump functions are stored
+	 * @return The jump function index in use
+	 */
+	public JumpFunctionsImplementation getJumpFunctionsImplementation() {
+		return this.jumpFunctionsImplementation;
+	}
+
+	/**
+	 * Sets the data structure in which flow functions and edge functions are
+	 * cached. This discards all cached functions, so it must be called before
+	 * {@link #solve()}. If caching has been disabled by passing no cache
+	 * builder to the constructor, the respective functions remain uncached.
+	 * @param implementation The function cache to use
+	 */
+	@SuppressWarnings("unchecked")
+	public void setFunctionCacheImplementation(FunctionCacheImplementation implementation) {
+		assert implementation != null;
+		this.functionCacheImplementation = implementation;
+		if (ffCache != null) {
+			if (implementation == FunctionCacheImplementation.Packed)
+				ffCache = new PackedFlowFunctionCache<N,D,M>(ffCache.getDelegate());
+			else
+				ffCache = new FlowFunctionCache<N,D,M>(ffCache.getDelegate(), flowFunctionCacheBuilder);
+			flowFunctions = ffCache;
+		}
+		if (efCache != null) {
+			if (implementation == FunctionCacheImplementation.Packed)
+				efCache = new PackedEdgeFunctionCache<N,D,M,V>(efCache.getDelegate());
+			else
+				efCache = new EdgeFunctionCache<N,D,M,V>(efCache.getDelegate(), edgeFunctionCacheBuilder);
+			edgeFunctions = efCache;
+		}
+	}
+
+	/**
+	 * Gets the data structure in which flow functions and edge functions are
+	 * cached
+	 * @return The function cache in use
+	 */
+	public FunctionCacheImplementation getFunctionCacheImplementation() {
+		return this.functionCacheImplementation;
+	}
+
+	/**
+	 * Sets the strategy for computing the values in phase II. The mode takes
+	 * effect with the next call to {@link #solve()}.
+	 * @param valueMode The value mode to use
+	 */
+	public void setValueMode(ValueMode valueMode) {
+		assert valueMode != null;
+		this.valueMode = valueMode;
+	}
+
+	/**
+	 * Gets the strategy for computing the values in phase II
+	 * @return The current value mode
+	 */
+	public ValueMode getValueMode() {
+		return this.valueMode;
+	}
+
+	/**
+	 * Sets an externally managed pool on which the solver runs all of its
+	 * computations in subsequent calls to {@link #solve()} and
+	 * {@link #update(InterproceduralCFG)}. The pool is reused across calls
+	 * and never shut down by the solver, so it can be shared by several
+	 * solvers. The number of threads passed to the solver is then ignored in
+	 * favor of the parallelism of the pool. Pass null to let the solver manage
+	 * its own pool again.
+	 * @param executor The pool to use or null
+	 */
+	public void setExecutor(ForkJoinPool executor) {
+		if (this.executor != null && !externalExecutor)
+			this.executor.shutdown();
+		this.executor = executor;
+		this.externalExecutor = executor != null;
+	}
+
+	/**
+	 * Gets the pool on which the solver runs its computations
+	 * @return The pool last used by the solver or the externally managed pool
+	 * if one has been set. May be null if the solver has not been run yet.
+	 */
+	public ForkJoinPool getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Sets the strategy for re-processing the change points of an update
+	 * @param updateMode The update mode to use
+	 */
+	public void setUpdateMode(UpdateMode updateMode) {
+		assert updateMode != null;
+		this.updateMode = updateMode;
+	}
+
+	/**
+	 * Gets the strategy for re-processing the change points of an update
+	 * @return The current update mode
+	 */
+	public UpdateMode getUpdateMode() {
+		return this.updateMode;
+	}
+
 	/**
 	 * Runs the solver on the configured problem. This can take some time.
 	 * Uses a number of threads equal to the return value of
@@ -269,13 +572,16 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 		// Clean up any leftovers from previous runs on a problem that might have been
 		// updated in the meantime.
 		this.jumpFn.clear();
-		this.summaryFunctions.table.clear();
+		this.summaryFunctions.clear();
 		this.endSummary.clear();
 		this.incoming.clear();
 		this.val.clear();
-		this.ffCache.invalidateAll();
-		this.efCache.invalidateAll();
-		this.propagationCount = 0;
+		this.lazyNodes.clear();
+		if (ffCache != null)
+			ffCache.invalidateAll();
+		if (efCache != null)
+			efCache.invalidateAll();
+		this.propagationCount.set(0);
 		this.operationMode = OperationMode.Compute;
 
 		System.out.println("Running with " + numThreads + " threads");
@@ -303,20 +609,17 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	 * @param computeValues Specifies if the values (phase 2) shall be computed
 	 */
 	private void solveOnWorklist(int numThreads, boolean computeEdges, boolean computeValues) {
-		if(numThreads<2) {
-			this.executor = Executors.newSingleThreadExecutor();
-			this.numThreads = 1;
-		} else {
-			this.executor = Executors.newFixedThreadPool(numThreads);
-			this.numThreads = numThreads;
-		}
+		//the pool is used by the broker as a plain executor, while the
+		//work-stealing scheduler and phase II make use of its local deques
+		initExecutor(numThreads);
 		if (computeEdges) {
 			final long before = System.currentTimeMillis();
 			forwardComputeJumpFunctionsSLRPs();
 			durationFlowFunctionConstruction = System.currentTimeMillis() - before;
 		}
-		val.clear();
 		if (computeValues) {
+			val.clear();
+			lazyNodes.clear();
 			final long before = System.currentTimeMillis();
 			computeValues();
 			durationFlowFunctionApplication = System.currentTimeMillis() - before;
@@ -327,10 +630,31 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 		if(DUMP_RESULTS)
 			dumpResults("ideSolverDump"+System.currentTimeMillis()+".csv");
 		
-		executor.shutdown();
 		if (DEBUG)
 			System.out.println(propagationCount + " edges propagated");
 	}
+	
+	/**
+	 * Makes sure that the solver's executor runs with the given number of
+	 * threads. The executor is only replaced if the number of threads has
+	 * changed, so that repeated worklist runs during an update do not pay for
+	 * starting new threads. The worker threads of the pool are daemon threads
+	 * and do not need to be shut down explicitly. If an external executor has
+	 * been set, it is always used and the number of threads is ignored.
+	 * @param numThreads The number of threads to use
+	 */
+	private void initExecutor(int numThreads) {
+		if (externalExecutor) {
+			this.numThreads = executor.getParallelism();
+			return;
+		}
+		this.numThreads = Math.max(1, numThreads);
+		if (executor != null && executor.getParallelism() == this.numThreads)
+			return;
+		if (executor != null)
+			executor.shutdown();
+		executor = new ForkJoinPool(this.numThreads);
+	}
 
 	/**
 	 * Forward-tabulates the same-level realizable paths and associated functions.
@@ -406,13 +730,7 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			// If this is an exit node and we have an old end summary, we
 			// need to delete it as well
 			if (icfg.isExitStmt(n))
-				for (N sP : icfg.getStartPointsOf(icfg.getMethodOf(n))) {
-					 Map<D, Table<N, D, EdgeFunction<V>>> endRow = endSummary.row(sP);
-					 for (D d1 : endRow.keySet()) {
-						 Table<N, D, EdgeFunction<V>> entryTbl = endRow.get(d1);
-						 Utils.removeElementFromTable(entryTbl, n);
-					 }
-				}
+				endSummary.removeExitStmt(n);
 			
 			// Get all predecessors of the changed node. Predecessors include
 			// direct ones (the statement above, goto origins) as well as return
@@ -461,6 +779,10 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	 * @param workList A list containing the edges still to be processed
 	 */
 	private void forwardComputeJumpFunctionsSLRPs(Collection<PathEdge<N, D, M>> workList) {
+		if (schedulerMode == SchedulerMode.WorkStealing) {
+			forwardComputeJumpFunctionsWorkStealing(workList);
+			return;
+		}
 		while(true) {
 			synchronized (pathWorklist) {
 				if (!workList.isEmpty()) {
@@ -472,7 +794,7 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	
 					//dispatch processing of edge (potentially in a different thread)
 					executor.execute(new PathEdgeProcessingTask(edge));
-					propagationCount++;
+					propagationCount.incrementAndGet();
 				} else if(numTasks.intValue()==0){
 					//path worklist is empty; no running tasks, we are done
 					return;
@@ -489,64 +811,215 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 		}
 	}
 	
+	/**
+	 * Work-stealing variant of {@link #forwardComputeJumpFunctionsSLRPs(Collection)}.
+	 * The edges in the given worklist are only used as seeds. All edges created
+	 * while processing them are pushed directly onto the deque of the worker
+	 * thread that created them (see {@link #addToWorkList(PathEdge)}), so there
+	 * is no central broker. We are done once the scheduler reports quiescence.
+	 * @param workList A list containing the edges still to be processed
+	 */
+	private void forwardComputeJumpFunctionsWorkStealing(Collection<PathEdge<N, D, M>> workList) {
+		WorkStealingScheduler scheduler = new WorkStealingScheduler(executor);
+		
+		List<PathEdge<N,D,M>> seeds;
+		synchronized (pathWorklist) {
+			seeds = new ArrayList<PathEdge<N,D,M>>(workList);
+			workList.clear();
+			edgeScheduler = scheduler;
+		}
+		for (PathEdge<N,D,M> edge : seeds)
+			scheduleEdge(scheduler, edge);
+		
+		try {
+			scheduler.awaitQuiescence();
+		}
+		finally {
+			edgeScheduler = null;
+		}
+	}
+	
+	private void scheduleEdge(WorkStealingScheduler scheduler, final PathEdge<N,D,M> edge) {
+		scheduler.schedule(new Runnable() {
+			
+			@Override
+			public void run() {
+				processSingleEdge(edge);
+			}
+			
+		});
+		propagationCount.incrementAndGet();
+	}
+	
 	/**
 	 * Computes the final values for edge functions.
 	 */
 	private void computeValues() {	
 		//Phase II(i)
-		for(N startPoint: initialSeeds) {
-			assert icfg.containsStmt(startPoint);
-			setVal(startPoint, zeroValue, valueLattice.bottomElement());
-			Pair<N, D> superGraphNode = new Pair<N,D>(startPoint, zeroValue); 
-			nodeWorklist.add(superGraphNode);
-		}
-		while(true) {
-			synchronized (nodeWorklist) {
-				if(!nodeWorklist.isEmpty()) {
-					//pop job
-					Pair<N,D> nAndD = nodeWorklist.remove(0);	
-					numTasks.getAndIncrement();
-					
-					//dispatch processing of job (potentially in a different thread)
-					executor.execute(new ValuePropagationTask(nAndD));
-				} else if(numTasks.intValue()==0) {
-					//node worklist is empty; no running tasks, we are done
-					break;
-				} else {
-					//the node worklist is empty but we still have running tasks
-					//wait until woken up, then try again
-					try {
-						nodeWorklist.wait();
-					} catch (InterruptedException e) {
-						throw new RuntimeException(e);
-					}
-				}
+		//every node whose value changes is pushed onto the deque of the worker
+		//thread that changed it, see propagateValue()
+		WorkStealingScheduler scheduler = new WorkStealingScheduler(executor);
+		valueScheduler = scheduler;
+		try {
+			for(N startPoint: initialSeeds) {
+				assert icfg.containsStmt(startPoint);
+				setVal(startPoint, zeroValue, valueLattice.bottomElement());
+				scheduler.schedule(new ValuePropagationTask(new Pair<N,D>(startPoint, zeroValue)));
 			}
+			scheduler.awaitQuiescence();
+		}
+		finally {
+			valueScheduler = null;
 		}
+		
 		//Phase II(ii)
-		//we create an array of all nodes and then dispatch fractions of this array to multiple threads
-		Set<N> allNonCallStartNodes = icfg.allNonCallStartNodes();
-		if (allNonCallStartNodes.size() > 0) {
+		//in lazy mode, the values are computed when they are queried, see
+		//ensureValueComputed()
+		if (valueMode == ValueMode.Lazy)
+			return;
+		computeValuesAt(icfg.allNonCallStartNodes());
+	}
+	
+	/**
+	 * Computes the values at the given nodes from the values at the start
+	 * points of their methods (Phase II(ii))
+	 * @param nodes The nodes for which to compute the values. None of them may
+	 * be a start point or a call site.
+	 */
+	private void computeValuesAt(Collection<N> nodes) {
+		//we create an array of all nodes and then recursively split it into
+		//ranges that are processed by the fork/join pool
+		if (nodes.size() > 0) {
 			@SuppressWarnings("unchecked")
 			N[] nonCallStartNodesArray = (N[]) Array.newInstance
-				(allNonCallStartNodes.iterator().next().getClass(), allNonCallStartNodes.size());
+				(nodes.iterator().next().getClass(), nodes.size());
 			int i=0;
-			for (N n : allNonCallStartNodes) {
+			for (N n : nodes) {
 				nonCallStartNodesArray[i] = n;
 				i++;
-			}		
-			for(int t=0;t<numThreads; t++) {
-				executor.execute(new ValueComputationTask(nonCallStartNodesArray, t));
-			}
-			//wait until done
-			executor.shutdown();
-			try {
-				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
 			}
+			int threshold = Math.max(1, nonCallStartNodesArray.length / (numThreads * 8));
+			executor.invoke(new ValueComputationTask(nonCallStartNodesArray, 0,
+					nonCallStartNodesArray.length, threshold));
 		}
 	}
+	
+	/**
+	 * Recomputes the values after an update. Only the values in methods whose
+	 * jump functions or control flow have changed, and in all methods
+	 * transitively called from there, are discarded and computed again. All
+	 * other values cannot have changed as values only flow from the start
+	 * point of a method to its call sites and from there into the callees.
+	 * @param affectedNodes The nodes whose jump functions have changed
+	 * @param changedMethods The methods whose control flow has changed
+	 * @param oldCalleeNodes The nodes with values in methods that were called
+	 * from the changed code in the old control-flow graph
+	 */
+	private void updateValues(Set<N> affectedNodes, Set<M> changedMethods, Set<N> oldCalleeNodes) {
+		// Collect the affected methods and close them over the call graph
+		Set<M> affectedMethods = new HashSet<M>(changedMethods);
+		for (N n : affectedNodes)
+			if (icfg.containsStmt(n))
+				affectedMethods.add(icfg.getMethodOf(n));
+		for (N n : oldCalleeNodes)
+			if (icfg.containsStmt(n))
+				affectedMethods.add(icfg.getMethodOf(n));
+		List<M> calleeWorklist = new ArrayList<M>(affectedMethods);
+		while (!calleeWorklist.isEmpty()) {
+			M m = calleeWorklist.remove(calleeWorklist.size() - 1);
+			for (N callSite : icfg.getCallsFromWithin(m))
+				for (M callee : icfg.getCalleesOfCallAt(callSite))
+					if (affectedMethods.add(callee))
+						calleeWorklist.add(callee);
+		}
+		System.out.println("Recomputing values for " + affectedMethods.size() + " methods");
+		
+		// Discard the old values in the affected methods and the values of
+		// nodes that no longer exist
+		for (N n : new ArrayList<N>(val.rowKeySet()))
+			if (!icfg.containsStmt(n) || affectedMethods.contains(icfg.getMethodOf(n)))
+				val.removeRow(n);
+		for (M m : new ArrayList<M>(lazyNodes.keySet()))
+			if (affectedMethods.contains(m))
+				lazyNodes.remove(m);
+		
+		//Phase II(i)
+		//re-seed the affected methods from the initial seeds and from all call
+		//sites in unaffected callers whose values have been kept
+		WorkStealingScheduler scheduler = new WorkStealingScheduler(executor);
+		valueScheduler = scheduler;
+		try {
+			for(N startPoint: initialSeeds)
+				if (affectedMethods.contains(icfg.getMethodOf(startPoint))) {
+					setVal(startPoint, zeroValue, valueLattice.bottomElement());
+					scheduler.schedule(new ValuePropagationTask(new Pair<N,D>(startPoint, zeroValue)));
+				}
+			for (M m : affectedMethods)
+				for (N callSite : icfg.getCallersOf(m))
+					if (!affectedMethods.contains(icfg.getMethodOf(callSite)))
+						for (D d : val.row(callSite).keySet())
+							scheduler.schedule(new ValuePropagationTask(new Pair<N,D>(callSite, d)));
+			scheduler.awaitQuiescence();
+		}
+		finally {
+			valueScheduler = null;
+		}
+		
+		//Phase II(ii)
+		if (valueMode == ValueMode.Lazy)
+			return;
+		List<N> affectedNonCallStartNodes = new ArrayList<N>();
+		for (N n : icfg.allNonCallStartNodes())
+			if (affectedMethods.contains(icfg.getMethodOf(n)))
+				affectedNonCallStartNodes.add(n);
+		computeValuesAt(affectedNonCallStartNodes);
+	}
+
+	/**
+	 * Collects all nodes with values in methods that were transitively called
+	 * from the changed methods or from expired call sites in the old
+	 * control-flow graph. If a call has been removed, the callee is no longer
+	 * reached from the changed code in the new graph, but its values may
+	 * still contain contributions that flowed in along the removed call.
+	 * Must be called before the old graph is discarded.
+	 * @param changeSet The change points per changed method
+	 * @param expiredNodes The nodes that have been deleted from the program
+	 * graph
+	 * @return The nodes whose values must be recomputed
+	 */
+	private Set<N> collectOldCalleeNodes(Map<M, Set<N>> changeSet, Set<N> expiredNodes) {
+		// Get the changed methods as seen by the old graph
+		Set<M> oldMethods = new HashSet<M>(changeSet.keySet());
+		for (Set<N> changePoints : changeSet.values())
+			for (N n : changePoints)
+				if (oldcfg.containsStmt(n))
+					oldMethods.add(oldcfg.getMethodOf(n));
+		for (N n : expiredNodes)
+			if (oldcfg.containsStmt(n))
+				oldMethods.add(oldcfg.getMethodOf(n));
+		
+		// Close the callees over the old call graph
+		Set<M> oldCallees = new HashSet<M>();
+		List<N> callWorklist = new ArrayList<N>(expiredNodes);
+		for (M m : oldMethods)
+			callWorklist.addAll(oldcfg.getCallsFromWithin(m));
+		while (!callWorklist.isEmpty()) {
+			N callSite = callWorklist.remove(callWorklist.size() - 1);
+			if (!oldcfg.containsStmt(callSite))
+				continue;
+			for (M callee : oldcfg.getCalleesOfCallAt(callSite))
+				if (oldCallees.add(callee))
+					callWorklist.addAll(oldcfg.getCallsFromWithin(callee));
+		}
+		
+		Set<N> res = new HashSet<N>();
+		if (oldCallees.isEmpty())
+			return res;
+		for (N n : val.rowKeySet())
+			if (oldcfg.containsStmt(n) && oldCallees.contains(oldcfg.getMethodOf(n)))
+				res.add(n);
+		return res;
+	}
 
 	private void propagateValueAtStart(Pair<N, D> nAndD, N n) {
 		assert icfg.containsStmt(n);
@@ -583,15 +1056,13 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	}
 	
 	private void propagateValue(N nHashN, D nHashD, V v) {
-		synchronized (val) {
-			V valNHash = val(nHashN, nHashD);
-			V vPrime = valueLattice.join(valNHash,v);
-			if(!vPrime.equals(valNHash)) {
-				setVal(nHashN, nHashD, vPrime);
-				synchronized (nodeWorklist) {
-					nodeWorklist.add(new Pair<N,D>(nHashN,nHashD));
-				}
-			}
+		assert icfg.containsStmt(nHashN);
+		V vPrime = val.join(nHashN, nHashD, v, valueLattice);	// atomic
+		if(vPrime != null) {
+			if(DEBUG)
+				System.err.println("VALUE: "+((SootMethod)icfg.getMethodOf(nHashN).getContents()).getSignature()
+						+" "+nHashN+" "+nHashD+ " " + vPrime);
+			valueScheduler.schedule(new ValuePropagationTask(new Pair<N,D>(nHashN,nHashD)));
 		}
 	}
 
@@ -656,8 +1127,9 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 						//line 15.1 of Naeem/Lhotak/Rodriguez
 						addIncoming(sP,d3,n,d2);
 
-						//line 15.2, copy to avoid concurrent modification exceptions by other threads
-						endSumm = new HashSet<Table.Cell<N,D,EdgeFunction<V>>>(endSummary(sP, d3));						
+						//line 15.2, the end summaries are an immutable snapshot that
+						//is not affected by concurrent modifications of other threads
+						endSumm = endSummary(sP, d3);
 					}
 					
 					//still line 15.2 of Naeem/Lhotak/Rodriguez
@@ -672,13 +1144,9 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 							for(D d5: retFunction.computeTargets(d4)) {
 								EdgeFunction<V> f4 = edgeFunctions.getCallEdgeFunction(n, d2, sCalledProcN, d3);
 								EdgeFunction<V> f5 = edgeFunctions.getReturnEdgeFunction(n, sCalledProcN, eP, d4, retSiteN, d5);
-								synchronized (summaryFunctions) {
-									EdgeFunction<V> summaryFunction = summaryFunctions.summariesFor(n, d2, retSiteN).get(d5);			
-									if(summaryFunction==null) summaryFunction = allTop; //SummaryFn initialized to all-top, see line [4] in SRH96 paper
-									EdgeFunction<V> fPrime = f4.composeWith(fCalleeSummary).composeWith(f5).joinWith(summaryFunction);
-									if(!fPrime.equalTo(summaryFunction))
-										summaryFunctions.insertFunction(n,d2,retSiteN,d5,fPrime);
-								}
+								//SummaryFn initialized to all-top, see line [4] in SRH96 paper
+								summaryFunctions.joinAndGetIfChanged(n, d2, retSiteN, d5,
+										f4.composeWith(fCalleeSummary).composeWith(f5));
 							}
 						}
 					}
@@ -703,17 +1171,16 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			if (operationMode == OperationMode.Update && targets.isEmpty())
 				clearAndPropagate(d1, returnSiteN);
 
-			synchronized (summaryFunctions) {	// TODO : Locking
-				Map<D,EdgeFunction<V>> d3sAndF3s = summaryFunctions.summariesFor(n, d2, returnSiteN);
-				for (Map.Entry<D,EdgeFunction<V>> d3AndF3 : d3sAndF3s.entrySet()) {
-					D d3 = d3AndF3.getKey();
-					EdgeFunction<V> f3 = d3AndF3.getValue();
-					if(f3==null) f3 = allTop; //SummaryFn initialized to all-top, see line [4] in SRH96 paper
-					if (operationMode == OperationMode.Update)
-						clearAndPropagate(d1, returnSiteN, d3, f.composeWith(f3));
-					else
-						propagate(d1, returnSiteN, d3, f.composeWith(f3));
-				}
+			//the summaries are an immutable snapshot, no need to lock or copy
+			Map<D,EdgeFunction<V>> d3sAndF3s = summaryFunctions.summariesFor(n, d2, returnSiteN);
+			for (Map.Entry<D,EdgeFunction<V>> d3AndF3 : d3sAndF3s.entrySet()) {
+				D d3 = d3AndF3.getKey();
+				EdgeFunction<V> f3 = d3AndF3.getValue();
+				if(f3==null) f3 = allTop; //SummaryFn initialized to all-top, see line [4] in SRH96 paper
+				if (operationMode == OperationMode.Update)
+					clearAndPropagate(d1, returnSiteN, d3, f.composeWith(f3));
+				else
+					propagate(d1, returnSiteN, d3, f.composeWith(f3));
 			}
 		}
 	}
@@ -752,8 +1219,9 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			synchronized (incoming) {
 				if (d2 != null)
 					addEndSummary(sP, d1, n, d2, f);
-				//copy to avoid concurrent modification exceptions by other threads
-				inc = new HashSet<Map.Entry<N,Set<D>>>(incoming(d1, sP));
+				//the incoming edges are an immutable snapshot that is not
+				//affected by concurrent modifications of other threads
+				inc = incoming(d1, sP);
 			}
 			
 			for (Entry<N,Set<D>> entry: inc) {
@@ -765,7 +1233,7 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 					// Do not return into a method if there is a predecessor that
 					// will be changed later anyway
 					if (operationMode == OperationMode.Update)
-						if (predecessorRepropagated(this.changeSet.get(icfg.getMethodOf(retSiteC)), retSiteC))
+						if (predecessorRepropagated(icfg.getMethodOf(retSiteC), retSiteC))
 							doPropagate = false;
 
 					assert icfg.containsStmt(retSiteC);
@@ -783,14 +1251,13 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 						for(D d5: targets) {
 							EdgeFunction<V> f4 = edgeFunctions.getCallEdgeFunction(c, d4, icfg.getMethodOf(n), d1);
 							EdgeFunction<V> f5 = edgeFunctions.getReturnEdgeFunction(c, icfg.getMethodOf(n), n, d2, retSiteC, d5);
-							EdgeFunction<V> fPrime;
-							synchronized (summaryFunctions) {
-								EdgeFunction<V> summaryFunction = summaryFunctions.summariesFor(c,d4,retSiteC).get(d5);
-								if(summaryFunction==null) summaryFunction = allTop; //SummaryFn initialized to all-top, see line [4] in SRH96 paper
-								fPrime = f4.composeWith(f).composeWith(f5).joinWith(summaryFunction);
-								if(!fPrime.equalTo(summaryFunction)) {
-									summaryFunctions.insertFunction(c,d4,retSiteC,d5,fPrime);
-								}
+							//SummaryFn initialized to all-top, see line [4] in SRH96 paper
+							EdgeFunction<V> fPrime = summaryFunctions.joinAndGetIfChanged(c, d4, retSiteC, d5,
+									f4.composeWith(f).composeWith(f5));
+							if (fPrime == null) {
+								//unchanged, continue with the current summary function
+								fPrime = summaryFunctions.summariesFor(c, d4, retSiteC).get(d5);
+								if (fPrime == null) fPrime = allTop;
 							}
 							if (doPropagate)
 								for(Map.Entry<D,EdgeFunction<V>> valAndFunc: jumpFn.reverseLookup(c,d4).entrySet()) {
@@ -871,37 +1338,31 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			+ "call graph valid? Offending statement: " + target;
 //		assert operationMode == OperationMode.Compute;
 		
-		// Check whether we have changed a path edge. If so, immediately update it
-		// and release the monitor
-		boolean added = false;
-		synchronized (jumpFn) {
-			EdgeFunction<V> jumpFnE = jumpFn.reverseLookup(target, targetVal).get(sourceVal);
-			if(jumpFnE==null) jumpFnE = allTop; //JumpFn is initialized to all-top (see line [2] in SRH96 paper)
-			EdgeFunction<V> fPrime = jumpFnE.joinWith(f);
-			if (!fPrime.equalTo(jumpFnE)) {
-				jumpFn.addFunction(sourceVal, target, targetVal, fPrime);	// synchronized function
-				added = true;
-
-				if(DEBUG) {
-					if(targetVal!=zeroValue) {
-						StringBuilder result = new StringBuilder();
-						result.append("EDGE:  <");
-						result.append(icfg.getMethodOf(target));
-						result.append(",");
-						result.append(sourceVal);
-						result.append("> -> <");
-						result.append(target);
-						result.append(",");
-						result.append(targetVal);
-						result.append("> - ");
-						result.append(fPrime);
-						System.out.println(result.toString());
-					}
-				}
+		// Check whether we have changed a path edge. If so, the jump function
+		// index atomically updates it.
+		EdgeFunction<V> fPrime = jumpFn.joinFunction(sourceVal, target, targetVal, f);	// thread-safe function
+		boolean added = fPrime != null;
+		if (added && DEBUG) {
+			if(targetVal!=zeroValue) {
+				StringBuilder result = new StringBuilder();
+				result.append("EDGE:  <");
+				result.append(icfg.getMethodOf(target));
+				result.append(",");
+				result.append(sourceVal);
+				result.append("> -> <");
+				result.append(target);
+				result.append(",");
+				result.append(targetVal);
+				result.append("> - ");
+				result.append(fPrime);
+				System.out.println(result.toString());
 			}
 		}
 		
 		if (added) {
+			Set<N> jumpFnChanged = jumpFnChangedNodes;
+			if (jumpFnChanged != null)
+				jumpFnChanged.add(target);
 			PathEdge<N,D,M> edge = new PathEdge<N,D,M>(sourceVal, target, targetVal);
 			addToWorkList(edge);	// thread-safe, includes all necessary synchronization
 		}
@@ -919,14 +1380,10 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 				if (savedFacts == null) {
 					// We have not processed this edge yet. Record the original data
 					// so that we can later check whether our re-processing has changed
-					// anything
-					Map<D, EdgeFunction<V>> targetDs = new HashMap<D, EdgeFunction<V>>
-						(this.jumpFn.forwardLookup(sourceVal, target));
+					// anything. Removing the original facts returns them as a map
+					// that is no longer linked to the jump function index.
+					Map<D, EdgeFunction<V>> targetDs = this.jumpFn.removeFunctions(sourceVal, target);
 					this.jumpSave.put(target, sourceVal, targetDs);
-	
-					// Delete the original facts
-					for (D d : targetDs.keySet())
-						this.jumpFn.removeFunction(sourceVal, target, d);
 					synchronized (changedNodes) {
 						this.changedNodes.add(target);
 					}
@@ -935,13 +1392,7 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 				// If the function with which we are coming in right now is different
 				// from what we already have as the "new" jump function, we need to
 				// record it.
-				EdgeFunction<V> jumpFnE = jumpFn.reverseLookup(target, targetVal).get(sourceVal);
-				if(jumpFnE==null) jumpFnE = allTop; //JumpFn is initialized to all-top (see line [2] in SRH96 paper)
-				EdgeFunction<V> fPrime = jumpFnE.joinWith(f);
-				if (!fPrime.equalTo(jumpFnE)) {
-					jumpFn.addFunction(sourceVal, target, targetVal, fPrime);
-					added = true;
-				}
+				added = jumpFn.joinFunction(sourceVal, target, targetVal, f) != null;
 			}
 		}
 		if (added)
@@ -958,14 +1409,10 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 				if (!this.jumpSave.contains(target, sourceVal)) {
 					// We have not processed this edge yet. Record the original data
 					// so that we can later check whether our re-processing has changed
-					// anything
-					Map<D, EdgeFunction<V>> targetDs = new HashMap<D, EdgeFunction<V>>
-						(this.jumpFn.forwardLookup(sourceVal, target));
+					// anything. Removing the original facts returns them as a map
+					// that is no longer linked to the jump function index.
+					Map<D, EdgeFunction<V>> targetDs = this.jumpFn.removeFunctions(sourceVal, target);
 					this.jumpSave.put(target, sourceVal, targetDs);
-	
-					// Delete the original facts
-					for (D d : targetDs.keySet())
-						this.jumpFn.removeFunction(sourceVal, target, d);
 					synchronized (changedNodes) {
 						this.changedNodes.add(target);
 						addToWorkList(new PathEdge<N, D, M>(sourceVal, target, null));
@@ -978,6 +1425,11 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	private void addToWorkList(PathEdge<N, D, M> edge) {
 		assert icfg.containsStmt(edge.getTarget()) :
 			"Statement not found in graph: " + edge.getTarget();
+		WorkStealingScheduler scheduler = edgeScheduler;
+		if (scheduler != null) {
+			scheduleEdge(scheduler, edge);
+			return;
+		}
 		synchronized (pathWorklist) {
 //			if (!pathWorklist.contains(edge))
 				pathWorklist.add(edge);
@@ -985,47 +1437,29 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	}
 
 	private Set<Cell<N, D, EdgeFunction<V>>> endSummary(N sP, D d3) {
-		Table<N, D, EdgeFunction<V>> map = endSummary.get(sP, d3);
-		if(map==null) return Collections.emptySet();
-		return map.cellSet();
+		return endSummary.endSummary(sP, d3);
 	}
 
 	private void addEndSummary(N sP, D d1, N eP, D d2, EdgeFunction<V> f) {
 		assert icfg.containsStmt(sP);
 		assert icfg.containsStmt(eP);
 		
-		Table<N, D, EdgeFunction<V>> summaries = endSummary.get(sP, d1);
-		if(summaries==null) {
-			summaries = HashBasedTable.create();
-			endSummary.put(sP, d1, summaries);
-		}
-		summaries.put(eP,d2,f);
+		endSummary.addEndSummary(sP, d1, eP, d2, f);
 	}	
 	
 	private Set<Entry<N, Set<D>>> incoming(D d1, N sP) {
-		Map<N, Set<D>> map = incoming.get(sP, d1);
-		if(map==null) return Collections.emptySet();
-		return map.entrySet();
+		return incoming.incoming(sP, d1);
 	}
 	
 	private void addIncoming(N sP, D d3, N n, D d2) {
-		Map<N, Set<D>> summaries = incoming.get(sP, d3);
-		if(summaries==null) {
-			summaries = new HashMap<N, Set<D>>();
-			incoming.put(sP, d3, summaries);
-		}
-		Set<D> set = summaries.get(n);
-		if(set==null) {
-			set = new HashSet<D>();
-			summaries.put(n,set);
-		}
-		set.add(d2);
+		incoming.addIncoming(sP, d3, n, d2);
 	}
 	
 	/**
 	 * Returns the V-type result for the given value at the given statement. 
 	 */
 	public V resultAt(N stmt, D value) {
+		ensureValueComputed(stmt);
 		return val.get(stmt, value);
 	}
 	
@@ -1034,6 +1468,7 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 	 * The artificial zero value is automatically stripped.
 	 */
 	public Map<D,V> resultsAt(N stmt) {
+		ensureValueComputed(stmt);
 		//filter out the artificial zero-value
 		return Maps.filterKeys(val.row(stmt), new Predicate<D>() {
 
@@ -1160,56 +1595,185 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			if(icfg.isCallStmt(n)) {
 				propagateValueAtCall(nAndD, n);
 			}
-			synchronized (nodeWorklist) {
-				numTasks.getAndDecrement();
-				//potentially wake up waiting broker thread
-				//(see forwardComputeJumpFunctionsSLRPs())
-				nodeWorklist.notify();
-			}
 		}
 	}
 	
-	private class ValueComputationTask implements Runnable {
+	private class ValueComputationTask extends RecursiveAction {
+		private static final long serialVersionUID = 6572915322370361578L;
+		
 		private final N[] values;
-		final int num;
+		private final int from;
+		private final int to;
+		private final int threshold;
 
-		public ValueComputationTask(N[] values, int num) {
+		/**
+		 * Creates a new instance of the ValueComputationTask class.
+		 * @param values The nodes for which to compute the values
+		 * @param from The index of the first node to process
+		 * @param to The index after the last node to process
+		 * @param threshold The maximum number of nodes to process without
+		 * splitting the range any further
+		 */
+		public ValueComputationTask(N[] values, int from, int to, int threshold) {
 			this.values = values;
-			this.num = num;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
 		}
 
-		public void run() {
-			int sectionSize = (int) Math.floor(values.length / numThreads) + numThreads;
-			for(int i = sectionSize * num; i < Math.min(sectionSize * (num+1),values.length); i++) {
-				N n = values[i];
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ValueComputationTask(values, from, mid, threshold),
+						new ValueComputationTask(values, mid, to, threshold));
+				return;
+			}
+			for(int i = from; i < to; i++)
+				computeValueAt(values[i]);
+		}
+	}
+	
+	/**
+	 * Computes the values at a node that is neither a start point nor a call
+	 * site from the values at the start points of its method (Phase II(ii))
+	 * @param n The node for which to compute the values
+	 */
+	private void computeValueAt(N n) {
+		Set<N> startPoints = icfg.getStartPointsOf(icfg.getMethodOf(n));
+		assert !startPoints.isEmpty();
+		for(N sP: startPoints) {					
+			Set<Cell<D, D, EdgeFunction<V>>> lookupByTarget;
+			lookupByTarget = jumpFn.lookupByTarget(n);
+			for(Cell<D, D, EdgeFunction<V>> sourceValTargetValAndFunction : lookupByTarget) {
+				D dPrime = sourceValTargetValAndFunction.getRowKey();
+				D d = sourceValTargetValAndFunction.getColumnKey();						
+				EdgeFunction<V> fPrime = sourceValTargetValAndFunction.getValue();
 				
-				Set<N> startPoints = icfg.getStartPointsOf(icfg.getMethodOf(n));
-				assert !startPoints.isEmpty();
-				for(N sP: startPoints) {					
-					Set<Cell<D, D, EdgeFunction<V>>> lookupByTarget;
-					lookupByTarget = jumpFn.lookupByTarget(n);
-					for(Cell<D, D, EdgeFunction<V>> sourceValTargetValAndFunction : lookupByTarget) {
-						D dPrime = sourceValTargetValAndFunction.getRowKey();
-						D d = sourceValTargetValAndFunction.getColumnKey();						
-						EdgeFunction<V> fPrime = sourceValTargetValAndFunction.getValue();
-						
-						V vP = val(sP,dPrime);
-						if (vP == valueLattice.topElement())
-							continue;
-						V v2 = fPrime.computeTarget(vP);
-						if (v2 == valueLattice.topElement())
-							continue;
-
-						synchronized (val) {
-							setVal(n,d,valueLattice.join(val(n,d),fPrime.computeTarget(val(sP,dPrime))));
-						}
-						flowFunctionApplicationCount++;
-					}
-				}
+				V vP = val(sP,dPrime);
+				if (vP == valueLattice.topElement())
+					continue;
+				V v2 = fPrime.computeTarget(vP);
+				if (v2 == valueLattice.topElement())
+					continue;
+
+				val.join(n, d, v2, valueLattice);	// atomic
+				flowFunctionApplicationCount++;
 			}
 		}
 	}
 	
+	/**
+	 * In lazy value mode, makes sure that the values at the given node have
+	 * been computed. Start points and call sites are always computed in
+	 * Phase II(i), all other nodes are computed on first access and memoized.
+	 * @param n The node whose values are queried
+	 */
+	private void ensureValueComputed(N n) {
+		if (valueMode != ValueMode.Lazy || !icfg.containsStmt(n))
+			return;
+		if (icfg.isStartPoint(n) || icfg.isCallStmt(n))
+			return;
+		M m = icfg.getMethodOf(n);
+		Set<N> nodes = lazyNodes.get(m);
+		if (nodes == null) {
+			Set<N> newNodes = Collections.newSetFromMap(new ConcurrentHashMap<N,Boolean>());
+			nodes = lazyNodes.putIfAbsent(m, newNodes);
+			if (nodes == null)
+				nodes = newNodes;
+		}
+		if (nodes.contains(n))
+			return;
+		synchronized (nodes) {
+			if (!nodes.contains(n)) {
+				computeValueAt(n);
+				nodes.add(n);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the complete state of the solver (jump functions, summary
+	 * functions, end summaries, incoming edges and values) to the given stream
+	 * so that it can be restored in another process with
+	 * {@link #loadState(InputStream, SolverStateCodec)}. The stream is not
+	 * closed. The solver must not be running.
+	 * @param out The stream to write to
+	 * @param codec The codec for encoding the nodes, facts, values and edge
+	 * functions in a way that is stable across processes
+	 * @throws IOException If the state cannot be written
+	 */
+	public void saveState(OutputStream out, SolverStateCodec<N,D,V> codec) throws IOException {
+		long before = System.nanoTime();
+		synchronized (incoming) {
+			new SolverStateIO<N,D,V>(codec).write(out, jumpFn, summaryFunctions,
+					endSummary, incoming, val);
+		}
+		System.out.println("Solver state saved in " + (System.nanoTime() - before) / 1E9
+				+ " seconds");
+	}
+	
+	/**
+	 * Restores a solver state written by
+	 * {@link #saveState(OutputStream, SolverStateCodec)}. Afterwards, the
+	 * results can be queried and {@link #update(InterproceduralCFG)} can be
+	 * called as if {@link #solve()} had been run. The snapshot must have been
+	 * taken on the program that is described by the current control-flow graph.
+	 * If restoring fails, the solver is left empty and the caller should fall
+	 * back to {@link #solve()}. The stream is not closed.
+	 * @param in The stream to read from
+	 * @param codec The codec for decoding the nodes, facts, values and edge
+	 * functions
+	 * @throws IOException If the snapshot is corrupt or does not match the
+	 * current program
+	 */
+	public void loadState(InputStream in, SolverStateCodec<N,D,V> codec) throws IOException {
+		long before = System.nanoTime();
+		this.jumpFn.clear();
+		this.summaryFunctions.clear();
+		this.endSummary.clear();
+		this.incoming.clear();
+		this.val.clear();
+		this.lazyNodes.clear();
+		if (ffCache != null)
+			ffCache.invalidateAll();
+		if (efCache != null)
+			efCache.invalidateAll();
+		this.propagationCount.set(0);
+		this.operationMode = OperationMode.Compute;
+		
+		boolean success = false;
+		try {
+			synchronized (incoming) {
+				new SolverStateIO<N,D,V>(codec).read(in, jumpFn, summaryFunctions,
+						endSummary, incoming, val);
+			}
+			success = true;
+		}
+		finally {
+			if (!success) {
+				this.jumpFn.clear();
+				this.summaryFunctions.clear();
+				this.endSummary.clear();
+				this.incoming.clear();
+				this.val.clear();
+			}
+		}
+		
+		// A snapshot taken in lazy mode only contains the values that have
+		// been computed so far
+		if (valueMode == ValueMode.Eager) {
+			List<N> missing = new ArrayList<N>();
+			for (N n : icfg.allNonCallStartNodes())
+				if (val.row(n).isEmpty())
+					missing.add(n);
+			initExecutor(numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+			computeValuesAt(missing);
+		}
+		System.out.println("Solver state restored in " + (System.nanoTime() - before) / 1E9
+				+ " seconds");
+	}
+	
 	/**
 	 * Updates an already generated solution based on changes to the underlying
 	 * control flow graph
@@ -1264,22 +1828,17 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			return;
 		}
 
-		this.changedNodes = new HashSet<N>((int) this.propagationCount);
-		this.propagationCount = new Long(0);
+		this.changedNodes = new HashSet<N>((int) this.propagationCount.get());
+		this.jumpFnChangedNodes = Collections.newSetFromMap(new ConcurrentHashMap<N,Boolean>());
+		this.propagationCount.set(0);
 		
 		// Make sure we don't cache any expired nodes
 		long beforeRemove = System.nanoTime();
 		System.out.println("Removing " + expiredNodes.size() + " expired nodes...");
-		for (N n : expiredNodes) {
+		for (N n : expiredNodes)
 			this.jumpFn.removeByTarget(n);
-			Utils.removeElementFromTable(this.incoming, n);
-			Utils.removeElementFromTable(this.endSummary, n);
-
-			for (Cell<N, D, Map<N, Set<D>>> cell : incoming.cellSet())
-				cell.getValue().remove(n);
-			for (Cell<N, D, Table<N, D, EdgeFunction<V>>> cell : endSummary.cellSet())
-				Utils.removeElementFromTable(cell.getValue(), n);
-		}
+		this.incoming.removeNodes(expiredNodes);
+		this.endSummary.removeNodes(expiredNodes);
 		System.out.println("Expired nodes removed in "
 				+ (System.nanoTime() - beforeRemove) / 1E9
 				+ " seconds.");
@@ -1301,16 +1860,32 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 			changeSet.putAll(deleteExpiredEdges(expiredNodes, expiredEdges));
 			System.out.println("Expired edges deleted.");
 		}
+		coveredNodes = new ConcurrentHashMap<M, Set<N>>(changeSet.size());
 
-		Set<N> totalChangedNodes = new HashSet<N>((int) this.propagationCount);
+		Set<N> totalChangedNodes = new HashSet<N>((int) this.propagationCount.get());
 		System.out.println("Processing worklist for edges...");
 		int edgeIdx = 0;
 		long beforeEdges = System.nanoTime();
-		for (M m : changeSet.keySet())
+		if (updateMode == UpdateMode.Batched) {
+			// Seed all independent change points at once and drain the
+			// worklist in a single run
+			for (M m : changeSet.keySet())
+				for (N preLoop : selectChangeRoots(changeSet.get(m))) {
+					edgeIdx++;
+					for (Cell<D, D, EdgeFunction<V>> srcEntry : jumpFn.lookupByTarget(preLoop))
+						addToWorkList(new PathEdge<N,D,M>(srcEntry.getRowKey(), preLoop,
+								srcEntry.getColumnKey()));
+				}
+			this.operationMode = OperationMode.Update;
+			this.jumpSave.clear();
+			solveOnWorklist(numThreads, true, false);
+			totalChangedNodes.addAll(this.changedNodes);
+		}
+		else for (M m : changeSet.keySet())
 			for (N preLoop : changeSet.get(m)) {
 				// If a predecessor in the same method has already been
 				// the start point of a propagation, we can skip this one.
-				if (this.predecessorRepropagated(changeSet.get(m), preLoop))
+				if (this.predecessorRepropagated(m, preLoop))
 					continue;
 				// If another propagation has already visited this node,
 				// starting a new propagation from here cannot create
@@ -1344,11 +1919,35 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 
 		System.out.println("Processing worklist for values...");
 		this.operationMode = OperationMode.Compute;
-		solveOnWorklist(numThreads, false, true);
+		totalChangedNodes.addAll(this.jumpFnChangedNodes);
+		this.jumpFnChangedNodes = null;
+		long beforeValues = System.nanoTime();
+		initExecutor(numThreads);
+		updateValues(totalChangedNodes, changeSet.keySet(),
+				collectOldCalleeNodes(changeSet, expiredNodes));
+		durationFlowFunctionApplication = (System.nanoTime() - beforeValues) / 1000000;
+		System.out.println("Values updated in " + (System.nanoTime() - beforeValues) / 1E9
+				+ " seconds");
 		System.out.println("Worklist processing done, " + propagationCount + " edges processed.");
 		
 		this.oldcfg = null; // allow for garbage collection
 		this.changedNodes = null;
+		this.coveredNodes = null;
+	}
+
+	/**
+	 * Selects the change points within a single method from which the update
+	 * needs to be propagated. A change point that is reachable from another
+	 * change point is skipped, because the propagation from the other change
+	 * point will reach it anyway. If change points reach each other mutually
+	 * (e.g. inside a loop), only one of them is selected. The effort is
+	 * linear in the size of the part of the method reachable from the change
+	 * points, see {@link ChangePointCoverage}.
+	 * @param changePoints The change points in the method
+	 * @return The change points from which to start the propagation
+	 */
+	private List<N> selectChangeRoots(Set<N> changePoints) {
+		return ChangePointCoverage.changeRoots(icfg, changePoints);
 	}
 
 	/**
@@ -1387,22 +1986,27 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 		return methodExpiredEdges;
 	}
 
-	private boolean predecessorRepropagated(Set<N> srcNodes, N srcN) {
+	/**
+	 * Checks whether a change point in the given method other than the given
+	 * node reaches the node. Propagations from such a change point will reach
+	 * the node anyway.
+	 * @param m The method containing the node
+	 * @param srcN The node to check
+	 * @return True if another change point reaches the node, otherwise false
+	 */
+	private boolean predecessorRepropagated(M m, N srcN) {
+		Set<N> srcNodes = changeSet.get(m);
 		if (srcNodes == null)
 			return false;
-		List<N> curNodes = new ArrayList<N>();
-		Set<N> doneSet = new HashSet<N>(100);
-		curNodes.addAll(icfg.getPredsOf(srcN));
-		while (!curNodes.isEmpty()) {
-			N n = curNodes.remove(0);
-			if (!doneSet.add(n))
-				continue;
-			
-			if (srcNodes.contains(n) && n != srcN)
-				return true;
-			curNodes.addAll(icfg.getPredsOf(n));
+		Set<N> covered = coveredNodes.get(m);
+		if (covered == null) {
+			// Concurrent threads may compute the same set, which is harmless
+			covered = ChangePointCoverage.coveredNodes(icfg, srcNodes);
+			Set<N> existing = coveredNodes.putIfAbsent(m, covered);
+			if (existing != null)
+				covered = existing;
 		}
-		return false;
+		return covered.contains(srcN);
 	}
 
 	/**
@@ -1482,12 +2086,42 @@ public class IDESolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<
 		icfg.mergeWrappers(oldcfg);
 		
 		
-		// Invalidate all cached functions
-		ffCache.invalidateAll();
-		efCache.invalidateAll();
+		// Invalidate the cached functions of the changed methods. Functions
+		// of unchanged methods remain valid.
+		Set<M> changedMethods = new HashSet<M>();
+		for (Entry<N, List<N>> entry : expiredEdges.entrySet()) {
+			addMethodOf(entry.getKey(), changedMethods);
+			for (N n : entry.getValue())
+				addMethodOf(n, changedMethods);
+		}
+		for (Entry<N, List<N>> entry : newEdges.entrySet()) {
+			addMethodOf(entry.getKey(), changedMethods);
+			for (N n : entry.getValue())
+				addMethodOf(n, changedMethods);
+		}
+		for (N n : newNodes)
+			addMethodOf(n, changedMethods);
+		for (N n : expiredNodes)
+			addMethodOf(n, changedMethods);
+		if (ffCache != null)
+			ffCache.invalidateMethods(changedMethods, icfg);
+		if (efCache != null)
+			efCache.invalidateMethods(changedMethods, icfg);
+		System.out.println("Invalidated cached functions of " + changedMethods.size()
+				+ " changed methods");
 		
 		System.out.println("CFG changeset computation took " + (System.nanoTime() - startTime) / 1E9
 				+ " seconds");
 	}
 	
+	/**
+	 * Adds the method containing the given node to the given set. Nodes that
+	 * are no longer part of the control-flow graph are skipped, cached
+	 * functions referring to them are invalidated anyway.
+	 */
+	private void addMethodOf(N n, Set<M> methods) {
+		if (icfg.containsStmt(n))
+			methods.add(icfg.getMethodOf(n));
+	}
+	
 }
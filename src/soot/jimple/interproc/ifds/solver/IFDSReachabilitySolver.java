@@ -0,0 +1,392 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import soot.jimple.interproc.ifds.DontSynchronize;
+import soot.jimple.interproc.ifds.FlowFunction;
+import soot.jimple.interproc.ifds.FlowFunctionCache;
+import soot.jimple.interproc.ifds.FlowFunctions;
+import soot.jimple.interproc.ifds.IFDSTabulationProblem;
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ZeroedFlowFunctions;
+import soot.jimple.interproc.ifds.utils.DenseIdMap;
+import soot.jimple.interproc.ifds.utils.LongObjectHashMap;
+import soot.jimple.interproc.incremental.UpdatableWrapper;
+
+/**
+ * Solves an {@link IFDSTabulationProblem} by computing plain reachability in
+ * the exploded super graph as described in the 1995 paper by Reps, Horwitz
+ * and Sagiv, using the end summary / incoming tables of Naeem, Lhotak and
+ * Rodriguez. In contrast to the {@link IFDSSolver} running in IDE mode, no
+ * edge functions are created, composed or joined and no value computation
+ * phase is necessary: a fact holds at a statement exactly if some path edge
+ * reaches it.
+ *
+ * Facts and nodes are interned to dense integer ids. For every pair of
+ * target node and source fact, the set of target facts is kept in a
+ * {@link BitSet}. Path edges are processed on a {@link WorkStealingScheduler}.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <M> The type of objects used to represent methods.
+ * @param <I> The type of inter-procedural control-flow graph being used.
+ */
+public class IFDSReachabilitySolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<?>,
+		M extends UpdatableWrapper<?>, I extends InterproceduralCFG<N, M>> {
+
+	//number of lock stripes for the path edge tables, must be a power of two
+	private static final int STRIPES = 64;
+
+	@DontSynchronize("readOnly")
+	private final IFDSTabulationProblem<N,D,M,I> ifdsProblem;
+
+	@DontSynchronize("only written by single thread before solving")
+	private I icfg;
+
+	@DontSynchronize("only written by single thread before solving")
+	private FlowFunctions<N,D,M> flowFunctions;
+
+	@DontSynchronize("readOnly")
+	private final D zeroValue;
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<N> nodeIds = new DenseIdMap<N>(10000);
+
+	@SynchronizedBy("thread safe data structure")
+	private final DenseIdMap<D> factIds = new DenseIdMap<D>(10000);
+
+	@SynchronizedBy("lock on the stripe of the target node")
+	private final PathEdgeStripe[] stripes;
+
+	//stores summaries that were queried before they were computed, keyed by
+	//packed (start point, source fact), see CC 2010 paper by Naeem, Lhotak and Rodriguez
+	@SynchronizedBy("consistent lock on 'incoming'")
+	private final LongObjectHashMap<Map<N,BitSet>> endSummary = new LongObjectHashMap<Map<N,BitSet>>();
+
+	//edges going along calls, keyed by packed (start point, fact at start point)
+	//see CC 2010 paper by Naeem, Lhotak and Rodriguez
+	@SynchronizedBy("consistent lock on field")
+	private final LongObjectHashMap<Map<N,BitSet>> incoming = new LongObjectHashMap<Map<N,BitSet>>();
+
+	@DontSynchronize("only used by single thread")
+	private WorkStealingScheduler scheduler;
+
+	@SynchronizedBy("atomic long")
+	private final AtomicLong propagationCount = new AtomicLong();
+
+	/**
+	 * Creates a new solver for the given problem. The solver must then be
+	 * started by calling {@link #solve(int)}.
+	 * @param ifdsProblem The problem to solve
+	 */
+	public IFDSReachabilitySolver(IFDSTabulationProblem<N,D,M,I> ifdsProblem) {
+		this.ifdsProblem = ifdsProblem;
+		this.zeroValue = ifdsProblem.zeroValue();
+		this.stripes = new PathEdgeStripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			this.stripes[i] = new PathEdgeStripe();
+	}
+
+	/**
+	 * Computes the facts reachable at every statement from scratch. All
+	 * results of previous runs are discarded.
+	 * @param numThreads The number of threads to use.
+	 */
+	public void solve(int numThreads) {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+		try {
+			solve(pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the facts reachable at every statement from scratch on the
+	 * given pool. The pool is not shut down afterwards. All results of
+	 * previous runs are discarded.
+	 * @param pool The pool on which to process the path edges
+	 */
+	public void solve(ForkJoinPool pool) {
+		this.icfg = ifdsProblem.interproceduralCFG();
+		this.flowFunctions = new FlowFunctionCache<N,D,M>(new ZeroedFlowFunctions<N,D,M>
+			(ifdsProblem.flowFunctions(), zeroValue), IDESolver.DEFAULT_CACHE_BUILDER);
+		for (PathEdgeStripe stripe : stripes)
+			stripe.clear();
+		synchronized (incoming) {
+			incoming.clear();
+			endSummary.clear();
+		}
+		nodeIds.clear();
+		factIds.clear();
+		propagationCount.set(0);
+
+		try {
+			scheduler = new WorkStealingScheduler(pool);
+			int zeroId = factIds.getOrCreateId(zeroValue);
+			for (N startPoint : ifdsProblem.initialSeeds()) {
+				assert icfg.containsStmt(startPoint);
+				propagate(zeroId, startPoint, zeroId);
+			}
+			scheduler.awaitQuiescence();
+		}
+		finally {
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Returns the set of facts that hold at the given statement. The
+	 * artificial zero value is automatically stripped.
+	 */
+	public Set<D> ifdsResultsAt(N statement) {
+		int n = nodeIds.getId(statement);
+		if (n < 0)
+			return Collections.emptySet();
+		BitSet facts = stripeOf(n).results(n);
+		if (facts == null)
+			return Collections.emptySet();
+		Set<D> res = new LinkedHashSet<D>(facts.cardinality());
+		for (int d = facts.nextSetBit(0); d >= 0; d = facts.nextSetBit(d + 1)) {
+			D fact = factIds.getObject(d);
+			if (fact != zeroValue)
+				res.add(fact);
+		}
+		return res;
+	}
+
+	/**
+	 * Gets the number of path edges that have been propagated in the last run
+	 * @return The number of path edges propagated
+	 */
+	public long getPropagationCount() {
+		return propagationCount.get();
+	}
+
+	private PathEdgeStripe stripeOf(int nodeId) {
+		return stripes[nodeId & (STRIPES - 1)];
+	}
+
+	private void propagate(final int d1, final N n, final int d2) {
+		assert icfg.containsStmt(n) : "Propagated statement not found in graph. Is your "
+			+ "call graph valid? Offending statement: " + n;
+		int nodeId = nodeIds.getOrCreateId(n);
+		if (!stripeOf(nodeId).addPathEdge(nodeId, d1, d2))
+			return;
+		propagationCount.incrementAndGet();
+		scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				processSingleEdge(d1, n, d2);
+			}
+
+		});
+	}
+
+	private void processSingleEdge(int d1, N n, int d2) {
+		if (icfg.isCallStmt(n))
+			processCall(d1, n, d2);
+		else {
+			//note that some statements, such as "throw" may be
+			//both an exit statement and a "normal" statement
+			if (icfg.isExitStmt(n))
+				processExit(d1, n, d2);
+			if (!icfg.getSuccsOf(n).isEmpty())
+				processNormalFlow(d1, n, d2);
+		}
+	}
+
+	/**
+	 * Lines 13-20 of the algorithm; processing a call site in the caller's context.
+	 */
+	private void processCall(int d1, N n, int d2) {
+		D d2Fact = factIds.getObject(d2);
+		Collection<N> returnSites = icfg.getReturnSitesOfCallAt(n);
+		for (M sCalledProcN : icfg.getCalleesOfCallAt(n)) {
+			FlowFunction<D> function = flowFunctions.getCallFlowFunction(n, sCalledProcN);
+			for (D d3Fact : function.computeTargets(d2Fact)) {
+				int d3 = factIds.getOrCreateId(d3Fact);
+				for (N sP : icfg.getStartPointsOf(sCalledProcN)) {
+					propagate(d3, sP, d3); //line 15
+
+					Map<N,BitSet> endSumm;
+					int sPId = nodeIds.getOrCreateId(sP);
+					synchronized (incoming) {
+						//line 15.1 of Naeem/Lhotak/Rodriguez
+						addToTable(incoming, sPId, d3, n, d2);
+						//line 15.2, copy to avoid concurrent modification by other threads
+						endSumm = copyRow(endSummary, sPId, d3);
+					}
+
+					//still line 15.2 of Naeem/Lhotak/Rodriguez
+					for (Entry<N,BitSet> entry : endSumm.entrySet()) {
+						N eP = entry.getKey();
+						BitSet d4s = entry.getValue();
+						for (N retSiteN : returnSites) {
+							FlowFunction<D> retFunction = flowFunctions.getReturnFlowFunction
+								(n, sCalledProcN, eP, retSiteN);
+							for (int d4 = d4s.nextSetBit(0); d4 >= 0; d4 = d4s.nextSetBit(d4 + 1))
+								for (D d5 : retFunction.computeTargets(factIds.getObject(d4)))
+									propagate(d1, retSiteN, factIds.getOrCreateId(d5));
+						}
+					}
+				}
+			}
+		}
+		//line 17-19 of Naeem/Lhotak/Rodriguez
+		for (N returnSiteN : returnSites) {
+			FlowFunction<D> callToReturnFlowFunction = flowFunctions.getCallToReturnFlowFunction(n, returnSiteN);
+			for (D d3 : callToReturnFlowFunction.computeTargets(d2Fact))
+				propagate(d1, returnSiteN, factIds.getOrCreateId(d3));
+		}
+	}
+
+	/**
+	 * Lines 21-32 of the algorithm.
+	 */
+	private void processExit(int d1, N n, int d2) {
+		M methodThatNeedsSummary = icfg.getMethodOf(n);
+		D d2Fact = factIds.getObject(d2);
+		for (N sP : icfg.getStartPointsOf(methodThatNeedsSummary)) {
+			//line 21.1 of Naeem/Lhotak/Rodriguez
+			Map<N,BitSet> inc;
+			int sPId = nodeIds.getOrCreateId(sP);
+			synchronized (incoming) {
+				addToTable(endSummary, sPId, d1, n, d2);
+				//copy to avoid concurrent modification by other threads
+				inc = copyRow(incoming, sPId, d1);
+			}
+
+			for (Entry<N,BitSet> entry : inc.entrySet()) {
+				//line 22
+				N c = entry.getKey();
+				BitSet d4s = entry.getValue();
+				int cId = nodeIds.getOrCreateId(c);
+				for (N retSiteC : icfg.getReturnSitesOfCallAt(c)) {
+					FlowFunction<D> retFunction = flowFunctions.getReturnFlowFunction
+						(c, methodThatNeedsSummary, n, retSiteC);
+					Set<D> targets = retFunction.computeTargets(d2Fact);
+					if (targets.isEmpty())
+						continue;
+					for (int d4 = d4s.nextSetBit(0); d4 >= 0; d4 = d4s.nextSetBit(d4 + 1)) {
+						//line 23, all source facts of the caller that reach the call
+						BitSet d3s = stripeOf(cId).sourcesOf(cId, d4);
+						if (d3s == null)
+							continue;
+						for (D d5 : targets) {
+							int d5Id = factIds.getOrCreateId(d5);
+							for (int d3 = d3s.nextSetBit(0); d3 >= 0; d3 = d3s.nextSetBit(d3 + 1))
+								propagate(d3, retSiteC, d5Id);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lines 33-37 of the algorithm.
+	 */
+	private void processNormalFlow(int d1, N n, int d2) {
+		D d2Fact = factIds.getObject(d2);
+		for (N m : icfg.getSuccsOf(n)) {
+			FlowFunction<D> flowFunction = flowFunctions.getNormalFlowFunction(n, m);
+			for (D d3 : flowFunction.computeTargets(d2Fact))
+				propagate(d1, m, factIds.getOrCreateId(d3));
+		}
+	}
+
+	private void addToTable(LongObjectHashMap<Map<N,BitSet>> table, int sP, int d, N n, int fact) {
+		long key = LongObjectHashMap.pack(sP, d);
+		Map<N,BitSet> row = table.get(key);
+		if (row == null) {
+			row = new HashMap<N,BitSet>();
+			table.put(key, row);
+		}
+		BitSet facts = row.get(n);
+		if (facts == null) {
+			facts = new BitSet();
+			row.put(n, facts);
+		}
+		facts.set(fact);
+	}
+
+	private Map<N,BitSet> copyRow(LongObjectHashMap<Map<N,BitSet>> table, int sP, int d) {
+		Map<N,BitSet> row = table.get(LongObjectHashMap.pack(sP, d));
+		if (row == null)
+			return Collections.emptyMap();
+		Map<N,BitSet> res = new HashMap<N,BitSet>(row.size());
+		for (Entry<N,BitSet> entry : row.entrySet())
+			res.put(entry.getKey(), (BitSet) entry.getValue().clone());
+		return res;
+	}
+
+	/**
+	 * The path edges of all target nodes whose id maps to the same stripe.
+	 * All methods lock the stripe.
+	 */
+	private static class PathEdgeStripe {
+
+		//packed (target node, source fact) to the set of target facts
+		private final LongObjectHashMap<BitSet> forward = new LongObjectHashMap<BitSet>(1024);
+
+		//packed (target node, target fact) to the set of source facts
+		private final LongObjectHashMap<BitSet> reverse = new LongObjectHashMap<BitSet>(1024);
+
+		//target node to the union of all target facts
+		private final LongObjectHashMap<BitSet> results = new LongObjectHashMap<BitSet>(256);
+
+		/**
+		 * Records a path edge
+		 * @return True if the edge is new, false if it has been there before
+		 */
+		private synchronized boolean addPathEdge(int n, int d1, int d2) {
+			BitSet targets = getOrCreate(forward, LongObjectHashMap.pack(n, d1));
+			if (targets.get(d2))
+				return false;
+			targets.set(d2);
+			getOrCreate(reverse, LongObjectHashMap.pack(n, d2)).set(d1);
+			getOrCreate(results, n).set(d2);
+			return true;
+		}
+
+		private synchronized BitSet sourcesOf(int n, int d2) {
+			BitSet sources = reverse.get(LongObjectHashMap.pack(n, d2));
+			return sources == null ? null : (BitSet) sources.clone();
+		}
+
+		private synchronized BitSet results(int n) {
+			BitSet facts = results.get(n);
+			return facts == null ? null : (BitSet) facts.clone();
+		}
+
+		private synchronized void clear() {
+			forward.clear();
+			reverse.clear();
+			results.clear();
+		}
+
+		private static BitSet getOrCreate(LongObjectHashMap<BitSet> map, long key) {
+			BitSet bs = map.get(key);
+			if (bs == null) {
+				bs = new BitSet();
+				map.put(key, bs);
+			}
+			return bs;
+		}
+
+	}
+
+}
@@ -3,10 +3,15 @@ package soot.jimple.interproc.ifds.solver;
 import static soot.jimple.interproc.ifds.solver.IFDSSolver.BinaryDomain.BOTTOM;
 import static soot.jimple.interproc.ifds.solver.IFDSSolver.BinaryDomain.TOP;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import soot.SootMethod;
 import soot.Unit;
+import soot.jimple.interproc.ifds.DontSynchronize;
 import soot.jimple.interproc.ifds.EdgeFunction;
 import soot.jimple.interproc.ifds.EdgeFunctions;
 import soot.jimple.interproc.ifds.FlowFunctions;
@@ -34,10 +39,40 @@ import soot.jimple.interproc.incremental.UpdatableWrapper;
 public class IFDSSolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper<?>,M extends UpdatableWrapper<?>,
 		I extends InterproceduralCFG<N, M>> extends IDESolver<N,D,M,IFDSSolver.BinaryDomain,I> {
 
-	static enum BinaryDomain { TOP,BOTTOM } 
+	public static enum BinaryDomain { TOP,BOTTOM } 
 	
 	private final static EdgeFunction<BinaryDomain> ALL_BOTTOM = new AllBottom<BinaryDomain>(BOTTOM);
 	
+	/**
+	 * Enumeration containing the ways in which this solver can compute the
+	 * IFDS results
+	 */
+	public enum SolvingMode
+	{
+		/**
+		 * The problem is encoded as an IDE problem over the binary domain and
+		 * solved by the {@link IDESolver}. This mode supports incremental
+		 * updates.
+		 */
+		IDE,
+		/**
+		 * Only the reachability of facts in the exploded super graph is
+		 * computed, without any edge functions and without a value
+		 * computation phase (see {@link IFDSReachabilitySolver}). Updates
+		 * are handled by solving the problem again from scratch.
+		 */
+		Reachability
+	};
+	
+	@DontSynchronize("only used by single thread")
+	private SolvingMode solvingMode = SolvingMode.IDE;
+	
+	@DontSynchronize("readOnly")
+	private final IFDSTabulationProblem<N,D,M,I> ifdsProblem;
+	
+	@DontSynchronize("readOnly")
+	private final IFDSReachabilitySolver<N,D,M,I> reachabilitySolver;
+	
 	/**
 	 * Creates a solver for the given problem. The solver must then be started by calling
 	 * {@link #solve()}.
@@ -132,12 +167,100 @@ public class IFDSSolver<N extends UpdatableWrapper<?>,D extends UpdatableWrapper
 			}
 
 			});
+		this.ifdsProblem = ifdsProblem;
+		this.reachabilitySolver = new IFDSReachabilitySolver<N,D,M,I>(ifdsProblem);
+	}
+	
+	/**
+	 * Sets the way in which this solver computes the IFDS results. The mode
+	 * takes effect with the next call to {@link #solve()}.
+	 * @param solvingMode The solving mode to use
+	 */
+	public void setSolvingMode(SolvingMode solvingMode) {
+		assert solvingMode != null;
+		this.solvingMode = solvingMode;
+	}
+	
+	/**
+	 * Gets the way in which this solver computes the IFDS results
+	 * @return The current solving mode
+	 */
+	public SolvingMode getSolvingMode() {
+		return this.solvingMode;
+	}
+	
+	@Override
+	public void solve(int numThreads, boolean enableUpdates) {
+		if (solvingMode == SolvingMode.IDE) {
+			super.solve(numThreads, enableUpdates);
+			return;
+		}
+		System.out.println("IFDS reachability solver started.");
+		System.out.println("Running with " + numThreads + " threads");
+		long before = System.currentTimeMillis();
+		if (getExecutor() != null)
+			reachabilitySolver.solve(getExecutor());
+		else
+			reachabilitySolver.solve(numThreads);
+		durationFlowFunctionConstruction = System.currentTimeMillis() - before;
+		durationFlowFunctionApplication = 0;
+		propagationCount.set(reachabilitySolver.getPropagationCount());
+		System.out.println("IFDS reachability solver done, " + propagationCount + " edges propagated.");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * In {@link SolvingMode#Reachability} mode, the problem is solved again
+	 * from scratch on the new control flow graph. The wrappers of the old
+	 * graph are still rebound and merged into the new one, so that wrappers
+	 * obtained before the update remain valid.
+	 */
+	@Override
+	public void update(int numThreads, I newCFG) {
+		if (solvingMode == SolvingMode.IDE) {
+			super.update(numThreads, newCFG);
+			return;
+		}
+		assert newCFG != null;
+		System.out.println("Performing IFDS reachability update by re-solving...");
+		
+		// Computing the changeset rebinds the wrappers of the old graph to the
+		// new program. The changes themselves are not needed since we solve
+		// from scratch.
+		I oldCFG = ifdsProblem.interproceduralCFG();
+		if (oldCFG != newCFG) {
+			oldCFG.computeCFGChangeset(newCFG, new HashMap<N, List<N>>(), new HashMap<N, List<N>>(),
+					new HashSet<N>(), new HashSet<N>());
+			newCFG.mergeWrappers(oldCFG);
+		}
+		ifdsProblem.updateCFG(newCFG);
+		solve(numThreads, false);
+	}
+	
+	@Override
+	public BinaryDomain resultAt(N stmt, D value) {
+		if (solvingMode == SolvingMode.IDE)
+			return super.resultAt(stmt, value);
+		return reachabilitySolver.ifdsResultsAt(stmt).contains(value) ? BOTTOM : null;
+	}
+	
+	@Override
+	public Map<D,BinaryDomain> resultsAt(N stmt) {
+		if (solvingMode == SolvingMode.IDE)
+			return super.resultsAt(stmt);
+		Set<D> facts = reachabilitySolver.ifdsResultsAt(stmt);
+		Map<D,BinaryDomain> res = new HashMap<D,BinaryDomain>(facts.size());
+		for (D d : facts)
+			res.put(d, BOTTOM);
+		return res;
 	}
 	
 	/**
 	 * Returns the set of facts that hold at the given statement.
 	 */
 	public Set<D> ifdsResultsAt(N statement) {
+		if (solvingMode == SolvingMode.Reachability)
+			return reachabilitySolver.ifdsResultsAt(statement);
 		return resultsAt(statement).keySet();
 	}
 
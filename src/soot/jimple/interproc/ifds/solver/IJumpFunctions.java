@@ -0,0 +1,120 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.Map;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.EdgeFunction;
+
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+
+/**
+ * Common interface for all indices over the jump functions computed by the
+ * IDE solver. The source statement of a jump function is always implicit.
+ * Implementations must be thread-safe.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <L> The type of values to be computed along flow edges.
+ */
+public interface IJumpFunctions<N,D,L> {
+
+	/**
+	 * Records a jump function. The source statement is implicit.
+	 * @see PathEdge
+	 */
+	public void addFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function);
+
+	/**
+	 * Atomically joins the given function with the jump function currently
+	 * recorded for the given edge (all-top if there is none) and stores the
+	 * result if it differs from the previous function.
+	 * @return The new jump function if it has changed, otherwise null
+	 */
+	public EdgeFunction<L> joinFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function);
+
+	/**
+	 * Removes a jump function. The source statement is implicit.
+	 * @see PathEdge
+	 * @return True if the function has actually been removed. False if it was not
+	 * there anyway.
+	 */
+	public boolean removeFunction(D sourceVal, N target, D targetVal);
+
+	/**
+	 * Atomically removes all jump functions for the given source value and
+	 * target statement.
+	 * @return A mapping from target values to the removed functions. The
+	 * returned map is not affected by later changes to this index.
+	 */
+	public Map<D,EdgeFunction<L>> removeFunctions(D sourceVal, N target);
+
+	/**
+	 * Removes all jump function with the given target
+	 * @see target The target for which to remove all jump functions
+	 */
+	public void removeByTarget(N target);
+
+	/**
+     * Returns, for a given target statement and value all associated
+     * source values, and for each the associated edge function.
+     * The return value is a mapping from source value to function.
+	 */
+	public Map<D,EdgeFunction<L>> reverseLookup(N target, D targetVal);
+
+	/**
+	 * Returns, for a given source value and target statement all
+	 * associated target values, and for each the associated edge function.
+     * The return value is a mapping from target value to function.
+	 */
+	public Map<D,EdgeFunction<L>> forwardLookup(D sourceVal, N target);
+
+	/**
+	 * Returns for a given target statement all jump function records with this target.
+	 * The return value is a set of records of the form (sourceVal,targetVal,edgeFunction).
+	 */
+	public Set<Cell<D,D,EdgeFunction<L>>> lookupByTarget(N target);
+
+	/**
+	 * Clears all elements in this index.
+	 */
+	public void clear();
+
+	/**
+	 * Replaces an old statement object with a new one without impacting
+	 * semantics.
+	 * @param oldStmt The old statement object to be replaced
+	 * @param newStmt The replacement for the old object
+	 */
+	public void replaceNode(N oldStmt, N newStmt);
+
+	/**
+	 * Gets all jump functions registered in this object.
+	 * @return A table containing all jump functions in this object. The row key
+	 * is the source fact, the column key is the target statement and value is
+	 * a mapping from target facts to the respective edge functions.
+	 */
+	public Table<D, N, Map<D, EdgeFunction<L>>> getAllFunctions();
+
+	/**
+	 * Gets the set of target statements for which this object contains jump
+	 * functions.
+	 * @return The set of target statements for which this object contains jump
+	 * functions.
+	 */
+	public Set<N> getTargets();
+
+	/**
+	 * Gets the number of target statements for which there are fact mappings.
+	 * @return The number of target statements
+	 */
+	public int targetCount();
+
+	/**
+	 * Gets the number of distinct source facts for which there are fact
+	 * mappings.
+	 * @return The number of distinct source facts
+	 */
+	public int sourceFactCount();
+
+}
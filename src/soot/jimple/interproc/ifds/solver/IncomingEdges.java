@@ -0,0 +1,169 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import soot.toolkits.scalar.Pair;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+
+/**
+ * Records the edges going along calls, see CC 2010 paper by Naeem, Lhotak and
+ * Rodriguez. For every start point and fact at the start point, the call
+ * sites and the facts at the call sites are stored. A reverse index from call
+ * sites to the entries mentioning them allows expired nodes to be removed
+ * without scanning the whole table.
+ *
+ * Reads return immutable snapshots that remain valid while the table is
+ * modified, so callers can iterate over them after releasing the lock. A
+ * snapshot is only rebuilt on the first read after a modification.
+ *
+ * This class is not thread-safe; callers must synchronize on the instance.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ */
+public class IncomingEdges<N,D> {
+
+	//start point, fact at start point -> call site -> facts at call site
+	private final Table<N,D,CallSites<N,D>> table = HashBasedTable.create();
+
+	//call site -> (start point, fact at start point) pairs it appears in
+	private final Map<N,Set<Pair<N,D>>> callSiteIndex = new HashMap<N,Set<Pair<N,D>>>();
+
+	/**
+	 * Records that the given call site with the given fact leads to the given
+	 * start point with the given fact
+	 * @param sP The start point of the callee
+	 * @param d3 The fact at the start point
+	 * @param callSite The call site
+	 * @param d2 The fact at the call site
+	 */
+	public void addIncoming(N sP, D d3, N callSite, D d2) {
+		CallSites<N,D> summaries = table.get(sP, d3);
+		if(summaries==null) {
+			summaries = new CallSites<N,D>();
+			table.put(sP, d3, summaries);
+		}
+		Set<D> set = summaries.callSites.get(callSite);
+		if(set==null) {
+			set = new HashSet<D>();
+			summaries.callSites.put(callSite,set);
+
+			Set<Pair<N,D>> keys = callSiteIndex.get(callSite);
+			if (keys == null) {
+				keys = new HashSet<Pair<N,D>>();
+				callSiteIndex.put(callSite, keys);
+			}
+			keys.add(new Pair<N,D>(sP, d3));
+		}
+		if (set.add(d2))
+			summaries.snapshot = null;
+	}
+
+	/**
+	 * Gets the call sites leading to the given start point with the given fact
+	 * @param sP The start point of the callee
+	 * @param d1 The fact at the start point
+	 * @return A mapping from call sites to the facts at the call sites. The
+	 * returned set is an immutable snapshot.
+	 */
+	public Set<Entry<N, Set<D>>> incoming(N sP, D d1) {
+		CallSites<N,D> map = table.get(sP, d1);
+		if(map==null) return Collections.emptySet();
+		return map.snapshot();
+	}
+
+	/**
+	 * Removes all entries for which one of the given nodes is either the start
+	 * point or the call site. The effort is proportional to the number of
+	 * entries removed.
+	 * @param nodes The nodes to remove
+	 */
+	public void removeNodes(Collection<N> nodes) {
+		for (N n : nodes) {
+			// Entries at this start point
+			Map<D, CallSites<N,D>> row = table.row(n);
+			if (!row.isEmpty()) {
+				for (Entry<D, CallSites<N,D>> entry : row.entrySet())
+					for (N callSite : entry.getValue().callSites.keySet()) {
+						Set<Pair<N,D>> keys = callSiteIndex.get(callSite);
+						if (keys != null)
+							keys.remove(new Pair<N,D>(n, entry.getKey()));
+					}
+				row.clear();
+			}
+
+			// Entries with this call site
+			Set<Pair<N,D>> keys = callSiteIndex.remove(n);
+			if (keys != null)
+				for (Pair<N,D> key : keys) {
+					CallSites<N,D> callSites = table.get(key.getO1(), key.getO2());
+					if (callSites == null)
+						continue;
+					callSites.callSites.remove(n);
+					callSites.snapshot = null;
+					if (callSites.callSites.isEmpty())
+						table.remove(key.getO1(), key.getO2());
+				}
+		}
+	}
+
+	/**
+	 * Gets all entries of this table
+	 * @return A set of cells mapping start points and facts to the call sites
+	 * and their facts. The returned set is a snapshot.
+	 */
+	public Set<Cell<N, D, Map<N, Set<D>>>> cellSet() {
+		Set<Cell<N, D, Map<N, Set<D>>>> res = new HashSet<Cell<N, D, Map<N, Set<D>>>>(table.size());
+		for (Cell<N, D, CallSites<N,D>> cell : table.cellSet()) {
+			Map<N, Set<D>> callSites = new HashMap<N, Set<D>>();
+			for (Entry<N, Set<D>> entry : cell.getValue().snapshot())
+				callSites.put(entry.getKey(), entry.getValue());
+			res.add(Tables.immutableCell(cell.getRowKey(), cell.getColumnKey(), callSites));
+		}
+		return res;
+	}
+
+	/**
+	 * Removes all entries from this table
+	 */
+	public void clear() {
+		table.clear();
+		callSiteIndex.clear();
+	}
+
+	/**
+	 * The call sites leading to a single start point and fact, together with
+	 * an immutable snapshot of them
+	 */
+	private static class CallSites<N,D> {
+
+		private final Map<N, Set<D>> callSites = new HashMap<N, Set<D>>();
+
+		//null if the call sites have been modified since the last read
+		private Set<Entry<N, Set<D>>> snapshot;
+
+		private Set<Entry<N, Set<D>>> snapshot() {
+			if (snapshot == null) {
+				ImmutableMap.Builder<N, Set<D>> builder = ImmutableMap.builder();
+				for (Entry<N, Set<D>> entry : callSites.entrySet())
+					builder.put(entry.getKey(), ImmutableSet.copyOf(entry.getValue()));
+				snapshot = builder.build().entrySet();
+			}
+			return snapshot;
+		}
+
+	}
+
+}
@@ -24,7 +24,7 @@ import com.google.common.collect.Table.Cell;
  * elements from the list through three different indices.
  */
 @ThreadSafe
-public class JumpFunctions<N,D,L> {
+public class JumpFunctions<N,D,L> implements IJumpFunctions<N,D,L> {
 	
 	/**
 	 * mapping from target node and value to a list of all source values and associated functions
@@ -92,6 +92,22 @@ public class JumpFunctions<N,D,L> {
 		table.put(sourceVal, targetVal, function);
 	}
 	
+	/**
+	 * Atomically joins the given function with the jump function currently
+	 * recorded for the given edge (all-top if there is none) and stores the
+	 * result if it differs from the previous function.
+	 * @return The new jump function if it has changed, otherwise null
+	 */
+	public synchronized EdgeFunction<L> joinFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function) {
+		EdgeFunction<L> jumpFnE = reverseLookup(target, targetVal).get(sourceVal);
+		if(jumpFnE==null) jumpFnE = allTop; //JumpFn is initialized to all-top (see line [2] in SRH96 paper)
+		EdgeFunction<L> fPrime = jumpFnE.joinWith(function);
+		if (fPrime.equalTo(jumpFnE))
+			return null;
+		addFunction(sourceVal, target, targetVal, fPrime);
+		return fPrime;
+	}
+
 	/**
 	 * Removes a jump function. The source statement is implicit.
 	 * @see PathEdge
@@ -109,7 +125,7 @@ public class JumpFunctions<N,D,L> {
 		if (sourceValToFunc.remove(sourceVal) == null)
 			return false;
 		if (sourceValToFunc.isEmpty())
-			nonEmptyReverseLookup.remove(targetVal, targetVal);
+			nonEmptyReverseLookup.remove(target, targetVal);
 		
 		Map<D, EdgeFunction<L>> targetValToFunc = nonEmptyForwardLookup.get(sourceVal, target);
 		if (targetValToFunc == null)
@@ -130,6 +146,18 @@ public class JumpFunctions<N,D,L> {
 		return true;
 	}
 
+	/**
+	 * Atomically removes all jump functions for the given source value and
+	 * target statement.
+	 * @return A mapping from target values to the removed functions
+	 */
+	public synchronized Map<D,EdgeFunction<L>> removeFunctions(D sourceVal, N target) {
+		Map<D,EdgeFunction<L>> targetDs = new HashMap<D,EdgeFunction<L>>(forwardLookup(sourceVal, target));
+		for (D d : targetDs.keySet())
+			removeFunction(sourceVal, target, d);
+		return targetDs;
+	}
+
 	/**
 	 * Removes all jump function with the given target
 	 * @see target The target for which to remove all jump functions
@@ -265,7 +293,7 @@ public class JumpFunctions<N,D,L> {
 	 * @return The number of distinct source facts
 	 */
 	public int sourceFactCount() {
-		return this.nonEmptyForwardLookup.size();
+		return this.nonEmptyForwardLookup.rowKeySet().size();
 	}
 
 }
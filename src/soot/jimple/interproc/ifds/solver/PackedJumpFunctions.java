@@ -0,0 +1,755 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.DontSynchronize;
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+import soot.jimple.interproc.ifds.utils.DenseIdMap;
+import soot.jimple.interproc.ifds.utils.LongObjectHashMap;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+
+/**
+ * Memory-efficient index over the jump functions. Every node and every fact
+ * is interned to a dense integer id. The jump functions are stored in
+ * primitive open-addressing maps keyed by packed (fact, node) or (node, fact)
+ * longs, each pointing to a row of sorted fact ids with parallel arrays of
+ * the facts and edge functions. This avoids the entry objects and per-row
+ * hash maps of the Guava tables used by {@link JumpFunctions}.
+ *
+ * All functions ending at the same target node are kept in the same stripe,
+ * chosen by the id of the node. Every stripe has its own maps and its own
+ * lock, so threads propagating to different nodes rarely contend. Rows with
+ * up to {@link #COPY_ON_WRITE_LIMIT} entries are never modified in place.
+ * Every change creates a new row, so the maps returned by the lookup methods
+ * for them are immutable snapshots. Larger rows are changed in place and
+ * keep slack capacity, so that filling a row is not quadratic in its size.
+ * Maps on them are unmodifiable, weakly consistent views that lock the
+ * stripe on every access.
+ *
+ * The id of a node is released as soon as the last function ending at the
+ * node has been removed. Fact ids are reference counted by the functions
+ * using them. Ids obtained outside of the lock of a stripe are therefore
+ * checked again once the lock is held.
+ */
+@ThreadSafe
+public class PackedJumpFunctions<N,D,L> implements IJumpFunctions<N,D,L> {
+
+	/**
+	 * Number of stripes, must be a power of two
+	 */
+	private static final int STRIPES = 64;
+
+	/**
+	 * Maximum number of entries of a row that is still copied on write.
+	 * Larger rows are changed in place.
+	 */
+	static final int COPY_ON_WRITE_LIMIT = 8;
+
+	@SynchronizedBy("thread safe data structure, ids are only released under the lock of their stripe")
+	private final DenseIdMap<N> nodeIds = new DenseIdMap<N>(10000);
+
+	@SynchronizedBy("thread safe data structure, reference counted by the functions in all stripes")
+	private final DenseIdMap<D> factIds = new DenseIdMap<D>(10000);
+
+	@SynchronizedBy("every stripe is locked individually")
+	@SuppressWarnings("unchecked")
+	private final Stripe[] stripes = new PackedJumpFunctions.Stripe[STRIPES];
+
+	@DontSynchronize("immutable")
+	private final EdgeFunction<L> allTop;
+
+	public PackedJumpFunctions(EdgeFunction<L> allTop) {
+		this.allTop = allTop;
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe();
+	}
+
+	/**
+	 * Gets the stripe holding all functions that end at the target node with
+	 * the given id
+	 */
+	private Stripe stripeFor(int tgt) {
+		return stripes[tgt & (STRIPES - 1)];
+	}
+
+	/**
+	 * Checks whether the given id obtained at the given generation of the
+	 * given map is still assigned to the given object
+	 */
+	private static <T> boolean isCurrent(DenseIdMap<T> ids, int generation, T obj, int id) {
+		return ids.generation() == generation || ids.getId(obj) == id;
+	}
+
+	@Override
+	public void addFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function) {
+		assert sourceVal!=null;
+		assert target!=null;
+		assert targetVal!=null;
+		assert function!=null;
+
+		//we do not store the default function (all-top)
+		if(function.equalTo(allTop)) return;
+
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int factGen = factIds.generation();
+			int src = factIds.getOrCreateId(sourceVal);
+			int tgt = nodeIds.getOrCreateId(target);
+			int tgtVal = factIds.getOrCreateId(targetVal);
+			Stripe stripe = stripeFor(tgt);
+			synchronized (stripe) {
+				if (isCurrent(nodeIds, nodeGen, target, tgt)
+						&& isCurrent(factIds, factGen, sourceVal, src)
+						&& isCurrent(factIds, factGen, targetVal, tgtVal)
+						&& stripe.put(src, tgt, tgtVal, sourceVal, targetVal, function))
+					return;
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public EdgeFunction<L> joinFunction(D sourceVal, N target, D targetVal, EdgeFunction<L> function) {
+		assert sourceVal!=null;
+		assert target!=null;
+		assert targetVal!=null;
+		assert function!=null;
+
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int factGen = factIds.generation();
+			int src = factIds.getId(sourceVal);
+			int tgt = nodeIds.getId(target);
+			int tgtVal = factIds.getId(targetVal);
+			if (src < 0 || tgt < 0 || tgtVal < 0) {
+				//JumpFn is initialized to all-top, only create ids for functions we store
+				if (allTop.joinWith(function).equalTo(allTop))
+					return null;
+				src = factIds.getOrCreateId(sourceVal);
+				tgt = nodeIds.getOrCreateId(target);
+				tgtVal = factIds.getOrCreateId(targetVal);
+			}
+			Stripe stripe = stripeFor(tgt);
+			synchronized (stripe) {
+				if (!isCurrent(nodeIds, nodeGen, target, tgt)
+						|| !isCurrent(factIds, factGen, sourceVal, src)
+						|| !isCurrent(factIds, factGen, targetVal, tgtVal))
+					continue;
+				EdgeFunction<L> jumpFnE = null;
+				FunctionRow row = stripe.reverse.get(LongObjectHashMap.pack(tgt, tgtVal));
+				if (row != null)
+					jumpFnE = (EdgeFunction<L>) row.get(src);
+				if(jumpFnE==null) jumpFnE = allTop; //JumpFn is initialized to all-top (see line [2] in SRH96 paper)
+				EdgeFunction<L> fPrime = jumpFnE.joinWith(function);
+				if (fPrime.equalTo(jumpFnE))
+					return null;
+				//we do not store the default function (all-top)
+				if (fPrime.equalTo(allTop) || stripe.put(src, tgt, tgtVal, sourceVal, targetVal, fPrime))
+					return fPrime;
+			}
+		}
+	}
+
+	@Override
+	public boolean removeFunction(D sourceVal, N target, D targetVal) {
+		assert sourceVal!=null;
+		assert target!=null;
+		assert targetVal!=null;
+
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int factGen = factIds.generation();
+			int src = factIds.getId(sourceVal);
+			int tgt = nodeIds.getId(target);
+			int tgtVal = factIds.getId(targetVal);
+			if (src < 0 || tgt < 0 || tgtVal < 0)
+				return false;
+			Stripe stripe = stripeFor(tgt);
+			synchronized (stripe) {
+				if (isCurrent(nodeIds, nodeGen, target, tgt)
+						&& isCurrent(factIds, factGen, sourceVal, src)
+						&& isCurrent(factIds, factGen, targetVal, tgtVal))
+					return stripe.remove(src, tgt, tgtVal);
+			}
+		}
+	}
+
+	@Override
+	public Map<D,EdgeFunction<L>> removeFunctions(D sourceVal, N target) {
+		assert sourceVal!=null;
+		assert target!=null;
+
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int factGen = factIds.generation();
+			int src = factIds.getId(sourceVal);
+			int tgt = nodeIds.getId(target);
+			if (src < 0 || tgt < 0)
+				return Collections.emptyMap();
+			Stripe stripe = stripeFor(tgt);
+			synchronized (stripe) {
+				if (!isCurrent(nodeIds, nodeGen, target, tgt)
+						|| !isCurrent(factIds, factGen, sourceVal, src))
+					continue;
+				FunctionRow row = stripe.forward.get(LongObjectHashMap.pack(src, tgt));
+				if (row == null)
+					return Collections.emptyMap();
+				FunctionRow removed = row.snapshot();
+				for (int i = removed.size - 1; i >= 0; i--)
+					stripe.remove(src, tgt, removed.ids[i]);
+				return new RowMap(removed, null);
+			}
+		}
+	}
+
+	@Override
+	public void removeByTarget(N target) {
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int tgt = nodeIds.getId(target);
+			if (tgt < 0)
+				return;
+			Stripe stripe = stripeFor(tgt);
+			synchronized (stripe) {
+				if (!isCurrent(nodeIds, nodeGen, target, tgt))
+					continue;
+				IdSet sources = stripe.sourcesByTarget.get(tgt);
+				if (sources == null)
+					return;
+				for (int src : sources.toArray()) {
+					FunctionRow row = stripe.forward.get(LongObjectHashMap.pack(src, tgt)).snapshot();
+					for (int i = row.size - 1; i >= 0; i--)
+						stripe.remove(src, tgt, row.ids[i]);
+				}
+				return;
+			}
+		}
+	}
+
+	@Override
+	public Map<D,EdgeFunction<L>> reverseLookup(N target, D targetVal) {
+		assert target!=null;
+		assert targetVal!=null;
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int factGen = factIds.generation();
+			int tgt = nodeIds.getId(target);
+			int tgtVal = factIds.getId(targetVal);
+			if (tgt < 0 || tgtVal < 0)
+				return Collections.emptyMap();
+			Stripe stripe = stripeFor(tgt);
+			FunctionRow row;
+			synchronized (stripe) {
+				if (!isCurrent(nodeIds, nodeGen, target, tgt)
+						|| !isCurrent(factIds, factGen, targetVal, tgtVal))
+					continue;
+				row = stripe.reverse.get(LongObjectHashMap.pack(tgt, tgtVal));
+			}
+			if (row == null)
+				return Collections.emptyMap();
+			return new RowMap(row, stripe);
+		}
+	}
+
+	@Override
+	public Map<D,EdgeFunction<L>> forwardLookup(D sourceVal, N target) {
+		assert sourceVal!=null;
+		assert target!=null;
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int factGen = factIds.generation();
+			int src = factIds.getId(sourceVal);
+			int tgt = nodeIds.getId(target);
+			if (src < 0 || tgt < 0)
+				return Collections.emptyMap();
+			Stripe stripe = stripeFor(tgt);
+			FunctionRow row;
+			synchronized (stripe) {
+				if (!isCurrent(nodeIds, nodeGen, target, tgt)
+						|| !isCurrent(factIds, factGen, sourceVal, src))
+					continue;
+				row = stripe.forward.get(LongObjectHashMap.pack(src, tgt));
+			}
+			if (row == null)
+				return Collections.emptyMap();
+			return new RowMap(row, stripe);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Set<Cell<D,D,EdgeFunction<L>>> lookupByTarget(N target) {
+		assert target!=null;
+		while (true) {
+			int nodeGen = nodeIds.generation();
+			int tgt = nodeIds.getId(target);
+			if (tgt < 0)
+				return Collections.emptySet();
+			Stripe stripe = stripeFor(tgt);
+			synchronized (stripe) {
+				if (!isCurrent(nodeIds, nodeGen, target, tgt))
+					continue;
+				IdSet sources = stripe.sourcesByTarget.get(tgt);
+				if (sources == null)
+					return Collections.emptySet();
+				ImmutableSet.Builder<Cell<D,D,EdgeFunction<L>>> builder = ImmutableSet.builder();
+				for (int i = 0; i < sources.size; i++) {
+					int src = sources.ids[i];
+					D sourceVal = factIds.getObject(src);
+					FunctionRow row = stripe.forward.get(LongObjectHashMap.pack(src, tgt));
+					for (int j = 0; j < row.size; j++)
+						builder.add(Tables.immutableCell(sourceVal, (D) row.fact(j),
+								(EdgeFunction<L>) row.function(j)));
+				}
+				return builder.build();
+			}
+		}
+	}
+
+	/**
+	 * Removes all jump functions. This method must not be called while other
+	 * threads access the index.
+	 */
+	@Override
+	public void clear() {
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				stripe.forward.clear();
+				stripe.reverse.clear();
+				stripe.sourcesByTarget.clear();
+			}
+		nodeIds.clear();
+		factIds.clear();
+	}
+
+	@Override
+	public void replaceNode(N oldStmt, N newStmt) {
+		assert oldStmt != null;
+		assert newStmt != null;
+		//all data is keyed by the node id, so we only need to pass it on
+		nodeIds.replace(oldStmt, newStmt);
+	}
+
+	@Override
+	public Table<D, N, Map<D, EdgeFunction<L>>> getAllFunctions() {
+		Table<D, N, Map<D, EdgeFunction<L>>> res = HashBasedTable.create();
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				for (long key : stripe.forward.keys())
+					res.put(factIds.getObject(LongObjectHashMap.high(key)),
+							nodeIds.getObject(LongObjectHashMap.low(key)),
+							new HashMap<D, EdgeFunction<L>>(new RowMap(stripe.forward.get(key).snapshot(), null)));
+			}
+		return res;
+	}
+
+	@Override
+	public Set<N> getTargets() {
+		Set<N> res = new LinkedHashSet<N>();
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				for (long tgt : stripe.sourcesByTarget.keys())
+					res.add(nodeIds.getObject((int) tgt));
+			}
+		return res;
+	}
+
+	@Override
+	public int targetCount() {
+		int res = 0;
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				res += stripe.sourcesByTarget.size();
+			}
+		return res;
+	}
+
+	@Override
+	public int sourceFactCount() {
+		BitSet sources = new BitSet(factIds.size());
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				for (long key : stripe.forward.keys())
+					sources.set(LongObjectHashMap.high(key));
+			}
+		return sources.cardinality();
+	}
+
+	/**
+	 * The jump functions ending at all target nodes that map to the same
+	 * stripe. All accesses must hold the lock on the stripe.
+	 */
+	private class Stripe {
+
+		/**
+		 * mapping from packed (source value, target node) to all target values
+		 * and associated functions
+		 */
+		private final LongObjectHashMap<FunctionRow> forward =
+				new LongObjectHashMap<FunctionRow>(10000 / STRIPES);
+
+		/**
+		 * mapping from packed (target node, target value) to all source values
+		 * and associated functions
+		 */
+		private final LongObjectHashMap<FunctionRow> reverse =
+				new LongObjectHashMap<FunctionRow>(10000 / STRIPES);
+
+		/**
+		 * mapping from target node to the ids of all source values that have
+		 * at least one jump function ending at this node
+		 */
+		private final LongObjectHashMap<IdSet> sourcesByTarget =
+				new LongObjectHashMap<IdSet>(10000 / STRIPES);
+
+		/**
+		 * Adds or replaces a function. New functions retain the ids of their
+		 * source and target values.
+		 * @return False if one of the fact ids has been released in the
+		 * meantime and nothing has been stored, true otherwise
+		 */
+		private boolean put(int src, int tgt, int tgtVal, D sourceVal, D targetVal, Object function) {
+			long fwdKey = LongObjectHashMap.pack(src, tgt);
+			FunctionRow fwdRow = forward.get(fwdKey);
+			if (fwdRow == null || fwdRow.indexOf(tgtVal) < 0) {
+				if (!factIds.retain(src, sourceVal))
+					return false;
+				if (!factIds.retain(tgtVal, targetVal)) {
+					factIds.release(src);
+					return false;
+				}
+			}
+			if (fwdRow == null) {
+				forward.put(fwdKey, new FunctionRow(tgtVal, targetVal, function));
+				IdSet sources = sourcesByTarget.get(tgt);
+				if (sources == null) {
+					sources = new IdSet();
+					sourcesByTarget.put(tgt, sources);
+				}
+				sources.add(src);
+			}
+			else
+				forward.put(fwdKey, fwdRow.with(tgtVal, targetVal, function));
+
+			long revKey = LongObjectHashMap.pack(tgt, tgtVal);
+			FunctionRow revRow = reverse.get(revKey);
+			reverse.put(revKey, revRow == null ? new FunctionRow(src, sourceVal, function)
+					: revRow.with(src, sourceVal, function));
+			return true;
+		}
+
+		/**
+		 * Removes a function and releases the ids of its source and target
+		 * values. The id of the target node is released together with its
+		 * last function.
+		 */
+		private boolean remove(int src, int tgt, int tgtVal) {
+			long fwdKey = LongObjectHashMap.pack(src, tgt);
+			FunctionRow fwdRow = forward.get(fwdKey);
+			if (fwdRow == null || fwdRow.indexOf(tgtVal) < 0)
+				return false;
+			FunctionRow newFwdRow = fwdRow.without(tgtVal);
+			if (newFwdRow == null) {
+				forward.remove(fwdKey);
+				IdSet sources = sourcesByTarget.get(tgt);
+				sources.remove(src);
+				if (sources.size == 0) {
+					sourcesByTarget.remove(tgt);
+					nodeIds.remove(nodeIds.getObject(tgt));
+				}
+			}
+			else
+				forward.put(fwdKey, newFwdRow);
+
+			long revKey = LongObjectHashMap.pack(tgt, tgtVal);
+			FunctionRow newRevRow = reverse.get(revKey).without(src);
+			if (newRevRow == null)
+				reverse.remove(revKey);
+			else
+				reverse.put(revKey, newRevRow);
+
+			factIds.release(src);
+			factIds.release(tgtVal);
+			return true;
+		}
+
+	}
+
+	/**
+	 * Set of ids sorted in ascending order. The set is changed in place and
+	 * keeps slack capacity for new ids.
+	 */
+	private static class IdSet {
+		private int[] ids = new int[4];
+		private int size = 0;
+
+		private void add(int id) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if (pos >= 0)
+				return;
+			pos = -1 - pos;
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+			ids[pos] = id;
+			size++;
+		}
+
+		private void remove(int id) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if (pos < 0)
+				return;
+			System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+			size--;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(ids, size);
+		}
+	}
+
+	/**
+	 * List of fact ids sorted in ascending order together with the fact and
+	 * the edge function associated with each id, stored alternately in one
+	 * array. Rows with up to {@link PackedJumpFunctions#COPY_ON_WRITE_LIMIT}
+	 * entries are immutable, every change returns a copy. Larger rows are
+	 * changed in place and keep slack capacity, they must only be accessed
+	 * under the lock of their stripe. Immutable rows never have more capacity
+	 * than the limit, rows that are changed in place always have more.
+	 */
+	private static class FunctionRow {
+		private final int[] ids;
+		private final Object[] entries;
+		private int size;
+
+		private FunctionRow(int id, Object fact, Object function) {
+			this(1);
+			set(0, id, fact, function);
+			size = 1;
+		}
+
+		private FunctionRow(int capacity) {
+			this.ids = new int[capacity];
+			this.entries = new Object[2 * capacity];
+		}
+
+		private boolean isInPlace() {
+			return ids.length > COPY_ON_WRITE_LIMIT;
+		}
+
+		private int indexOf(int id) {
+			return Arrays.binarySearch(ids, 0, size, id);
+		}
+
+		private Object fact(int pos) {
+			return entries[2 * pos];
+		}
+
+		private Object function(int pos) {
+			return entries[2 * pos + 1];
+		}
+
+		private Object get(int id) {
+			int pos = indexOf(id);
+			return pos < 0 ? null : function(pos);
+		}
+
+		private void set(int pos, int id, Object fact, Object function) {
+			ids[pos] = id;
+			entries[2 * pos] = fact;
+			entries[2 * pos + 1] = function;
+		}
+
+		private void copy(FunctionRow from, int fromPos, int toPos, int length) {
+			System.arraycopy(from.ids, fromPos, ids, toPos, length);
+			System.arraycopy(from.entries, 2 * fromPos, entries, 2 * toPos, 2 * length);
+		}
+
+		/**
+		 * Gets a row with the given entry added or replaced. This is either
+		 * this row changed in place or a copy.
+		 */
+		private FunctionRow with(int id, Object fact, Object function) {
+			int pos = indexOf(id);
+			FunctionRow res = this;
+			if (pos >= 0) {
+				if (!isInPlace()) {
+					res = new FunctionRow(size);
+					res.copy(this, 0, 0, size);
+					res.size = size;
+				}
+				res.entries[2 * pos + 1] = function;
+				return res;
+			}
+			pos = -1 - pos;
+			if (!isInPlace() || size == ids.length) {
+				//rows beyond the limit switch to in-place changes with slack capacity
+				res = new FunctionRow(size < COPY_ON_WRITE_LIMIT ? size + 1 : 2 * (size + 1));
+				res.copy(this, 0, 0, pos);
+			}
+			res.copy(this, pos, pos + 1, size - pos);
+			res.set(pos, id, fact, function);
+			res.size = size + 1;
+			return res;
+		}
+
+		/**
+		 * Gets a row without the given id, or null if the row would be empty.
+		 * This is either this row changed in place or a copy.
+		 */
+		private FunctionRow without(int id) {
+			int pos = indexOf(id);
+			if (pos < 0)
+				return this;
+			if (size == 1)
+				return null;
+			FunctionRow res = this;
+			if (!isInPlace()) {
+				res = new FunctionRow(size - 1);
+				res.copy(this, 0, 0, pos);
+			}
+			res.copy(this, pos + 1, pos, size - pos - 1);
+			res.size = size - 1;
+			if (res == this)
+				set(size, 0, null, null);
+			return res;
+		}
+
+		/**
+		 * Gets a copy of this row that is not changed any more. The copy must
+		 * not be stored in a stripe.
+		 */
+		private FunctionRow snapshot() {
+			if (!isInPlace())
+				return this;
+			FunctionRow res = new FunctionRow(size);
+			res.copy(this, 0, 0, size);
+			res.size = size;
+			return res;
+		}
+	}
+
+	/**
+	 * Read-only map view on a function row. Rows that are changed in place
+	 * are only accessed under the lock of their stripe.
+	 */
+	private class RowMap extends AbstractMap<D,EdgeFunction<L>> {
+		private final FunctionRow row;
+
+		/**
+		 * The lock guarding the row if it is changed in place, otherwise null
+		 */
+		private final Object lock;
+
+		/**
+		 * Creates a view on the given row
+		 * @param row The row
+		 * @param lock The lock of the stripe holding the row, or null if the
+		 * row is a snapshot
+		 */
+		private RowMap(FunctionRow row, Object lock) {
+			this.row = row;
+			this.lock = row.isInPlace() ? lock : null;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public EdgeFunction<L> get(Object key) {
+			int id = factIds.getId((D) key);
+			if (id < 0)
+				return null;
+			if (lock == null)
+				return (EdgeFunction<L>) lookup(id, key);
+			synchronized (lock) {
+				return (EdgeFunction<L>) lookup(id, key);
+			}
+		}
+
+		/**
+		 * Ids might have been reassigned since the row was replaced, so the
+		 * fact is compared as well
+		 */
+		private Object lookup(int id, Object key) {
+			int pos = row.indexOf(id);
+			return pos >= 0 && row.fact(pos).equals(key) ? row.function(pos) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public int size() {
+			if (lock == null)
+				return row.size;
+			synchronized (lock) {
+				return row.size;
+			}
+		}
+
+		@Override
+		public Set<Entry<D,EdgeFunction<L>>> entrySet() {
+			return new AbstractSet<Entry<D,EdgeFunction<L>>>() {
+
+				@Override
+				public Iterator<Entry<D,EdgeFunction<L>>> iterator() {
+					final FunctionRow snapshot;
+					if (lock == null)
+						snapshot = row;
+					else
+						synchronized (lock) {
+							snapshot = row.snapshot();
+						}
+					return new Iterator<Entry<D,EdgeFunction<L>>>() {
+						private int pos = 0;
+
+						@Override
+						public boolean hasNext() {
+							return pos < snapshot.size;
+						}
+
+						@Override
+						@SuppressWarnings("unchecked")
+						public Entry<D,EdgeFunction<L>> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							Entry<D,EdgeFunction<L>> entry = new SimpleImmutableEntry<D,EdgeFunction<L>>
+								((D) snapshot.fact(pos), (EdgeFunction<L>) snapshot.function(pos));
+							pos++;
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return RowMap.this.size();
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import soot.jimple.interproc.ifds.EdgeFunction;
+
+/**
+ * Encodes the objects referenced by the state of an {@link IDESolver} so that
+ * the state can be written to disk and restored in another process. Every
+ * distinct node, fact, value and edge function is encoded only once per
+ * snapshot; the solver state itself refers to them by index.
+ *
+ * Encodings must be based on identifiers that are stable across processes,
+ * e.g. method signatures and statement indices instead of object identities.
+ * A codec instance may keep state while writing or reading a single
+ * snapshot, so a new instance should be used for every snapshot.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <V> The type of values to be computed along flow edges.
+ */
+public interface SolverStateCodec<N,D,V> {
+
+	/**
+	 * Writes a node of the interprocedural control-flow graph
+	 */
+	public void writeNode(N n, DataOutput out) throws IOException;
+
+	/**
+	 * Reads a node of the interprocedural control-flow graph
+	 * @return The node or null if it does not exist in the current program
+	 */
+	public N readNode(DataInput in) throws IOException;
+
+	/**
+	 * Writes a data-flow fact
+	 */
+	public void writeFact(D d, DataOutput out) throws IOException;
+
+	/**
+	 * Reads a data-flow fact
+	 * @return The fact or null if it cannot be resolved in the current program
+	 */
+	public D readFact(DataInput in) throws IOException;
+
+	/**
+	 * Writes a value computed in phase II
+	 */
+	public void writeValue(V v, DataOutput out) throws IOException;
+
+	/**
+	 * Reads a value computed in phase II
+	 */
+	public V readValue(DataInput in) throws IOException;
+
+	/**
+	 * Writes an edge function
+	 */
+	public void writeEdgeFunction(EdgeFunction<V> f, DataOutput out) throws IOException;
+
+	/**
+	 * Reads an edge function
+	 */
+	public EdgeFunction<V> readEdgeFunction(DataInput in) throws IOException;
+
+}
@@ -0,0 +1,330 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.jimple.interproc.ifds.utils.DenseIdMap;
+
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+
+/**
+ * Writes and reads the state of an {@link IDESolver} in a compact binary
+ * format. A snapshot starts with tables of all distinct nodes, facts, values
+ * and edge functions, each entry encoded once by a {@link SolverStateCodec}.
+ * The jump functions, summary functions, end summaries, incoming edges and
+ * values then only refer to these entries by variable-length indices.
+ * Snapshots are written and read as streams, so they are never held in
+ * memory as a whole.
+ *
+ * This class is not thread-safe. The solver must not run while its state is
+ * being written or read.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <V> The type of values to be computed along flow edges.
+ */
+class SolverStateIO<N,D,V> {
+
+	private static final int MAGIC = 0x49444553;		// "IDES"
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final SolverStateCodec<N,D,V> codec;
+
+	private final DenseIdMap<N> nodes = new DenseIdMap<N>(10000);
+	private final DenseIdMap<D> facts = new DenseIdMap<D>(10000);
+	private final DenseIdMap<V> values = new DenseIdMap<V>();
+	private final DenseIdMap<EdgeFunction<V>> functions = new DenseIdMap<EdgeFunction<V>>();
+
+	private List<N> nodeList;
+	private List<D> factList;
+	private List<V> valueList;
+	private List<EdgeFunction<V>> functionList;
+
+	/**
+	 * Creates a new instance of the SolverStateIO class
+	 * @param codec The codec for encoding the objects referenced by the state
+	 */
+	SolverStateIO(SolverStateCodec<N,D,V> codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Writes the given solver state to the given stream. The stream is not
+	 * closed.
+	 */
+	void write(OutputStream os, IJumpFunctions<N,D,V> jumpFn,
+			SummaryFunctions<N,D,V> summaryFunctions,
+			EndSummaries<N,D,V> endSummary,
+			IncomingEdges<N,D> incoming,
+			ValueTable<N,D,V> val) throws IOException {
+		Set<Cell<N,D,Table<N,D,EdgeFunction<V>>>> summaryCells = summaryFunctions.cellSet();
+		Table<D,N,Map<D,EdgeFunction<V>>> allFunctions = jumpFn.getAllFunctions();
+
+		// Assign indices to all objects before writing anything so that the
+		// object tables can precede the records referring to them
+		for (Cell<D,N,Map<D,EdgeFunction<V>>> cell : allFunctions.cellSet()) {
+			facts.getOrCreateId(cell.getRowKey());
+			nodes.getOrCreateId(cell.getColumnKey());
+			for (Entry<D,EdgeFunction<V>> entry : cell.getValue().entrySet()) {
+				facts.getOrCreateId(entry.getKey());
+				functions.getOrCreateId(entry.getValue());
+			}
+		}
+		internFunctionTable(summaryCells);
+		internFunctionTable(endSummary.cellSet());
+		for (Cell<N,D,Map<N,Set<D>>> cell : incoming.cellSet()) {
+			nodes.getOrCreateId(cell.getRowKey());
+			facts.getOrCreateId(cell.getColumnKey());
+			for (Entry<N,Set<D>> entry : cell.getValue().entrySet()) {
+				nodes.getOrCreateId(entry.getKey());
+				for (D d : entry.getValue())
+					facts.getOrCreateId(d);
+			}
+		}
+		for (N n : val.rowKeySet()) {
+			nodes.getOrCreateId(n);
+			for (Entry<D,V> entry : val.row(n).entrySet()) {
+				facts.getOrCreateId(entry.getKey());
+				values.getOrCreateId(entry.getValue());
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		// Object tables
+		writeVarInt(out, nodes.size());
+		for (int i = 0; i < nodes.size(); i++)
+			codec.writeNode(nodes.getObject(i), out);
+		writeVarInt(out, facts.size());
+		for (int i = 0; i < facts.size(); i++)
+			codec.writeFact(facts.getObject(i), out);
+		writeVarInt(out, values.size());
+		for (int i = 0; i < values.size(); i++)
+			codec.writeValue(values.getObject(i), out);
+		writeVarInt(out, functions.size());
+		for (int i = 0; i < functions.size(); i++)
+			codec.writeEdgeFunction(functions.getObject(i), out);
+
+		// Jump functions
+		writeVarInt(out, allFunctions.size());
+		for (Cell<D,N,Map<D,EdgeFunction<V>>> cell : allFunctions.cellSet()) {
+			writeVarInt(out, facts.getId(cell.getRowKey()));
+			writeVarInt(out, nodes.getId(cell.getColumnKey()));
+			writeVarInt(out, cell.getValue().size());
+			for (Entry<D,EdgeFunction<V>> entry : cell.getValue().entrySet()) {
+				writeVarInt(out, facts.getId(entry.getKey()));
+				writeVarInt(out, functions.getId(entry.getValue()));
+			}
+		}
+
+		writeFunctionTable(out, summaryCells);
+		writeFunctionTable(out, endSummary.cellSet());
+
+		// Incoming edges
+		writeVarInt(out, incoming.cellSet().size());
+		for (Cell<N,D,Map<N,Set<D>>> cell : incoming.cellSet()) {
+			writeVarInt(out, nodes.getId(cell.getRowKey()));
+			writeVarInt(out, facts.getId(cell.getColumnKey()));
+			writeVarInt(out, cell.getValue().size());
+			for (Entry<N,Set<D>> entry : cell.getValue().entrySet()) {
+				writeVarInt(out, nodes.getId(entry.getKey()));
+				writeVarInt(out, entry.getValue().size());
+				for (D d : entry.getValue())
+					writeVarInt(out, facts.getId(d));
+			}
+		}
+
+		// Values
+		writeVarInt(out, val.rowKeySet().size());
+		for (N n : val.rowKeySet()) {
+			Map<D,V> row = val.row(n);
+			writeVarInt(out, nodes.getId(n));
+			writeVarInt(out, row.size());
+			for (Entry<D,V> entry : row.entrySet()) {
+				writeVarInt(out, facts.getId(entry.getKey()));
+				writeVarInt(out, values.getId(entry.getValue()));
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a solver state from the given stream into the given data
+	 * structures, which must be empty. The stream is not closed.
+	 * @throws IOException If the snapshot is corrupt or refers to nodes or
+	 * facts that do not exist in the current program
+	 */
+	void read(InputStream is, IJumpFunctions<N,D,V> jumpFn,
+			SummaryFunctions<N,D,V> summaryFunctions,
+			EndSummaries<N,D,V> endSummary,
+			IncomingEdges<N,D> incoming,
+			ValueTable<N,D,V> val) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a solver snapshot");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported snapshot version " + version);
+
+		// Object tables
+		int size = readVarInt(in);
+		nodeList = new ArrayList<N>(size);
+		for (int i = 0; i < size; i++) {
+			N n = codec.readNode(in);
+			if (n == null)
+				throw new IOException("Snapshot refers to a statement that no longer exists");
+			nodeList.add(n);
+		}
+		size = readVarInt(in);
+		factList = new ArrayList<D>(size);
+		for (int i = 0; i < size; i++) {
+			D d = codec.readFact(in);
+			if (d == null)
+				throw new IOException("Snapshot refers to a fact that no longer exists");
+			factList.add(d);
+		}
+		size = readVarInt(in);
+		valueList = new ArrayList<V>(size);
+		for (int i = 0; i < size; i++)
+			valueList.add(codec.readValue(in));
+		size = readVarInt(in);
+		functionList = new ArrayList<EdgeFunction<V>>(size);
+		for (int i = 0; i < size; i++)
+			functionList.add(codec.readEdgeFunction(in));
+
+		// Jump functions
+		size = readVarInt(in);
+		for (int i = 0; i < size; i++) {
+			D sourceVal = readFact(in);
+			N target = readNode(in);
+			int count = readVarInt(in);
+			for (int j = 0; j < count; j++)
+				jumpFn.addFunction(sourceVal, target, readFact(in), readFunction(in));
+		}
+
+		// Summary functions
+		size = readVarInt(in);
+		for (int i = 0; i < size; i++) {
+			N callSite = readNode(in);
+			D sourceVal = readFact(in);
+			int count = readVarInt(in);
+			for (int j = 0; j < count; j++)
+				summaryFunctions.insertFunction(callSite, sourceVal, readNode(in),
+						readFact(in), readFunction(in));
+		}
+
+		// End summaries
+		size = readVarInt(in);
+		for (int i = 0; i < size; i++) {
+			N sP = readNode(in);
+			D d1 = readFact(in);
+			int count = readVarInt(in);
+			for (int j = 0; j < count; j++)
+				endSummary.addEndSummary(sP, d1, readNode(in), readFact(in), readFunction(in));
+		}
+
+		// Incoming edges
+		size = readVarInt(in);
+		for (int i = 0; i < size; i++) {
+			N sP = readNode(in);
+			D d3 = readFact(in);
+			int count = readVarInt(in);
+			for (int j = 0; j < count; j++) {
+				N callSite = readNode(in);
+				int factCount = readVarInt(in);
+				for (int k = 0; k < factCount; k++)
+					incoming.addIncoming(sP, d3, callSite, readFact(in));
+			}
+		}
+
+		// Values
+		size = readVarInt(in);
+		for (int i = 0; i < size; i++) {
+			N n = readNode(in);
+			int count = readVarInt(in);
+			for (int j = 0; j < count; j++)
+				val.put(n, readFact(in), lookup(valueList, readVarInt(in)));
+		}
+	}
+
+	private void internFunctionTable(Set<Cell<N,D,Table<N,D,EdgeFunction<V>>>> table) {
+		for (Cell<N,D,Table<N,D,EdgeFunction<V>>> cell : table) {
+			nodes.getOrCreateId(cell.getRowKey());
+			facts.getOrCreateId(cell.getColumnKey());
+			for (Cell<N,D,EdgeFunction<V>> inner : cell.getValue().cellSet()) {
+				nodes.getOrCreateId(inner.getRowKey());
+				facts.getOrCreateId(inner.getColumnKey());
+				functions.getOrCreateId(inner.getValue());
+			}
+		}
+	}
+
+	private void writeFunctionTable(DataOutputStream out,
+			Set<Cell<N,D,Table<N,D,EdgeFunction<V>>>> table) throws IOException {
+		writeVarInt(out, table.size());
+		for (Cell<N,D,Table<N,D,EdgeFunction<V>>> cell : table) {
+			writeVarInt(out, nodes.getId(cell.getRowKey()));
+			writeVarInt(out, facts.getId(cell.getColumnKey()));
+			writeVarInt(out, cell.getValue().size());
+			for (Cell<N,D,EdgeFunction<V>> inner : cell.getValue().cellSet()) {
+				writeVarInt(out, nodes.getId(inner.getRowKey()));
+				writeVarInt(out, facts.getId(inner.getColumnKey()));
+				writeVarInt(out, functions.getId(inner.getValue()));
+			}
+		}
+	}
+
+	private N readNode(DataInputStream in) throws IOException {
+		return lookup(nodeList, readVarInt(in));
+	}
+
+	private D readFact(DataInputStream in) throws IOException {
+		return lookup(factList, readVarInt(in));
+	}
+
+	private EdgeFunction<V> readFunction(DataInputStream in) throws IOException {
+		return lookup(functionList, readVarInt(in));
+	}
+
+	private static <T> T lookup(List<T> list, int idx) throws IOException {
+		if (idx < 0 || idx >= list.size())
+			throw new IOException("Corrupt snapshot, invalid index " + idx);
+		return list.get(idx);
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		assert value >= 0;
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Corrupt snapshot, malformed integer");
+	}
+
+}
@@ -2,8 +2,13 @@ package soot.jimple.interproc.ifds.solver;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import soot.jimple.interproc.ifds.EdgeFunction;
 import soot.jimple.interproc.ifds.SynchronizedBy;
@@ -11,76 +16,258 @@ import soot.jimple.interproc.ifds.ThreadSafe;
 
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.google.common.collect.Table.Cell;
 
 /**
  * A data structure to record summary functions in an indexed fashion, for fast retrieval.
+ *
+ * The functions are sharded by call site. For every call site, source value and
+ * return site, the functions are kept in a leaf that is changed without
+ * locking. Small leaf maps are immutable and replaced by compare-and-set on
+ * the reference of the leaf, so replacing never compares map contents. Once a
+ * leaf map grows beyond {@link #COPY_ON_WRITE_LIMIT} entries, it is replaced
+ * by a concurrent map that is changed in place. This keeps filling a leaf
+ * linear instead of quadratic in its size. Readers never lock and can iterate
+ * over the maps returned by {@link #summariesFor(Object, Object, Object)}
+ * without copying them; large maps are handed out as unmodifiable, weakly
+ * consistent views.
  */
 @ThreadSafe
 public class SummaryFunctions<N,D,V> {
-	
-	@SynchronizedBy("consistent lock on this")
-	protected Table<N,D,Table<N,D,EdgeFunction<V>>> table = HashBasedTable.create();
-	
+
+	/**
+	 * Maximum number of entries of a leaf map that is still copied on write.
+	 * Larger leaf maps are changed in place.
+	 */
+	static final int COPY_ON_WRITE_LIMIT = 8;
+
+	//marks a leaf that has been removed from the index, compared by identity
+	private static final Map<?,?> RETIRED = Collections.unmodifiableMap(new HashMap<Object,Object>());
+
+	//call site -> source value -> return site -> target value -> function
+	@SynchronizedBy("thread safe data structures, leaves replaced by compare-and-set or changed in place")
+	private final ConcurrentMap<N,ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>>> table =
+			new ConcurrentHashMap<N,ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>>>
+				(10000, 0.75f, Runtime.getRuntime().availableProcessors());
+
+	//the function by which a summary function is initialized, see line [4] in SRH96 paper
+	private final EdgeFunction<V> allTop;
+
+	/**
+	 * The summary functions of one call site, source value and return site.
+	 * The referenced map is either immutable and replaced on every change, a
+	 * concurrent map that is changed in place and never replaced, or
+	 * {@link SummaryFunctions#RETIRED} once the leaf has been removed from
+	 * the index.
+	 */
+	private static class Leaf<D,V> extends AtomicReference<Map<D,EdgeFunction<V>>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Leaf() {
+			super(Collections.<D,EdgeFunction<V>>emptyMap());
+		}
+
+		private boolean isRetired() {
+			return get() == RETIRED;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map<D,EdgeFunction<V>> retire() {
+			return getAndSet((Map<D,EdgeFunction<V>>) RETIRED);
+		}
+
+		/**
+		 * Sets the function for the given target value if the leaf still
+		 * holds the given map and, for concurrent maps, the function is still
+		 * the expected one
+		 * @param map The map the caller has read from this leaf
+		 * @param targetVal The target value
+		 * @param expected The function the caller has read for the target
+		 * value, null if there was none
+		 * @param function The new function
+		 * @return True if the function has been set, false if the caller
+		 * must read the leaf again
+		 */
+		private boolean replace(Map<D,EdgeFunction<V>> map, D targetVal,
+				EdgeFunction<V> expected, EdgeFunction<V> function) {
+			if (map instanceof ConcurrentMap) {
+				ConcurrentMap<D,EdgeFunction<V>> functions = (ConcurrentMap<D,EdgeFunction<V>>) map;
+				boolean done = expected == null ? functions.putIfAbsent(targetVal, function) == null
+						: functions.replace(targetVal, expected, function);
+				//a function written after the leaf has been retired is lost
+				return done && get() == map;
+			}
+			return compareAndSet(map, copyAndPut(map, targetVal, function));
+		}
+
+	}
+
+	/**
+	 * Creates a new instance of the SummaryFunctions class
+	 * @param allTop The function by which all summary functions are
+	 * initialized (all-top)
+	 */
+	public SummaryFunctions(EdgeFunction<V> allTop) {
+		this.allTop = allTop;
+	}
+
+	private ConcurrentMap<N,Leaf<D,V>> returnSitesFor(N callSite, D sourceVal, boolean create) {
+		ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>> callSiteMap = table.get(callSite);
+		if (callSiteMap == null) {
+			if (!create)
+				return null;
+			ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>> newMap =
+					new ConcurrentHashMap<D,ConcurrentMap<N,Leaf<D,V>>>(4, 0.75f, 2);
+			callSiteMap = table.putIfAbsent(callSite, newMap);
+			if (callSiteMap == null)
+				callSiteMap = newMap;
+		}
+		ConcurrentMap<N,Leaf<D,V>> retSiteMap = callSiteMap.get(sourceVal);
+		if (retSiteMap == null) {
+			if (!create)
+				return null;
+			ConcurrentMap<N,Leaf<D,V>> newMap = new ConcurrentHashMap<N,Leaf<D,V>>(2, 0.75f, 2);
+			retSiteMap = callSiteMap.putIfAbsent(sourceVal, newMap);
+			if (retSiteMap == null)
+				retSiteMap = newMap;
+		}
+		return retSiteMap;
+	}
+
+	/**
+	 * Gets the leaf for the given return site, creating it if necessary.
+	 * Retired leaves are replaced by new ones.
+	 */
+	private Leaf<D,V> leafFor(ConcurrentMap<N,Leaf<D,V>> retSiteMap, N retSite) {
+		while (true) {
+			Leaf<D,V> leaf = retSiteMap.get(retSite);
+			if (leaf != null && !leaf.isRetired())
+				return leaf;
+			Leaf<D,V> newLeaf = new Leaf<D,V>();
+			if (leaf == null ? retSiteMap.putIfAbsent(retSite, newLeaf) == null
+					: retSiteMap.replace(retSite, leaf, newLeaf))
+				return newLeaf;
+		}
+	}
+
 	/**
 	 * Inserts a summary function.
 	 * @param callSite The call site with which this function is associated.
-	 * @param sourceVal The source value at the call site. 
+	 * @param sourceVal The source value at the call site.
 	 * @param retSite The return site (in the caller) with which this function is associated.
 	 * @param targetVal The target value at the return site.
-	 * @param function The edge function used to compute V-type values from the source node to the target node.  
+	 * @param function The edge function used to compute V-type values from the source node to the target node.
 	 */
-	public synchronized void insertFunction(N callSite,D sourceVal, N retSite,
+	public void insertFunction(N callSite,D sourceVal, N retSite,
 			D targetVal, EdgeFunction<V> function) {
 		assert callSite!=null;
 		assert sourceVal!=null;
 		assert retSite!=null;
 		assert targetVal!=null;
 		assert function!=null;
-		
-		Table<N, D, EdgeFunction<V>> targetAndTargetValToFunction = table.get(callSite,sourceVal);
-		if(targetAndTargetValToFunction==null) {
-			targetAndTargetValToFunction = HashBasedTable.create();
-			table.put(callSite,sourceVal,targetAndTargetValToFunction);
+
+		ConcurrentMap<N,Leaf<D,V>> retSiteMap = returnSitesFor(callSite, sourceVal, true);
+		while (true) {
+			Leaf<D,V> leaf = leafFor(retSiteMap, retSite);
+			Map<D,EdgeFunction<V>> map = leaf.get();
+			if (map == RETIRED)
+				continue;
+			if (leaf.replace(map, targetVal, map.get(targetVal), function))
+				return;
+		}
+	}
+
+	/**
+	 * Atomically joins the given function into the summary function for the
+	 * given call site, source value, return site and target value. Summary
+	 * functions that have not been inserted yet are treated as all-top.
+	 * @param callSite The call site with which this function is associated.
+	 * @param sourceVal The source value at the call site.
+	 * @param retSite The return site (in the caller) with which this function is associated.
+	 * @param targetVal The target value at the return site.
+	 * @param function The edge function to join into the summary function
+	 * @return The new summary function if it has changed, otherwise null
+	 */
+	public EdgeFunction<V> joinAndGetIfChanged(N callSite, D sourceVal, N retSite,
+			D targetVal, EdgeFunction<V> function) {
+		assert callSite!=null;
+		assert sourceVal!=null;
+		assert retSite!=null;
+		assert targetVal!=null;
+		assert function!=null;
+
+		ConcurrentMap<N,Leaf<D,V>> retSiteMap = returnSitesFor(callSite, sourceVal, true);
+		while (true) {
+			Leaf<D,V> leaf = leafFor(retSiteMap, retSite);
+			Map<D,EdgeFunction<V>> map = leaf.get();
+			if (map == RETIRED)
+				continue;
+			EdgeFunction<V> old = map.get(targetVal);
+			EdgeFunction<V> summaryFunction = old == null ? allTop : old;
+			EdgeFunction<V> fPrime = function.joinWith(summaryFunction);
+			if (fPrime.equalTo(summaryFunction))
+				return null;
+			if (leaf.replace(map, targetVal, old, fPrime))
+				return fPrime;
 		}
-		targetAndTargetValToFunction.put(retSite, targetVal, function);
 	}
 
 	/**
 	 * Removes a summary function.
 	 * @param callSite The call site with which this function is associated.
-	 * @param sourceVal The source value at the call site. 
+	 * @param sourceVal The source value at the call site.
 	 * @param retSite The return site (in the caller) with which this function is associated.
 	 * @param targetVal The target value at the return site.
 	 */
-	public synchronized void removeFunction(N callSite,D sourceVal, N retSite, D targetVal) {
+	public void removeFunction(N callSite,D sourceVal, N retSite, D targetVal) {
 		assert callSite!=null;
 		assert sourceVal!=null;
 		assert retSite!=null;
 		assert targetVal!=null;
 
-		Table<N,D, EdgeFunction<V>> targetAndTargetValToFunction = table.get(callSite, sourceVal);
-		if (targetAndTargetValToFunction != null) {
-			targetAndTargetValToFunction.remove(retSite, targetVal);			
+		ConcurrentMap<N,Leaf<D,V>> retSiteMap = returnSitesFor(callSite, sourceVal, false);
+		if (retSiteMap == null)
+			return;
+		Leaf<D,V> leaf = retSiteMap.get(retSite);
+		if (leaf == null)
+			return;
+		while (true) {
+			Map<D,EdgeFunction<V>> map = leaf.get();
+			if (map == RETIRED || !map.containsKey(targetVal))
+				return;
+			if (map instanceof ConcurrentMap) {
+				map.remove(targetVal);
+				return;
+			}
+			if (leaf.compareAndSet(map, copyAndRemove(map, targetVal)))
+				return;
 		}
 	}
-	
+
 	/**
 	 * Retrieves all summary functions for a given call site, source value and
 	 * return site (in the caller).
 	 * The result contains a mapping from target value to associated edge function.
+	 * The result can be iterated safely while other threads insert new
+	 * functions. Small results are immutable snapshots, large ones are
+	 * unmodifiable, weakly consistent views.
 	 */
-	public synchronized Map<D,EdgeFunction<V>> summariesFor(N callSite, D sourceVal, N returnSite) {
+	public Map<D,EdgeFunction<V>> summariesFor(N callSite, D sourceVal, N returnSite) {
 		assert callSite!=null;
 		assert sourceVal!=null;
 		assert returnSite!=null;
 
-		Table<N,D,EdgeFunction<V>> res = table.get(callSite,sourceVal);
-		if(res==null) return Collections.emptyMap();
-		else {
-			return res.row(returnSite);
-		}
+		ConcurrentMap<N,Leaf<D,V>> retSiteMap = returnSitesFor(callSite, sourceVal, false);
+		if (retSiteMap == null)
+			return Collections.emptyMap();
+		Leaf<D,V> leaf = retSiteMap.get(returnSite);
+		if (leaf == null)
+			return Collections.emptyMap();
+		return view(leaf.get());
 	}
-	
+
 	/**
 	 * Removes all summary functions linking the specified call site and fact with
 	 * the given return site.
@@ -91,60 +278,103 @@ public class SummaryFunctions<N,D,V> {
 	 * function has been executed
 	 * @return The number of summary functions that have been deleted
 	 */
-	public synchronized int removeFunctions(N callSite, D sourceVal, N returnSite) {
+	public int removeFunctions(N callSite, D sourceVal, N returnSite) {
 		assert callSite!=null;
 		assert sourceVal!=null;
 		assert returnSite!=null;
 
-		Table<N, D, EdgeFunction<V>> targetAndTargetValToFunction = table.get(callSite,sourceVal);
-		if (targetAndTargetValToFunction == null)
+		ConcurrentMap<N,Leaf<D,V>> retSiteMap = returnSitesFor(callSite, sourceVal, false);
+		if (retSiteMap == null)
 			return 0;
-		
-		int delCnt = 0;
-		Map<D, EdgeFunction<V>> row = targetAndTargetValToFunction.row(returnSite);
-		while (!row.isEmpty()) {
-			targetAndTargetValToFunction.remove(returnSite, row.keySet().iterator().next());
-			delCnt++;
-		}
-		return delCnt;
+		Leaf<D,V> leaf = retSiteMap.remove(returnSite);
+		if (leaf == null)
+			return 0;
+		Map<D,EdgeFunction<V>> old = leaf.retire();
+		return old == RETIRED ? 0 : old.size();
 	}
-	
+
 	/**
 	 * Replaces an old statement object with a new one without impacting
 	 * semantics. This method is intended for graph updates that exchange all
 	 * nodes in the program graph even if they are semantically unchanged.
-	 * You can then use this method to fix the references.
+	 * You can then use this method to fix the references. This method must
+	 * not run concurrently with other modifications.
 	 * @param oldStmt The old statement object to be replaced
 	 * @param newStmt The replacement for the old object
 	 */
 	public void replaceNode(N oldStmt, N newStmt) {
-		Map<D, Table<N, D, EdgeFunction<V>>> addMap = new HashMap<D, Table<N,D,EdgeFunction<V>>>();
-		for (Table.Cell<N, D, Table<N, D, EdgeFunction<V>>> cell : table.cellSet()) {
-			// Update the outer table to have the correct source statement
-			if (cell.getRowKey() == oldStmt) {
-				addMap.put(cell.getColumnKey(), cell.getValue());
+		// Update the outer table to have the correct source statement
+		ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>> callSiteMap = table.remove(oldStmt);
+		if (callSiteMap != null)
+			table.put(newStmt, callSiteMap);
+
+		// Update the inner tables to have the correct target statement
+		for (ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>> sourceMap : table.values())
+			for (ConcurrentMap<N,Leaf<D,V>> retSiteMap : sourceMap.values()) {
+				Leaf<D,V> leaf = retSiteMap.remove(oldStmt);
+				if (leaf != null)
+					retSiteMap.put(newStmt, leaf);
 			}
-			
-			// Update the inner table to have the correct target statement
-			Table<N, D, EdgeFunction<V>> tblInner = cell.getValue();
-			Map<D,EdgeFunction<V>> innerMap = new HashMap<D, EdgeFunction<V>>();
-			for (Entry<D, EdgeFunction<V>> entry : tblInner.row(oldStmt).entrySet())
-				innerMap.put(entry.getKey(), entry.getValue());
-			for (Entry<D,EdgeFunction<V>> entry : innerMap.entrySet()) {
-				tblInner.remove(oldStmt, entry.getKey());
-				tblInner.put(newStmt, entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Gets a snapshot of all summary functions
+	 * @return A set of cells mapping call sites and source values to tables
+	 * of return sites, target values and functions
+	 */
+	public Set<Cell<N,D,Table<N,D,EdgeFunction<V>>>> cellSet() {
+		Set<Cell<N,D,Table<N,D,EdgeFunction<V>>>> res = new HashSet<Cell<N,D,Table<N,D,EdgeFunction<V>>>>();
+		for (Entry<N,ConcurrentMap<D,ConcurrentMap<N,Leaf<D,V>>>> callSiteEntry : table.entrySet())
+			for (Entry<D,ConcurrentMap<N,Leaf<D,V>>> sourceEntry : callSiteEntry.getValue().entrySet()) {
+				Table<N,D,EdgeFunction<V>> functions = HashBasedTable.create();
+				for (Entry<N,Leaf<D,V>> retSiteEntry : sourceEntry.getValue().entrySet())
+					for (Entry<D,EdgeFunction<V>> entry : retSiteEntry.getValue().get().entrySet())
+						functions.put(retSiteEntry.getKey(), entry.getKey(), entry.getValue());
+				if (!functions.isEmpty())
+					res.add(Tables.immutableCell(callSiteEntry.getKey(), sourceEntry.getKey(), functions));
 			}
-		}
-		for (Entry<D, Table<N, D, EdgeFunction<V>>> entry : addMap.entrySet()) {
-			table.remove(oldStmt, entry.getKey());
-			table.put(newStmt, entry.getKey(), entry.getValue());
-		}
+		return res;
 	}
-	
+
 	/**
 	 * Removes all summary functions
 	 */
 	public void clear() {
 		this.table.clear();
 	}
+
+	/**
+	 * Creates a copy of the given immutable map with the given function
+	 * added. If the map is full, a concurrent map is created instead.
+	 */
+	private static <D,V> Map<D,EdgeFunction<V>> copyAndPut(Map<D,EdgeFunction<V>> map,
+			D targetVal, EdgeFunction<V> function) {
+		if (map.size() >= COPY_ON_WRITE_LIMIT && !map.containsKey(targetVal)) {
+			ConcurrentMap<D,EdgeFunction<V>> res = new ConcurrentHashMap<D,EdgeFunction<V>>
+				(4 * COPY_ON_WRITE_LIMIT, 0.75f, 1);
+			res.putAll(map);
+			res.put(targetVal, function);
+			return res;
+		}
+		Map<D,EdgeFunction<V>> res = new HashMap<D,EdgeFunction<V>>(map);
+		res.put(targetVal, function);
+		return Collections.unmodifiableMap(res);
+	}
+
+	private static <D,V> Map<D,EdgeFunction<V>> copyAndRemove(Map<D,EdgeFunction<V>> map, D targetVal) {
+		if (map.size() == 1)
+			return Collections.emptyMap();
+		Map<D,EdgeFunction<V>> res = new HashMap<D,EdgeFunction<V>>(map);
+		res.remove(targetVal);
+		return Collections.unmodifiableMap(res);
+	}
+
+	private static <D,V> Map<D,EdgeFunction<V>> view(Map<D,EdgeFunction<V>> map) {
+		if (map == RETIRED)
+			return Collections.emptyMap();
+		if (map instanceof ConcurrentMap)
+			return Collections.unmodifiableMap(map);
+		return map;
+	}
+
 }
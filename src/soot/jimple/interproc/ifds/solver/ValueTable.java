@@ -0,0 +1,129 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import soot.jimple.interproc.ifds.JoinLattice;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+
+/**
+ * Table storing the values computed in phase II of the IDE algorithm. Each
+ * statement has its own concurrent row, and values are joined into a cell
+ * with a compare-and-set loop, so no thread ever needs to lock the whole
+ * table. The top element of the lattice is never stored.
+ *
+ * @param <N> The type of nodes in the interprocedural control-flow graph.
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <V> The type of values to be computed along flow edges.
+ */
+@ThreadSafe
+public class ValueTable<N,D,V> {
+
+	@SynchronizedBy("thread safe data structure")
+	private final ConcurrentMap<N,ConcurrentMap<D,V>> rows = new ConcurrentHashMap<N,ConcurrentMap<D,V>>
+		(10000, 0.75f, Runtime.getRuntime().availableProcessors());
+
+	private ConcurrentMap<D,V> rowFor(N n) {
+		ConcurrentMap<D,V> row = rows.get(n);
+		if (row == null) {
+			ConcurrentMap<D,V> newRow = new ConcurrentHashMap<D,V>(4, 0.75f, 1);
+			row = rows.putIfAbsent(n, newRow);
+			if (row == null)
+				row = newRow;
+		}
+		return row;
+	}
+
+	/**
+	 * Gets the value for the given statement and fact
+	 * @return The value or null if no value has been stored
+	 */
+	public V get(N n, D d) {
+		Map<D,V> row = rows.get(n);
+		return row == null ? null : row.get(d);
+	}
+
+	/**
+	 * Stores the given value, overwriting any previous value
+	 */
+	public void put(N n, D d, V v) {
+		rowFor(n).put(d, v);
+	}
+
+	/**
+	 * Atomically joins the given value into the cell for the given statement
+	 * and fact. Cells without a value are treated as the top element.
+	 * @param lattice The lattice defining the join operation
+	 * @return The new value of the cell if it has changed, otherwise null
+	 */
+	public V join(N n, D d, V v, JoinLattice<V> lattice) {
+		ConcurrentMap<D,V> row = rowFor(n);
+		V top = lattice.topElement();
+		while (true) {
+			V old = row.get(d);
+			V current = old == null ? top : old;
+			V joined = lattice.join(current, v);
+			if (joined.equals(current))
+				return null;
+			if (old == null) {
+				if (row.putIfAbsent(d, joined) == null)
+					return joined;
+			}
+			else if (row.replace(d, old, joined))
+				return joined;
+		}
+	}
+
+	/**
+	 * Gets a read-only view on all values at the given statement
+	 * @return A mapping from facts to values
+	 */
+	public Map<D,V> row(N n) {
+		Map<D,V> row = rows.get(n);
+		if (row == null)
+			return Collections.emptyMap();
+		return Collections.unmodifiableMap(row);
+	}
+
+	/**
+	 * Removes all values at the given statement
+	 */
+	public void removeRow(N n) {
+		rows.remove(n);
+	}
+
+	/**
+	 * Gets the statements for which values have been stored
+	 */
+	public Set<N> rowKeySet() {
+		return Collections.unmodifiableSet(rows.keySet());
+	}
+
+	/**
+	 * Gets a snapshot of all cells in this table
+	 */
+	public Set<Cell<N,D,V>> cellSet() {
+		Set<Cell<N,D,V>> res = new HashSet<Cell<N,D,V>>();
+		for (Entry<N,ConcurrentMap<D,V>> row : rows.entrySet())
+			for (Entry<D,V> entry : row.getValue().entrySet())
+				res.add(Tables.immutableCell(row.getKey(), entry.getKey(), entry.getValue()));
+		return res;
+	}
+
+	/**
+	 * Removes all values from this table
+	 */
+	public void clear() {
+		rows.clear();
+	}
+
+}
@@ -0,0 +1,126 @@
+package soot.jimple.interproc.ifds.solver;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import soot.jimple.interproc.ifds.DontSynchronize;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+
+/**
+ * Schedules tasks on a {@link ForkJoinPool} without a central broker thread.
+ * Tasks that are scheduled from inside a worker thread are pushed onto that
+ * worker's local deque, idle workers steal from the other deques. Instead of
+ * a worklist monitor, termination is detected by counting the tasks that have
+ * been scheduled but not yet completed: once this number drops to zero, no
+ * task is left that could create new work, so the computation is quiescent.
+ */
+@ThreadSafe
+public class WorkStealingScheduler {
+
+	@DontSynchronize("readonly")
+	private final ForkJoinPool pool;
+
+	//the number of scheduled tasks that have not yet completed
+	@SynchronizedBy("atomic integer")
+	private final AtomicInteger pendingTasks = new AtomicInteger();
+
+	//only used for waking up the thread waiting for quiescence, not per task
+	@SynchronizedBy("consistent lock on field")
+	private final Object quiescenceMonitor = new Object();
+
+	@SynchronizedBy("written by single thread; read afterwards")
+	private volatile Throwable failure = null;
+
+	/**
+	 * Creates a new instance of the WorkStealingScheduler class.
+	 * @param pool The fork/join pool on which to run the tasks
+	 */
+	public WorkStealingScheduler(ForkJoinPool pool) {
+		assert pool != null;
+		this.pool = pool;
+	}
+
+	/**
+	 * Schedules the given task for execution. If the calling thread is a
+	 * worker of this scheduler's pool, the task is pushed onto the worker's
+	 * own deque, otherwise it is submitted to the pool from the outside.
+	 * @param task The task to run
+	 */
+	public void schedule(Runnable task) {
+		pendingTasks.incrementAndGet();
+		ForkJoinTask<?> fjTask = new ScheduledTask(task);
+		if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool)
+			fjTask.fork();
+		else
+			pool.execute(fjTask);
+	}
+
+	/**
+	 * Blocks the calling thread until all scheduled tasks, including the ones
+	 * scheduled by other tasks in the meantime, have completed. If no task has
+	 * been scheduled, this method returns immediately. The scheduler can be
+	 * reused after this method has returned.
+	 */
+	public void awaitQuiescence() {
+		synchronized (quiescenceMonitor) {
+			while (pendingTasks.get() > 0) {
+				try {
+					quiescenceMonitor.wait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		Throwable t = failure;
+		failure = null;
+		if (t != null)
+			throw new RuntimeException("Scheduled task failed", t);
+	}
+
+	/**
+	 * Gets the number of tasks that have been scheduled but not yet completed
+	 * @return The number of pending tasks
+	 */
+	public int getPendingTaskCount() {
+		return pendingTasks.get();
+	}
+
+	private void taskDone() {
+		if (pendingTasks.decrementAndGet() == 0)
+			synchronized (quiescenceMonitor) {
+				quiescenceMonitor.notifyAll();
+			}
+	}
+
+	/**
+	 * Fork/join wrapper around a scheduled task that records its completion
+	 */
+	private class ScheduledTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -2960433262311744931L;
+
+		private final Runnable task;
+
+		public ScheduledTask(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				task.run();
+			}
+			catch (Throwable t) {
+				failure = t;
+			}
+			finally {
+				taskDone();
+			}
+		}
+	}
+
+}
@@ -1,6 +1,9 @@
 package soot.jimple.interproc.ifds.template;
 
+import java.util.Collection;
+
 import soot.Body;
+import soot.SootMethod;
 import soot.Unit;
 import soot.toolkits.graph.DirectedGraph;
 import soot.toolkits.graph.InverseGraph;
@@ -11,6 +14,19 @@ import soot.toolkits.graph.InverseGraph;
  */
 public class BackwardsInterproceduralCFG extends JimpleBasedInterproceduralCFG {
 
+	public BackwardsInterproceduralCFG() {
+		super();
+	}
+
+	/**
+	 * Creates a new backwards program graph by patching a previous one
+	 * @see JimpleBasedInterproceduralCFG#JimpleBasedInterproceduralCFG(JimpleBasedInterproceduralCFG, Collection)
+	 */
+	public BackwardsInterproceduralCFG(BackwardsInterproceduralCFG previous,
+			Collection<SootMethod> changedMethods) {
+		super(previous, changedMethods);
+	}
+
 	@Override
 	protected DirectedGraph<Unit> makeGraph(Body body) {
 		return new InverseGraph<Unit>(super.makeGraph(body));
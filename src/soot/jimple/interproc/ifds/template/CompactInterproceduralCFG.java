@@ -0,0 +1,632 @@
+package soot.jimple.interproc.ifds.template;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+import soot.jimple.interproc.incremental.CFGChangeListener;
+import soot.jimple.interproc.incremental.UpdatableWrapper;
+
+/**
+ * A frozen, compressed representation of a {@link JimpleBasedInterproceduralCFG}.
+ * All nodes and methods are numbered by the id registry of the underlying
+ * graph. Successors, predecessors, return sites, callees, callers, calls
+ * within methods and start points are stored as adjacency arrays in
+ * compressed sparse row format, and the call, exit and start point flags are
+ * stored in bit sets. The structure is built in parallel once and never
+ * modified afterwards, so queries need no locking, never touch the unit
+ * graph caches of the underlying graph and only allocate constant-size views
+ * on the adjacency arrays.
+ *
+ * Queries for nodes or methods that were not part of the graph when it was
+ * built are delegated to the underlying graph without numbering them, as
+ * are all operations that are not on the hot path of the solver, such as
+ * change set computation. Merging wrappers with another graph rebuilds the
+ * snapshot since the wrappers it refers to may change.
+ */
+@ThreadSafe
+public class CompactInterproceduralCFG implements
+		InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> {
+
+	private static final boolean DEBUG = false;
+	private static final int[] EMPTY = new int[0];
+
+	private final JimpleBasedInterproceduralCFG delegate;
+	private final int numThreads;
+
+	@SynchronizedBy("immutable snapshot, replaced only when merging wrappers")
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Creates a compact representation of the given graph using as many
+	 * threads as there are processors
+	 * @param delegate The graph to compress
+	 */
+	public CompactInterproceduralCFG(JimpleBasedInterproceduralCFG delegate) {
+		this(delegate, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a compact representation of the given graph
+	 * @param delegate The graph to compress
+	 * @param numThreads The number of threads to use for building the
+	 * compact representation
+	 */
+	public CompactInterproceduralCFG(JimpleBasedInterproceduralCFG delegate, int numThreads) {
+		assert delegate != null;
+		this.delegate = delegate;
+		this.numThreads = Math.max(1, numThreads);
+		this.snapshot = build();
+	}
+
+	/**
+	 * Gets the graph from which this compact representation was built
+	 * @return The underlying interprocedural control flow graph
+	 */
+	public JimpleBasedInterproceduralCFG getDelegate() {
+		return this.delegate;
+	}
+
+	/**
+	 * Compressed sparse row adjacency: the targets of row i are stored in
+	 * targets[offsets[i]] to targets[offsets[i+1]-1].
+	 */
+	private static class Csr {
+
+		final int[] offsets;
+		final int[] targets;
+
+		Csr(int[][] rows) {
+			offsets = new int[rows.length + 1];
+			int size = 0;
+			for (int i = 0; i < rows.length; i++) {
+				offsets[i] = size;
+				if (rows[i] != null)
+					size += rows[i].length;
+			}
+			offsets[rows.length] = size;
+			targets = new int[size];
+			for (int i = 0; i < rows.length; i++)
+				if (rows[i] != null)
+					System.arraycopy(rows[i], 0, targets, offsets[i], rows[i].length);
+		}
+
+	}
+
+	/**
+	 * The immutable arrays of one build of the graph
+	 */
+	private static class Snapshot {
+
+		int idCount;
+		Object[] objects;
+
+		BitSet nodes;
+		BitSet callStmts;
+		BitSet exitStmts;
+		BitSet startPoints;
+		BitSet methods;
+		BitSet methodsWithStartPoints;
+		int[] methodOf;
+
+		Csr succs;
+		Csr preds;
+		Csr retSites;
+		Csr callees;
+		Csr callers;
+		Csr callsFromWithin;
+		Csr methodStartPoints;
+
+		List<UpdatableWrapper<Unit>> allNodes;
+		Set<UpdatableWrapper<Unit>> allNonCallStartNodes;
+
+	}
+
+	private Snapshot build() {
+		long beforeBuild = System.nanoTime();
+		final List<UpdatableWrapper<Unit>> nodeList = delegate.getAllNodes();
+		final int nodeCount = nodeList.size();
+
+		// Per node data, indexed by position in the node list
+		final int[] nodeIds = new int[nodeCount];
+		final int[] methodIds = new int[nodeCount];
+		final int[][] succRows = new int[nodeCount][];
+		final int[][] predRows = new int[nodeCount][];
+		final int[][] retSiteRows = new int[nodeCount][];
+		final int[][] calleeRows = new int[nodeCount][];
+		final boolean[] isCall = new boolean[nodeCount];
+		final boolean[] isExit = new boolean[nodeCount];
+		final boolean[] isStart = new boolean[nodeCount];
+
+		runParallel(nodeCount, new IndexTask() {
+
+			@Override
+			public void run(int i) {
+				UpdatableWrapper<Unit> n = nodeList.get(i);
+				nodeIds[i] = delegate.getId(n);
+				methodIds[i] = delegate.getId(delegate.getMethodOf(n));
+				succRows[i] = toIds(delegate.getSuccsOf(n));
+				predRows[i] = toIds(delegate.getPredsOf(n));
+				isCall[i] = delegate.isCallStmt(n);
+				isExit[i] = delegate.isExitStmt(n);
+				isStart[i] = delegate.isStartPoint(n);
+				if (isCall[i]) {
+					retSiteRows[i] = toIds(delegate.getReturnSitesOfCallAt(n));
+					calleeRows[i] = toIds(delegate.getCalleesOfCallAt(n));
+				}
+			}
+
+		});
+
+		// Collect the methods containing nodes and the methods being called
+		Set<Integer> methodSet = new LinkedHashSet<Integer>();
+		for (int i = 0; i < nodeCount; i++) {
+			methodSet.add(methodIds[i]);
+			if (calleeRows[i] != null)
+				for (int m : calleeRows[i])
+					methodSet.add(m);
+		}
+		final int[] methods = new int[methodSet.size()];
+		int idx = 0;
+		for (int m : methodSet)
+			methods[idx++] = m;
+
+		// Per method data, indexed by position in the method array
+		final int[][] callerRows = new int[methods.length][];
+		final int[][] callsFromWithinRows = new int[methods.length][];
+		final int[][] startPointRows = new int[methods.length][];
+
+		runParallel(methods.length, new IndexTask() {
+
+			@Override
+			public void run(int i) {
+				UpdatableWrapper<SootMethod> m = delegate.getWrapper(methods[i]);
+				callerRows[i] = toIds(delegate.getCallersOf(m));
+				callsFromWithinRows[i] = toIds(delegate.getCallsFromWithin(m));
+				Set<UpdatableWrapper<Unit>> sps = delegate.getStartPointsOf(m);
+				startPointRows[i] = sps == null ? null : toIds(sps);
+			}
+
+		});
+
+		// Convert everything to id-indexed arrays. All objects referenced by
+		// the graph have been assigned an id by now.
+		Snapshot s = new Snapshot();
+		s.idCount = delegate.getIdCount();
+		s.objects = new Object[s.idCount];
+		for (int i = 0; i < s.idCount; i++)
+			s.objects[i] = delegate.getWrapper(i);
+
+		s.nodes = new BitSet(s.idCount);
+		s.callStmts = new BitSet(s.idCount);
+		s.exitStmts = new BitSet(s.idCount);
+		s.startPoints = new BitSet(s.idCount);
+		s.methods = new BitSet(s.idCount);
+		s.methodsWithStartPoints = new BitSet(s.idCount);
+		s.methodOf = new int[s.idCount];
+		Arrays.fill(s.methodOf, -1);
+
+		int[][] succs = new int[s.idCount][];
+		int[][] preds = new int[s.idCount][];
+		int[][] retSites = new int[s.idCount][];
+		int[][] callees = new int[s.idCount][];
+		List<UpdatableWrapper<Unit>> allNodes = new ArrayList<UpdatableWrapper<Unit>>(nodeCount);
+		Set<UpdatableWrapper<Unit>> allNonCallStartNodes = new LinkedHashSet<UpdatableWrapper<Unit>>(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			int id = nodeIds[i];
+			s.nodes.set(id);
+			s.callStmts.set(id, isCall[i]);
+			s.exitStmts.set(id, isExit[i]);
+			s.startPoints.set(id, isStart[i]);
+			s.methodOf[id] = methodIds[i];
+			succs[id] = succRows[i];
+			preds[id] = predRows[i];
+			retSites[id] = retSiteRows[i];
+			callees[id] = calleeRows[i];
+			allNodes.add(nodeList.get(i));
+			if (!isCall[i] && !isStart[i])
+				allNonCallStartNodes.add(nodeList.get(i));
+		}
+		s.succs = new Csr(succs);
+		s.preds = new Csr(preds);
+		s.retSites = new Csr(retSites);
+		s.callees = new Csr(callees);
+		s.allNodes = Collections.unmodifiableList(allNodes);
+		s.allNonCallStartNodes = Collections.unmodifiableSet(allNonCallStartNodes);
+
+		int[][] callers = new int[s.idCount][];
+		int[][] callsFromWithin = new int[s.idCount][];
+		int[][] methodStartPoints = new int[s.idCount][];
+		for (int i = 0; i < methods.length; i++) {
+			int id = methods[i];
+			callers[id] = callerRows[i];
+			callsFromWithin[id] = callsFromWithinRows[i];
+			methodStartPoints[id] = startPointRows[i];
+			s.methods.set(id);
+			s.methodsWithStartPoints.set(id, startPointRows[i] != null);
+		}
+		s.callers = new Csr(callers);
+		s.callsFromWithin = new Csr(callsFromWithin);
+		s.methodStartPoints = new Csr(methodStartPoints);
+
+		if (DEBUG)
+			System.out.println("Compact ICFG with " + nodeCount + " nodes and " + methods.length
+					+ " methods built in " + (System.nanoTime() - beforeBuild) / 1E9 + " seconds");
+		return s;
+	}
+
+	/**
+	 * Gets the ids of the given wrappers. This is only used while building
+	 * the snapshot and assigns ids to wrappers that have not been numbered
+	 * yet, queries must use {@link #idOf(Snapshot, UpdatableWrapper, BitSet)}.
+	 */
+	private int[] toIds(Collection<? extends UpdatableWrapper<?>> wrappers) {
+		if (wrappers == null || wrappers.isEmpty())
+			return EMPTY;
+		int[] ids = new int[wrappers.size()];
+		int i = 0;
+		for (UpdatableWrapper<?> w : wrappers)
+			ids[i++] = delegate.getId(w);
+		return ids;
+	}
+
+	/**
+	 * A task that is executed for every index of a range
+	 */
+	private interface IndexTask {
+		void run(int i);
+	}
+
+	private void runParallel(int count, final IndexTask task) {
+		if (count == 0)
+			return;
+		int chunkSize = Math.max(64, count / (numThreads * 8));
+		List<Callable<Void>> chunks = new ArrayList<Callable<Void>>(count / chunkSize + 1);
+		for (int start = 0; start < count; start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(count, start + chunkSize);
+			chunks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++)
+						task.run(i);
+					return null;
+				}
+
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (Future<Void> f : pool.invokeAll(chunks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building compact ICFG", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not build compact ICFG", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the id of the given node or method in the snapshot
+	 * @return The id or -1 if the object was not part of the graph when the
+	 * snapshot was built
+	 */
+	private int idOf(Snapshot s, UpdatableWrapper<?> w, BitSet members) {
+		if (w == null)
+			return -1;
+		int id = delegate.lookupId(w);
+		if (id < 0 || id >= s.idCount || s.objects[id] != w)
+			return -1;
+		return members == null || members.get(id) ? id : -1;
+	}
+
+	/**
+	 * Read-only list view on one row of a compressed adjacency
+	 */
+	private static class IdList<X> extends AbstractList<UpdatableWrapper<X>> {
+
+		private final Object[] objects;
+		private final int[] targets;
+		private final int from;
+		private final int size;
+
+		IdList(Object[] objects, Csr csr, int row) {
+			this.objects = objects;
+			this.targets = csr.targets;
+			this.from = csr.offsets[row];
+			this.size = csr.offsets[row + 1] - from;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public UpdatableWrapper<X> get(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Invalid index: " + index);
+			return (UpdatableWrapper<X>) objects[targets[from + index]];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+	/**
+	 * Read-only set view on one row of a compressed adjacency. Rows never
+	 * contain duplicates.
+	 */
+	private static class IdSet<X> extends AbstractSet<UpdatableWrapper<X>> {
+
+		private final IdList<X> list;
+
+		IdSet(Object[] objects, Csr csr, int row) {
+			this.list = new IdList<X>(objects, csr, row);
+		}
+
+		@Override
+		public Iterator<UpdatableWrapper<X>> iterator() {
+			return list.iterator();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return list.contains(o);
+		}
+
+		@Override
+		public int size() {
+			return list.size();
+		}
+
+	}
+
+	private static <X> List<UpdatableWrapper<X>> listOf(Snapshot s, Csr csr, int row) {
+		if (csr.offsets[row] == csr.offsets[row + 1])
+			return Collections.emptyList();
+		return new IdList<X>(s.objects, csr, row);
+	}
+
+	private static <X> Set<UpdatableWrapper<X>> setOf(Snapshot s, Csr csr, int row) {
+		if (csr.offsets[row] == csr.offsets[row + 1])
+			return Collections.emptySet();
+		return new IdSet<X>(s.objects, csr, row);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public UpdatableWrapper<SootMethod> getMethodOf(UpdatableWrapper<Unit> n) {
+		Snapshot s = snapshot;
+		int id = idOf(s, n, s.nodes);
+		if (id < 0)
+			return delegate.getMethodOf(n);
+		return (UpdatableWrapper<SootMethod>) s.objects[s.methodOf[id]];
+	}
+
+	@Override
+	public List<UpdatableWrapper<Unit>> getSuccsOf(UpdatableWrapper<Unit> n) {
+		Snapshot s = snapshot;
+		int id = idOf(s, n, s.nodes);
+		if (id < 0)
+			return delegate.getSuccsOf(n);
+		return listOf(s, s.succs, id);
+	}
+
+	@Override
+	public List<UpdatableWrapper<Unit>> getPredsOf(UpdatableWrapper<Unit> n) {
+		Snapshot s = snapshot;
+		int id = idOf(s, n, s.nodes);
+		if (id < 0)
+			return delegate.getPredsOf(n);
+		return listOf(s, s.preds, id);
+	}
+
+	@Override
+	public Set<UpdatableWrapper<SootMethod>> getCalleesOfCallAt(UpdatableWrapper<Unit> n) {
+		Snapshot s = snapshot;
+		int id = idOf(s, n, s.callStmts);
+		if (id < 0)
+			return delegate.getCalleesOfCallAt(n);
+		return setOf(s, s.callees, id);
+	}
+
+	@Override
+	public Set<UpdatableWrapper<Unit>> getCallersOf(UpdatableWrapper<SootMethod> m) {
+		Snapshot s = snapshot;
+		int id = idOf(s, m, s.methods);
+		if (id < 0)
+			return delegate.getCallersOf(m);
+		return setOf(s, s.callers, id);
+	}
+
+	@Override
+	public Set<UpdatableWrapper<Unit>> getCallsFromWithin(UpdatableWrapper<SootMethod> m) {
+		Snapshot s = snapshot;
+		int id = idOf(s, m, s.methods);
+		if (id < 0)
+			return delegate.getCallsFromWithin(m);
+		return setOf(s, s.callsFromWithin, id);
+	}
+
+	@Override
+	public Set<UpdatableWrapper<Unit>> getStartPointsOf(UpdatableWrapper<SootMethod> m) {
+		Snapshot s = snapshot;
+		int id = idOf(s, m, s.methods);
+		if (id < 0)
+			return delegate.getStartPointsOf(m);
+		if (!s.methodsWithStartPoints.get(id))
+			return null;
+		return setOf(s, s.methodStartPoints, id);
+	}
+
+	@Override
+	public List<UpdatableWrapper<Unit>> getReturnSitesOfCallAt(UpdatableWrapper<Unit> n) {
+		Snapshot s = snapshot;
+		int id = idOf(s, n, s.callStmts);
+		if (id < 0)
+			return delegate.getReturnSitesOfCallAt(n);
+		return listOf(s, s.retSites, id);
+	}
+
+	@Override
+	public boolean isCallStmt(UpdatableWrapper<Unit> stmt) {
+		Snapshot s = snapshot;
+		int id = idOf(s, stmt, s.nodes);
+		if (id < 0)
+			return delegate.isCallStmt(stmt);
+		return s.callStmts.get(id);
+	}
+
+	@Override
+	public boolean isExitStmt(UpdatableWrapper<Unit> stmt) {
+		Snapshot s = snapshot;
+		int id = idOf(s, stmt, s.nodes);
+		if (id < 0)
+			return delegate.isExitStmt(stmt);
+		return s.exitStmts.get(id);
+	}
+
+	@Override
+	public boolean isStartPoint(UpdatableWrapper<Unit> stmt) {
+		Snapshot s = snapshot;
+		int id = idOf(s, stmt, s.nodes);
+		if (id < 0)
+			return delegate.isStartPoint(stmt);
+		return s.startPoints.get(id);
+	}
+
+	@Override
+	public Set<UpdatableWrapper<Unit>> allNonCallStartNodes() {
+		return snapshot.allNonCallStartNodes;
+	}
+
+	@Override
+	public boolean isFallThroughSuccessor(UpdatableWrapper<Unit> stmt, UpdatableWrapper<Unit> succ) {
+		return delegate.isFallThroughSuccessor(stmt, succ);
+	}
+
+	@Override
+	public boolean isBranchTarget(UpdatableWrapper<Unit> stmt, UpdatableWrapper<Unit> succ) {
+		return delegate.isBranchTarget(stmt, succ);
+	}
+
+	@Override
+	public boolean containsStmt(UpdatableWrapper<Unit> stmt) {
+		Snapshot s = snapshot;
+		return idOf(s, stmt, s.nodes) >= 0;
+	}
+
+	@Override
+	public List<UpdatableWrapper<Unit>> getAllNodes() {
+		return snapshot.allNodes;
+	}
+
+	@Override
+	public void computeCFGChangeset(
+			InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> newCFG,
+			Map<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> expiredEdges,
+			Map<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> newEdges,
+			Set<UpdatableWrapper<Unit>> newNodes,
+			Set<UpdatableWrapper<Unit>> expiredNodes) {
+		delegate.computeCFGChangeset(unwrap(newCFG), expiredEdges, newEdges, newNodes, expiredNodes);
+	}
+
+	@Override
+	public UpdatableWrapper<Unit> findStatement(UpdatableWrapper<SootMethod> oldMethod,
+			UpdatableWrapper<Unit> newStmt) {
+		return delegate.findStatement(oldMethod, newStmt);
+	}
+
+	@Override
+	public UpdatableWrapper<Unit> findStatement(Iterable<UpdatableWrapper<Unit>> oldMethod,
+			UpdatableWrapper<Unit> newStmt) {
+		return delegate.findStatement(oldMethod, newStmt);
+	}
+
+	@Override
+	public <X> UpdatableWrapper<X> wrapWeak(X obj) {
+		return delegate.wrapWeak(obj);
+	}
+
+	@Override
+	public <X> List<UpdatableWrapper<X>> wrapWeak(List<X> obj) {
+		return delegate.wrapWeak(obj);
+	}
+
+	@Override
+	public <X> Set<UpdatableWrapper<X>> wrapWeak(Set<X> obj) {
+		return delegate.wrapWeak(obj);
+	}
+
+	/**
+	 * Merges the wrappers of the underlying graph with the ones of the given
+	 * graph and rebuilds the compact representation afterwards.
+	 */
+	@Override
+	public void mergeWrappers(
+			InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> otherCfg) {
+		delegate.mergeWrappers(unwrap(otherCfg));
+		this.snapshot = build();
+	}
+
+	@Override
+	public UpdatableWrapper<Unit> getLoopStartPointFor(UpdatableWrapper<Unit> stmt) {
+		return delegate.getLoopStartPointFor(stmt);
+	}
+
+	@Override
+	public Set<UpdatableWrapper<Unit>> getExitNodesForReturnSite(UpdatableWrapper<Unit> stmt) {
+		return delegate.getExitNodesForReturnSite(stmt);
+	}
+
+	@Override
+	public void registerListener(CFGChangeListener listener, Object reference) {
+		delegate.registerListener(listener, reference);
+	}
+
+	@Override
+	public void registerListener(CFGChangeListener listener) {
+		delegate.registerListener(listener);
+	}
+
+	@Override
+	public void unregisterListener(CFGChangeListener listener, Object reference) {
+		delegate.unregisterListener(listener, reference);
+	}
+
+	@Override
+	public void unregisterListener(CFGChangeListener listener) {
+		delegate.unregisterListener(listener);
+	}
+
+	private static InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> unwrap
+			(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> cfg) {
+		if (cfg instanceof CompactInterproceduralCFG)
+			return ((CompactInterproceduralCFG) cfg).delegate;
+		return cfg;
+	}
+
+}
@@ -1,6 +1,10 @@
 package soot.jimple.interproc.ifds.template;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -89,6 +93,35 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 				}
 			});
 	
+	@SynchronizedBy("by use of synchronized LoadingCache class")
+	protected final LoadingCache<Body,Map<Unit,Unit>> bodyToLoopHeads =
+			IDESolver.DEFAULT_CACHE_BUILDER.build( new CacheLoader<Body,Map<Unit,Unit>>() {
+				public Map<Unit,Unit> load(Body body) throws Exception {
+					return computeLoopHeads(body);
+				}
+			});
+	
+	@SynchronizedBy("by use of synchronized LoadingCache class")
+	protected final LoadingCache<Body,Set<Unit>> bodyToExitStmts =
+			IDESolver.DEFAULT_CACHE_BUILDER.build( new CacheLoader<Body,Set<Unit>>() {
+				public Set<Unit> load(Body body) throws Exception {
+					return Collections.unmodifiableSet(new LinkedHashSet<Unit>
+							(getOrCreateUnitGraph(body).getTails()));
+				}
+			});
+	
+	@SynchronizedBy("by use of synchronized LoadingCache class")
+	protected final LoadingCache<Unit,Set<Unit>> returnSiteToExitStmts =
+			IDESolver.DEFAULT_CACHE_BUILDER.build( new CacheLoader<Unit,Set<Unit>>() {
+				public Set<Unit> load(Unit u) throws Exception {
+					Set<Unit> res = new LinkedHashSet<Unit>();
+					for (Unit pred : getOrCreateUnitGraph(unitToOwner.get(u)).getPredsOf(u))
+						for (SootMethod callee : unitToCallees.getUnchecked(pred))
+							res.addAll(bodyToExitStmts.getUnchecked(callee.getActiveBody()));
+					return res;
+				}
+			});
+	
 	@SynchronizedBy("by use of synchronized LoadingCache class")
 	protected final LoadingCache<Unit,Set<SootMethod>> unitToCallees =
 			IDESolver.DEFAULT_CACHE_BUILDER.build( new CacheLoader<Unit,Set<SootMethod>>() {
@@ -142,7 +175,7 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 			});
 
 	@DontSynchronize("written by single thread only")
-	protected final SceneDiff sceneDiff = new SceneDiff();
+	protected final SceneDiff sceneDiff;
 	
 	protected final Map<SootClass, List<SootMethod>> applicationMethods = new HashMap<SootClass, List<SootMethod>>();
 	
@@ -152,7 +185,18 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 	 * objects.
 	 */
 	protected boolean afterUpdate = false;
-	
+
+	/**
+	 * Gets the Soot object on which this graph has been built for the given
+	 * wrapper. After an update, this is the previous contents of the wrapper.
+	 * Wrappers created after the update have no previous contents, so their
+	 * current contents are used.
+	 */
+	private <X> X unwrap(UpdatableWrapper<X> wrapper) {
+		return afterUpdate && wrapper.hasPreviousContents()
+				? wrapper.getPreviousContents() : wrapper.getContents();
+	}
+
 	public JimpleBasedInterproceduralCFG() {
 		this(true);
 	}
@@ -165,6 +209,24 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 	 * and then calling the solver's "update" function.
 	 */
 	public JimpleBasedInterproceduralCFG(boolean updatable) {
+		this(new SceneDiff(), updatable);
+	}
+
+	/**
+	 * Creates a new interprocedural program graph that uses scene diff
+	 * information restored from an earlier process via
+	 * {@link SceneDiff#loadState(java.io.DataInput)} instead of rebuilding it
+	 * from the current scene. The next update of a solver using this graph
+	 * thus reports all differences between the program at the time the state
+	 * was saved and the updated program.
+	 * @param restoredSceneDiff The restored scene diff information
+	 */
+	public JimpleBasedInterproceduralCFG(SceneDiff restoredSceneDiff) {
+		this(restoredSceneDiff, false);
+	}
+
+	private JimpleBasedInterproceduralCFG(SceneDiff sceneDiff, boolean buildSceneDiff) {
+		this.sceneDiff = sceneDiff;
 		System.out.println("Obtaining call graph...");
 		cg = Scene.v().getCallGraph();
 		
@@ -189,17 +251,136 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 		}
 		System.out.println("Interprocedural CFG created.");
 
-		if (updatable) {
+		if (buildSceneDiff) {
 			System.out.println("Building scene diff information...");
 			this.sceneDiff.fullBuild();
 			System.out.println("Scene diff information created.");
 		}
 	}
 
+	/**
+	 * Creates a new interprocedural program graph by patching a previous one
+	 * instead of rebuilding it from scratch. Only the bodies of the given
+	 * methods are re-read from the scene. All other methods of the previous
+	 * graph are mapped to their counterparts in the current scene by
+	 * signature. If the classes have been reloaded, the statements of these
+	 * counterparts are taken over in the same order as in the previous
+	 * version. Otherwise, the statements and unit graphs of the previous graph
+	 * are reused. Methods that become reachable through calls in the changed
+	 * methods are added.
+	 * 
+	 * Methods that are no longer reachable from the entry points are kept in
+	 * the patched graph. Apart from these additional methods, the patched
+	 * graph contains the same statements, edges, callers and callees as a
+	 * graph built from scratch.
+	 * 
+	 * The previous graph is left untouched, so it can still serve as the old
+	 * graph in {@link #computeCFGChangeset}. The scene diff information is
+	 * shared with the previous graph and brought up to date when the previous
+	 * graph computes the change set against this one.
+	 * @param previous The program graph before the change
+	 * @param changedMethods The methods that have been added, changed or
+	 * removed since the previous graph was built. Methods are matched with
+	 * their old versions by signature.
+	 */
+	public JimpleBasedInterproceduralCFG(JimpleBasedInterproceduralCFG previous,
+			Collection<SootMethod> changedMethods) {
+		long beforePatch = System.nanoTime();
+		this.cg = Scene.v().getCallGraph();
+		this.sceneDiff = previous.sceneDiff;
+		
+		Set<String> changedSignatures = new HashSet<String>(changedMethods.size());
+		for (SootMethod m : changedMethods)
+			changedSignatures.add(m.getSignature());
+		
+		// Take over all unchanged methods. If a method has been reloaded, its
+		// statements must correspond to the old ones one by one, otherwise it
+		// is treated as changed.
+		Set<SootMethod> knownMethods = new HashSet<SootMethod>();
+		Set<Body> retainedBodies = new HashSet<Body>();
+		List<SootMethod> workList = new ArrayList<SootMethod>();
+		for (List<SootMethod> methods : previous.applicationMethods.values())
+			for (SootMethod oldMethod : methods) {
+				if (changedSignatures.contains(oldMethod.getSignature()))
+					continue;
+				SootMethod m = Scene.v().grabMethod(oldMethod.getSignature());
+				if (m == null || !m.hasActiveBody())
+					continue;
+				
+				Body b = m.getActiveBody();
+				if (oldMethod.hasActiveBody() && oldMethod.getActiveBody() == b)
+					retainedBodies.add(b);
+				else if (!oldMethod.hasActiveBody() || !sameStatements(oldMethod.getActiveBody(), b)) {
+					workList.add(m);
+					continue;
+				}
+				
+				knownMethods.add(m);
+				for (Unit unit : b.getUnits())
+					unitToOwner.put(unit, b);
+				Utils.addElementToMapList(this.applicationMethods, m.getDeclaringClass(), m);
+			}
+		
+		// Unit graphs, loop heads and exit statements of bodies that have not
+		// been reloaded are still valid. Return sites are not taken over as
+		// their callees may have changed.
+		for (Entry<Body, DirectedGraph<Unit>> entry : previous.bodyToUnitGraph.asMap().entrySet())
+			if (retainedBodies.contains(entry.getKey()))
+				this.bodyToUnitGraph.put(entry.getKey(), entry.getValue());
+		for (Entry<Body, Map<Unit, Unit>> entry : previous.bodyToLoopHeads.asMap().entrySet())
+			if (retainedBodies.contains(entry.getKey()))
+				this.bodyToLoopHeads.put(entry.getKey(), entry.getValue());
+		for (Entry<Body, Set<Unit>> entry : previous.bodyToExitStmts.asMap().entrySet())
+			if (retainedBodies.contains(entry.getKey()))
+				this.bodyToExitStmts.put(entry.getKey(), entry.getValue());
+		
+		// Add the new versions of the changed methods and everything they
+		// make reachable
+		for (String signature : changedSignatures) {
+			SootMethod m = Scene.v().grabMethod(signature);
+			if (m != null && m.hasActiveBody())
+				workList.add(m);
+		}
+		while (!workList.isEmpty()) {
+			SootMethod m = workList.remove(workList.size() - 1);
+			if (!knownMethods.add(m))
+				continue;
+			
+			Body b = m.getActiveBody();
+			for (Unit unit : b.getUnits())
+				unitToOwner.put(unit, b);
+			Utils.addElementToMapList(this.applicationMethods, m.getDeclaringClass(), m);
+			
+			Iterator<Edge> edgeIter = new EdgeFilter().wrap(cg.edgesOutOf(m));
+			while (edgeIter.hasNext()) {
+				SootMethod tgt = edgeIter.next().getTgt().method();
+				if (tgt.hasActiveBody() && !knownMethods.contains(tgt))
+					workList.add(tgt);
+			}
+		}
+		System.out.println("Interprocedural CFG patched for " + changedMethods.size()
+				+ " changed methods in " + (System.nanoTime() - beforePatch) / 1E9 + " seconds");
+	}
+
+	/**
+	 * Checks whether the two given bodies consist of statements of the same
+	 * kinds in the same order, so that the statements of a reloaded method
+	 * can be matched with the old ones by position
+	 */
+	private static boolean sameStatements(Body oldBody, Body newBody) {
+		if (oldBody.getUnits().size() != newBody.getUnits().size())
+			return false;
+		Iterator<Unit> newIter = newBody.getUnits().iterator();
+		for (Unit oldUnit : oldBody.getUnits())
+			if (oldUnit.getClass() != newIter.next().getClass())
+				return false;
+		return true;
+	}
+
 	@Override
 	public UpdatableWrapper<SootMethod> getMethodOf(UpdatableWrapper<Unit> u) {
 		assert u != null;
-		Body body = unitToOwner.get(afterUpdate ? u.getPreviousContents() : u.getContents());
+		Body body = unitToOwner.get(unwrap(u));
 		if (body == null)
 			throw new RuntimeException("Unit has no associated body: " + u);
 		return wrapWeak(body.getMethod());
@@ -208,20 +389,20 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 	@Override
 	public List<UpdatableWrapper<Unit>> getSuccsOf(UpdatableWrapper<Unit> u) {
 		assert u != null;
-		Body body = unitToOwner.get(afterUpdate ? u.getPreviousContents() : u.getContents());
+		Body body = unitToOwner.get(unwrap(u));
 		if (body == null)
 			throw new RuntimeException("Unit has no associated body: " + u);
 		DirectedGraph<Unit> unitGraph = getOrCreateUnitGraph(body);
-		return wrapWeak(unitGraph.getSuccsOf(afterUpdate ? u.getPreviousContents() : u.getContents()));
+		return wrapWeak(unitGraph.getSuccsOf(unwrap(u)));
 	}
 
 	@Override
 	public List<UpdatableWrapper<Unit>> getPredsOf(UpdatableWrapper<Unit> u) {
-		Body body = unitToOwner.get(afterUpdate ? u.getPreviousContents() : u.getContents());
+		Body body = unitToOwner.get(unwrap(u));
 		if (body == null)
 			throw new RuntimeException("Unit has no associated body: " + u);
 		DirectedGraph<Unit> unitGraph = getOrCreateUnitGraph(body);
-		return wrapWeak(unitGraph.getPredsOf(afterUpdate ? u.getPreviousContents() : u.getContents()));
+		return wrapWeak(unitGraph.getPredsOf(unwrap(u)));
 	}
 
 	private DirectedGraph<Unit> getOrCreateUnitGraph(Body body) {
@@ -235,7 +416,7 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 
 	@Override
 	public Set<UpdatableWrapper<SootMethod>> getCalleesOfCallAt(UpdatableWrapper<Unit> u) {
-		return wrapWeak(unitToCallees.getUnchecked(afterUpdate ? u.getPreviousContents() : u.getContents()));
+		return wrapWeak(unitToCallees.getUnchecked(unwrap(u)));
 	}
 
 	@Override
@@ -251,20 +432,19 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 	@Override
 	public boolean isExitStmt(UpdatableWrapper<Unit> u) {
 		if (u == null) return false;
-		Body body = unitToOwner.get(afterUpdate ? u.getPreviousContents() : u.getContents());
+		Body body = unitToOwner.get(unwrap(u));
 		assert body != null;
-		DirectedGraph<Unit> unitGraph = getOrCreateUnitGraph(body);
-		return unitGraph.getTails().contains(u.getContents());
+		return bodyToExitStmts.getUnchecked(body).contains(u.getContents());
 	}
 
 	@Override
 	public Set<UpdatableWrapper<Unit>> getCallersOf(UpdatableWrapper<SootMethod> m) {
-		return wrapWeak(methodToCallers.getUnchecked(afterUpdate ? m.getPreviousContents() : m.getContents()));
+		return wrapWeak(methodToCallers.getUnchecked(unwrap(m)));
 	}
 	
 	@Override
 	public Set<UpdatableWrapper<Unit>> getCallsFromWithin(UpdatableWrapper<SootMethod> m) {
-		return wrapWeak(methodToCallsFromWithin.getUnchecked(afterUpdate ? m.getPreviousContents() : m.getContents()));
+		return wrapWeak(methodToCallsFromWithin.getUnchecked(unwrap(m)));
 	}
 
 	@Override
@@ -279,7 +459,7 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 
 	@Override
 	public boolean isStartPoint(UpdatableWrapper<Unit> u) {
-		return unitToOwner.get(afterUpdate ? u.getPreviousContents() : u.getContents()).getUnits().getFirst()==u.getContents();
+		return unitToOwner.get(unwrap(u)).getUnits().getFirst()==u.getContents();
 	}
 
 	@Override
@@ -313,7 +493,7 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 	
 	@Override
 	public boolean containsStmt(UpdatableWrapper<Unit> stmt) {
-		return unitToOwner.containsKey(afterUpdate ? stmt.getPreviousContents() : stmt.getContents());
+		return unitToOwner.containsKey(unwrap(stmt));
 	}
 
 	@Override
@@ -321,6 +501,17 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 		return wrapWeak(new ArrayList<Unit>(unitToOwner.keySet()));
 	}
 	
+	/**
+	 * Gets the scene diff information this graph uses to compute the changes
+	 * to an updated program. Save it via
+	 * {@link SceneDiff#saveState(java.io.DataOutput)} to continue incremental
+	 * updates in a later process.
+	 * @return The scene diff information of this graph
+	 */
+	public SceneDiff getSceneDiff() {
+		return this.sceneDiff;
+	}
+	
 	@Override
 	public boolean equals(Object another) {
 		if (super.equals(another))
@@ -596,16 +787,22 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 		// changing references inside our analysis
 		Map<Unit, Unit> refChanges = new HashMap<Unit, Unit>();
 
+		// Index the statements of both versions once instead of searching
+		// them over and over again
+		Collection<UpdatableWrapper<Unit>> oldStartPoints =
+				getStartPointsOf(new DefaultUpdatableWrapper<SootMethod>(oldMethod));
+		Collection<UpdatableWrapper<Unit>> newStartPoints =
+				newCFG.getStartPointsOf(new DefaultUpdatableWrapper<SootMethod>(newMethod));
+		StatementMatcher matcher = new StatementMatcher(this, oldStartPoints, newCFG, newStartPoints);
+
 		// For all entry points of the new method, try to find the corresponding
 		// statements in the old method. If we don't a corresponding statement,
 		// we record a NULL value.
-		List<Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>>> workQueue =
-				new ArrayList<Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>>>();
-		List<UpdatableWrapper<Unit>> doneList = new ArrayList<UpdatableWrapper<Unit>>(10000);
-		for (UpdatableWrapper<Unit> spNew : newCFG.getStartPointsOf
-				(new DefaultUpdatableWrapper<SootMethod>(newMethod))) {
-			UpdatableWrapper<Unit> spOld = findStatement
-					(new DefaultUpdatableWrapper<SootMethod>(oldMethod), spNew);
+		Deque<Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>>> workQueue =
+				new ArrayDeque<Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>>>();
+		Set<UpdatableWrapper<Unit>> doneList = new HashSet<UpdatableWrapper<Unit>>();
+		for (UpdatableWrapper<Unit> spNew : newStartPoints) {
+			UpdatableWrapper<Unit> spOld = matcher.findInOld(oldStartPoints, spNew);
 			workQueue.add(new Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>>(spNew, spOld));
 			if (spOld == null)
 				newNodes.add(spNew);
@@ -615,12 +812,11 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 		
 		while (!workQueue.isEmpty()) {
 			// Dequeue the current element and make sure we don't run in circles
-			Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>> ns = workQueue.remove(0);
+			Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>> ns = workQueue.poll();
 			UpdatableWrapper<Unit> newStmt = ns.getO1();
 			UpdatableWrapper<Unit> oldStmt = ns.getO2();
-			if (doneList.contains(newStmt))
+			if (!doneList.add(newStmt))
 				continue;
-			doneList.add(newStmt);
 			
 			// If the current point is unreachable, we skip the remainder of the method
 			if (!newCFG.containsStmt(newStmt))
@@ -629,7 +825,7 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 			// Find the outgoing edges and check whether they are new
 			boolean isNewStmt = newNodes.contains(newStmt);
 			for (UpdatableWrapper<Unit> newSucc : newCFG.getSuccsOf(newStmt)) {
-				UpdatableWrapper<Unit> oldSucc = oldStmt == null ? null : findStatement(getSuccsOf(oldStmt), newSucc);
+				UpdatableWrapper<Unit> oldSucc = oldStmt == null ? null : matcher.findInOld(getSuccsOf(oldStmt), newSucc);
 				if (oldSucc == null || !getSuccsOf(oldStmt).contains(oldSucc) || isNewStmt)
 					Utils.addElementToMapList(newEdges, oldStmt == null ? newStmt : oldStmt,
 							oldSucc == null ? newSucc : oldSucc);
@@ -647,8 +843,8 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 		// For all entry points of the old method, check whether we can reach a
 		// statement that is no longer present in the new method.
 		doneList.clear();
-		for (UpdatableWrapper<Unit> spOld : getStartPointsOf(new DefaultUpdatableWrapper<SootMethod>(oldMethod))) {
-			UpdatableWrapper<Unit> spNew = newCFG.findStatement(new DefaultUpdatableWrapper<SootMethod>(newMethod), spOld);
+		for (UpdatableWrapper<Unit> spOld : oldStartPoints) {
+			UpdatableWrapper<Unit> spNew = matcher.findInNew(newStartPoints, spOld);
 			workQueue.add(new Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>>(spNew, spOld));
 			if (spNew == null)
 				expiredNodes.add(spOld);
@@ -656,12 +852,11 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 
 		while (!workQueue.isEmpty()) {
 			// Dequeue the current element and make sure we don't run in circles
-			Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>> ns = workQueue.remove(0);
+			Pair<UpdatableWrapper<Unit>,UpdatableWrapper<Unit>> ns = workQueue.poll();
 			UpdatableWrapper<Unit> newStmt = ns.getO1();
 			UpdatableWrapper<Unit> oldStmt = ns.getO2();
-			if (doneList.contains(oldStmt))
+			if (!doneList.add(oldStmt))
 				continue;
-			doneList.add(oldStmt);
 
 			// If the current point is unreachable, we skip the remainder of the method
 			if (!containsStmt(oldStmt))
@@ -670,7 +865,7 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 			// Find the outgoing edges and check whether they are expired
 			boolean isExpiredStmt = expiredNodes.contains(oldStmt);
 			for (UpdatableWrapper<Unit> oldSucc : getSuccsOf(oldStmt)) {
-				UpdatableWrapper<Unit> newSucc = newStmt == null ? null : newCFG.findStatement
+				UpdatableWrapper<Unit> newSucc = newStmt == null ? null : matcher.findInNew
 						(newCFG.getSuccsOf(newStmt), oldSucc);
 				if (newSucc == null || !newCFG.getSuccsOf(newStmt).contains(newSucc) || isExpiredStmt)
 					Utils.addElementToMapList(expiredEdges, oldStmt, oldSucc);
@@ -688,13 +883,12 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 		// Make sure that every statement is either added or removed or remapped
 		if (DEBUG) {
 			doneList.clear();
-			List<UpdatableWrapper<Unit>> checkQueue = new ArrayList<UpdatableWrapper<Unit>>();
+			Deque<UpdatableWrapper<Unit>> checkQueue = new ArrayDeque<UpdatableWrapper<Unit>>();
 			checkQueue.addAll(this.getStartPointsOf(wrapWeak(oldMethod)));
 			while (!checkQueue.isEmpty()) {
-				UpdatableWrapper<Unit> curUnit = checkQueue.remove(0);
-				if (doneList.contains(curUnit))
+				UpdatableWrapper<Unit> curUnit = checkQueue.poll();
+				if (!doneList.add(curUnit))
 					continue;
-				doneList.add(curUnit);
 				assert expiredNodes.contains(curUnit)
 						|| newNodes.contains(curUnit)
 						|| refChanges.containsKey(curUnit.getContents());
@@ -716,57 +910,40 @@ public class JimpleBasedInterproceduralCFG extends AbstractUpdatableInterprocedu
 	public UpdatableWrapper<Unit> findStatement
 			(Iterable<UpdatableWrapper<Unit>> oldMethod,
 			UpdatableWrapper<Unit> newStmt) {
-		List<UpdatableWrapper<Unit>> doneList = new ArrayList<UpdatableWrapper<Unit>>();
-		return findStatement(oldMethod, newStmt, doneList);
-	}
-	
-	private UpdatableWrapper<Unit> findStatement
-			(Iterable<UpdatableWrapper<Unit>> oldMethod,
-			UpdatableWrapper<Unit> newStmt,
-			List<UpdatableWrapper<Unit>> doneList) {
-		List<UpdatableWrapper<Unit>> workList = new ArrayList<UpdatableWrapper<Unit>>();
-		for (UpdatableWrapper<Unit> u : oldMethod)
-			workList.add(u);
-		
-		while (!workList.isEmpty()) {
-			UpdatableWrapper<Unit> sp = workList.remove(0);
-			if (doneList.contains(sp))
-				continue;
-			doneList.add(sp);
-			
-			if (sp == newStmt || sp.equals(newStmt) || sp.toString().equals
-					(newStmt.toString()))
-				return sp;
-			workList.addAll(getSuccsOf(sp));
-		}
-		return null;
+		return StatementMatcher.find(this, oldMethod, newStmt);
 	}
 
 	@Override
 	public UpdatableWrapper<Unit> getLoopStartPointFor
 			(UpdatableWrapper<Unit> stmt) {
-		Body body = this.unitToOwner.get(afterUpdate ? stmt.getPreviousContents() : stmt.getContents());
+		Body body = this.unitToOwner.get(unwrap(stmt));
 		assert body != null;
-		LoopNestTree loopTree = new LoopNestTree(body);
-		Unit loopHead = null;
-		for (Loop loop : loopTree) {
-			if (loop.getLoopStatements().contains(stmt.getContents()))
-				loopHead = loop.getHead();
-		}
+		Unit loopHead = bodyToLoopHeads.getUnchecked(body).get(stmt.getContents());
 		return loopHead == null ? null : wrapWeak(loopHead);
 	}
+	
+	/**
+	 * Maps every statement inside a loop of the given body to the head of the
+	 * outermost loop containing it
+	 * @param body The body for which to compute the loop heads
+	 * @return The mapping from statements to loop heads
+	 */
+	protected Map<Unit, Unit> computeLoopHeads(Body body) {
+		Map<Unit, Unit> loopHeads = new HashMap<Unit, Unit>();
+		// The loop nest tree is ordered from inner to outer loops, so outer
+		// loop heads overwrite inner ones
+		for (Loop loop : new LoopNestTree(body))
+			for (Stmt s : loop.getLoopStatements())
+				loopHeads.put(s, loop.getHead());
+		return loopHeads;
+	}
 
 	@Override
 	public Set<UpdatableWrapper<Unit>> getExitNodesForReturnSite
 			(UpdatableWrapper<Unit> stmt) {
-		List<UpdatableWrapper<Unit>> preds = this.getPredsOf(stmt);
-		Set<UpdatableWrapper<Unit>> exitNodes = new HashSet<UpdatableWrapper<Unit>>(preds.size() * 2);
-		for (UpdatableWrapper<Unit> pred : preds)
-			for (UpdatableWrapper<SootMethod> sm : this.getCalleesOfCallAt(pred))
-				if (sm.getContents().hasActiveBody())
-					for (Unit u : sm.getContents().getActiveBody().getUnits())
-						if (this.isExitStmt(this.wrapWeak(u)))
-							exitNodes.add(this.wrapWeak(u));
-		return exitNodes;
+		Unit u = unwrap(stmt);
+		if (!unitToOwner.containsKey(u))
+			throw new RuntimeException("Unit has no associated body: " + stmt);
+		return wrapWeak(returnSiteToExitStmts.getUnchecked(u));
 	}
 }
@@ -0,0 +1,100 @@
+package soot.jimple.interproc.ifds.template;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.ifds.edgefunc.AllBottom;
+import soot.jimple.interproc.ifds.edgefunc.AllBottomInverse;
+import soot.jimple.interproc.ifds.edgefunc.AllTop;
+import soot.jimple.interproc.ifds.edgefunc.AllTopInverse;
+import soot.jimple.interproc.ifds.edgefunc.EdgeIdentity;
+import soot.jimple.interproc.ifds.solver.IFDSSolver;
+import soot.jimple.interproc.ifds.solver.IFDSSolver.BinaryDomain;
+import soot.jimple.interproc.incremental.UpdatableWrapper;
+
+/**
+ * Base class for codecs of IFDS problems on the
+ * {@link JimpleBasedInterproceduralCFG} that are solved using the
+ * {@link IFDSSolver}. The values and edge functions of the IFDS solver are
+ * always the same, so subclasses only need to provide the encoding of facts.
+ *
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ */
+public abstract class JimpleIFDSSolverStateCodec<D> extends JimpleSolverStateCodec<D,BinaryDomain> {
+
+	private static final int EDGE_IDENTITY = 0;
+	private static final int ALL_TOP = 1;
+	private static final int ALL_BOTTOM = 2;
+	private static final int ALL_TOP_INVERSE = 3;
+	private static final int ALL_BOTTOM_INVERSE = 4;
+
+	/**
+	 * Creates a new instance of the JimpleIFDSSolverStateCodec class
+	 * @param icfg The control-flow graph in which to resolve the statements
+	 */
+	public JimpleIFDSSolverStateCodec(InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>> icfg) {
+		super(icfg);
+	}
+
+	@Override
+	public void writeValue(BinaryDomain v, DataOutput out) throws IOException {
+		out.writeByte(v.ordinal());
+	}
+
+	@Override
+	public BinaryDomain readValue(DataInput in) throws IOException {
+		int ordinal = in.readByte();
+		if (ordinal < 0 || ordinal >= BinaryDomain.values().length)
+			throw new IOException("Corrupt snapshot, invalid value " + ordinal);
+		return BinaryDomain.values()[ordinal];
+	}
+
+	@Override
+	public void writeEdgeFunction(EdgeFunction<BinaryDomain> f, DataOutput out) throws IOException {
+		if (f instanceof EdgeIdentity) {
+			out.writeByte(EDGE_IDENTITY);
+			return;
+		}
+
+		if (f instanceof AllTop)
+			out.writeByte(ALL_TOP);
+		else if (f instanceof AllBottom)
+			out.writeByte(ALL_BOTTOM);
+		else if (f instanceof AllTopInverse)
+			out.writeByte(ALL_TOP_INVERSE);
+		else if (f instanceof AllBottomInverse)
+			out.writeByte(ALL_BOTTOM_INVERSE);
+		else
+			throw new IOException("Unsupported edge function " + f);
+
+		// All remaining functions are constant
+		writeValue(f.computeTarget(null), out);
+	}
+
+	@Override
+	public EdgeFunction<BinaryDomain> readEdgeFunction(DataInput in) throws IOException {
+		int type = in.readByte();
+		if (type == EDGE_IDENTITY)
+			return EdgeIdentity.v();
+
+		BinaryDomain v = readValue(in);
+		switch (type) {
+			case ALL_TOP:
+				return new AllTop<BinaryDomain>(v);
+			case ALL_BOTTOM:
+				return new AllBottom<BinaryDomain>(v);
+			case ALL_TOP_INVERSE:
+				return new AllTopInverse<BinaryDomain>(v);
+			case ALL_BOTTOM_INVERSE:
+				return new AllBottomInverse<BinaryDomain>(v);
+			default:
+				throw new IOException("Corrupt snapshot, invalid edge function type " + type);
+		}
+	}
+
+}
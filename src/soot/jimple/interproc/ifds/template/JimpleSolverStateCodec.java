@@ -0,0 +1,127 @@
+package soot.jimple.interproc.ifds.template;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.ifds.solver.SolverStateCodec;
+import soot.jimple.interproc.incremental.BodyFingerprint;
+import soot.jimple.interproc.incremental.UpdatableWrapper;
+
+/**
+ * Base class for {@link SolverStateCodec}s of problems on the
+ * {@link JimpleBasedInterproceduralCFG}. Statements are identified by the
+ * signature of their method and their index in the method body. Every
+ * method is written only once per snapshot together with the fingerprint of its
+ * body, the same one used by the SceneDiff. If a method no longer exists or
+ * its body has changed, its statements cannot be resolved and the snapshot
+ * is rejected.
+ *
+ * Subclasses must provide the encoding of facts, values and edge functions.
+ * They can use {@link #writeMethod(SootMethod, DataOutput)} and
+ * {@link #readMethod(DataInput)} to refer to methods, e.g. to identify locals.
+ * A new instance must be used for every snapshot.
+ *
+ * @param <D> The type of data-flow facts to be computed by the tabulation problem.
+ * @param <V> The type of values to be computed along flow edges.
+ */
+public abstract class JimpleSolverStateCodec<D,V> implements SolverStateCodec<UpdatableWrapper<Unit>,D,V> {
+
+	protected final InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>> icfg;
+
+	private final Map<SootMethod, Integer> methodIds = new HashMap<SootMethod, Integer>();
+	private final Map<SootMethod, Map<Unit, Integer>> unitIndices = new HashMap<SootMethod, Map<Unit, Integer>>();
+	private final List<SootMethod> methods = new ArrayList<SootMethod>();
+	private final Map<SootMethod, List<Unit>> methodUnits = new HashMap<SootMethod, List<Unit>>();
+
+	/**
+	 * Creates a new instance of the JimpleSolverStateCodec class
+	 * @param icfg The control-flow graph in which to resolve the statements
+	 */
+	public JimpleSolverStateCodec(InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>> icfg) {
+		this.icfg = icfg;
+	}
+
+	@Override
+	public void writeNode(UpdatableWrapper<Unit> n, DataOutput out) throws IOException {
+		SootMethod m = icfg.getMethodOf(n).getContents();
+		writeMethod(m, out);
+
+		Map<Unit, Integer> indices = unitIndices.get(m);
+		if (indices == null) {
+			indices = new HashMap<Unit, Integer>();
+			int idx = 0;
+			for (Unit u : m.getActiveBody().getUnits())
+				indices.put(u, idx++);
+			unitIndices.put(m, indices);
+		}
+		Integer idx = indices.get(n.getContents());
+		if (idx == null)
+			throw new IOException("Statement " + n + " not found in method " + m);
+		out.writeInt(idx);
+	}
+
+	@Override
+	public UpdatableWrapper<Unit> readNode(DataInput in) throws IOException {
+		SootMethod m = readMethod(in);
+		int idx = in.readInt();
+		if (m == null)
+			return null;
+
+		List<Unit> units = methodUnits.get(m);
+		if (units == null) {
+			units = new ArrayList<Unit>(m.getActiveBody().getUnits());
+			methodUnits.put(m, units);
+		}
+		if (idx < 0 || idx >= units.size())
+			return null;
+		return icfg.wrapWeak(units.get(idx));
+	}
+
+	/**
+	 * Writes a reference to a method. The signature and body fingerprint of the
+	 * method are only written on its first occurrence.
+	 */
+	protected void writeMethod(SootMethod m, DataOutput out) throws IOException {
+		Integer id = methodIds.get(m);
+		if (id != null) {
+			out.writeInt(id);
+			return;
+		}
+		out.writeInt(methodIds.size());
+		methodIds.put(m, methodIds.size());
+		out.writeUTF(m.getSignature());
+		out.writeLong(BodyFingerprint.of(m));
+	}
+
+	/**
+	 * Reads a reference to a method written by
+	 * {@link #writeMethod(SootMethod, DataOutput)}
+	 * @return The method or null if it no longer exists or its body has
+	 * changed since the snapshot was taken
+	 */
+	protected SootMethod readMethod(DataInput in) throws IOException {
+		int id = in.readInt();
+		if (id < methods.size())
+			return methods.get(id);
+		if (id != methods.size())
+			throw new IOException("Corrupt snapshot, invalid method id " + id);
+
+		String signature = in.readUTF();
+		long hash = in.readLong();
+		SootMethod m = Scene.v().grabMethod(signature);
+		if (m != null && (!m.hasActiveBody() || BodyFingerprint.of(m) != hash))
+			m = null;
+		methods.add(m);
+		return m;
+	}
+
+}
@@ -0,0 +1,270 @@
+package soot.jimple.interproc.ifds.template;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.incremental.UpdatableWrapper;
+
+/**
+ * Matches the statements of two versions of a method. Statements are
+ * considered equivalent if their textual representations are equal. For
+ * every version, the statements reachable from the start points are indexed
+ * by their text, so lookups for statements without a counterpart do not need
+ * to search the method at all. If a statement has several equivalent
+ * counterparts, the one closest to the given start statements is chosen as
+ * before, unless a longest common subsequence alignment of both versions
+ * pairs it with one of them.
+ *
+ * The index reflects the methods at the time the matcher was created, so a
+ * new matcher must be used for every change set computation.
+ */
+class StatementMatcher {
+
+	/**
+	 * The largest number of cells of the dynamic programming table for the
+	 * sequence alignment. Larger methods are matched without an alignment.
+	 */
+	private static final int MAX_ALIGNMENT_CELLS = 1 << 22;
+
+	/**
+	 * The statements of one version of a method indexed by their text
+	 */
+	private static class MethodIndex {
+
+		final InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> cfg;
+		final Map<UpdatableWrapper<Unit>, String> keys = new HashMap<UpdatableWrapper<Unit>, String>();
+		final Map<String, List<UpdatableWrapper<Unit>>> buckets = new HashMap<String, List<UpdatableWrapper<Unit>>>();
+		final List<UpdatableWrapper<Unit>> order = new ArrayList<UpdatableWrapper<Unit>>();
+
+		MethodIndex(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> cfg,
+				Iterable<UpdatableWrapper<Unit>> startPoints) {
+			this.cfg = cfg;
+			ArrayDeque<UpdatableWrapper<Unit>> workList = new ArrayDeque<UpdatableWrapper<Unit>>();
+			for (UpdatableWrapper<Unit> sp : startPoints)
+				workList.add(sp);
+			while (!workList.isEmpty()) {
+				UpdatableWrapper<Unit> u = workList.poll();
+				if (keys.containsKey(u))
+					continue;
+				String key = u.toString();
+				keys.put(u, key);
+				order.add(u);
+				List<UpdatableWrapper<Unit>> bucket = buckets.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<UpdatableWrapper<Unit>>(1);
+					buckets.put(key, bucket);
+				}
+				bucket.add(u);
+				if (cfg.containsStmt(u))
+					workList.addAll(cfg.getSuccsOf(u));
+			}
+		}
+
+		String keyOf(UpdatableWrapper<Unit> u) {
+			String key = keys.get(u);
+			return key == null ? u.toString() : key;
+		}
+
+	}
+
+	private final MethodIndex oldIndex;
+	private final MethodIndex newIndex;
+	private final Map<UpdatableWrapper<Unit>, UpdatableWrapper<Unit>> oldToNew;
+	private final Map<UpdatableWrapper<Unit>, UpdatableWrapper<Unit>> newToOld;
+
+	/**
+	 * Creates a matcher for the given versions of a method
+	 * @param oldCFG The program graph containing the old version
+	 * @param oldStartPoints The start points of the old version
+	 * @param newCFG The program graph containing the new version
+	 * @param newStartPoints The start points of the new version
+	 */
+	StatementMatcher(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> oldCFG,
+			Iterable<UpdatableWrapper<Unit>> oldStartPoints,
+			InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> newCFG,
+			Iterable<UpdatableWrapper<Unit>> newStartPoints) {
+		this.oldIndex = new MethodIndex(oldCFG, oldStartPoints);
+		this.newIndex = new MethodIndex(newCFG, newStartPoints);
+		this.oldToNew = new HashMap<UpdatableWrapper<Unit>, UpdatableWrapper<Unit>>();
+		this.newToOld = new HashMap<UpdatableWrapper<Unit>, UpdatableWrapper<Unit>>();
+		align();
+	}
+
+	/**
+	 * Finds the statement in the old version of the method that corresponds
+	 * to the given statement of the new version
+	 * @param startStmts The statements in the old version from which to start
+	 * searching
+	 * @param newStmt The statement in the new version
+	 * @return The corresponding statement or null if there is none
+	 */
+	UpdatableWrapper<Unit> findInOld(Iterable<UpdatableWrapper<Unit>> startStmts,
+			UpdatableWrapper<Unit> newStmt) {
+		return find(oldIndex, startStmts, newStmt, newIndex.keyOf(newStmt), newToOld.get(newStmt));
+	}
+
+	/**
+	 * Finds the statement in the new version of the method that corresponds
+	 * to the given statement of the old version
+	 * @param startStmts The statements in the new version from which to start
+	 * searching
+	 * @param oldStmt The statement in the old version
+	 * @return The corresponding statement or null if there is none
+	 */
+	UpdatableWrapper<Unit> findInNew(Iterable<UpdatableWrapper<Unit>> startStmts,
+			UpdatableWrapper<Unit> oldStmt) {
+		return find(newIndex, startStmts, oldStmt, oldIndex.keyOf(oldStmt), oldToNew.get(oldStmt));
+	}
+
+	private static UpdatableWrapper<Unit> find(MethodIndex index,
+			Iterable<UpdatableWrapper<Unit>> startStmts,
+			UpdatableWrapper<Unit> stmt, String key,
+			UpdatableWrapper<Unit> aligned) {
+		// The start statements are the closest candidates
+		boolean allIndexed = true;
+		for (UpdatableWrapper<Unit> u : startStmts) {
+			if (u == stmt || u.equals(stmt) || index.keyOf(u).equals(key))
+				return u;
+			allIndexed &= index.keys.containsKey(u);
+		}
+
+		// Every statement reachable from indexed statements is indexed as
+		// well, so if there is no candidate, the search would fail anyway
+		List<UpdatableWrapper<Unit>> bucket = index.buckets.get(key);
+		if (allIndexed && bucket == null)
+			return null;
+		if (bucket == null || !bucket.contains(aligned))
+			aligned = null;
+		return search(index.cfg, index, startStmts, stmt, key, aligned);
+	}
+
+	/**
+	 * Searches the statements reachable from the given start statements in
+	 * breadth-first order for a statement equivalent to the given one
+	 * @param preferred The candidate to return if it is reachable, or null
+	 * to return the first candidate found
+	 */
+	private static UpdatableWrapper<Unit> search
+			(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> cfg,
+			MethodIndex index,
+			Iterable<UpdatableWrapper<Unit>> startStmts,
+			UpdatableWrapper<Unit> stmt, String key,
+			UpdatableWrapper<Unit> preferred) {
+		ArrayDeque<UpdatableWrapper<Unit>> workList = new ArrayDeque<UpdatableWrapper<Unit>>();
+		Set<UpdatableWrapper<Unit>> doneSet = new HashSet<UpdatableWrapper<Unit>>();
+		for (UpdatableWrapper<Unit> u : startStmts)
+			workList.add(u);
+
+		UpdatableWrapper<Unit> firstMatch = null;
+		while (!workList.isEmpty()) {
+			UpdatableWrapper<Unit> sp = workList.poll();
+			if (!doneSet.add(sp))
+				continue;
+
+			if (sp == stmt || sp.equals(stmt)
+					|| (index == null ? sp.toString() : index.keyOf(sp)).equals(key)) {
+				if (preferred == null || sp == preferred)
+					return sp;
+				if (firstMatch == null)
+					firstMatch = sp;
+			}
+			workList.addAll(cfg.getSuccsOf(sp));
+		}
+		return firstMatch;
+	}
+
+	/**
+	 * Finds a statement equivalent to the given one among the statements
+	 * reachable from the given start statements without an index
+	 * @param cfg The program graph containing the start statements
+	 * @param startStmts The statements from which to start searching
+	 * @param stmt The statement for which to look
+	 * @return The closest equivalent statement or null if there is none
+	 */
+	static UpdatableWrapper<Unit> find
+			(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> cfg,
+			Iterable<UpdatableWrapper<Unit>> startStmts,
+			UpdatableWrapper<Unit> stmt) {
+		return search(cfg, null, startStmts, stmt, stmt.toString(), null);
+	}
+
+	/**
+	 * Aligns the statements of both versions by the longest common
+	 * subsequence of their texts. Common prefixes and suffixes are matched
+	 * directly, only the remaining middle part is aligned.
+	 */
+	private void align() {
+		List<UpdatableWrapper<Unit>> oldOrder = oldIndex.order;
+		List<UpdatableWrapper<Unit>> newOrder = newIndex.order;
+		int oldEnd = oldOrder.size();
+		int newEnd = newOrder.size();
+
+		int start = 0;
+		while (start < oldEnd && start < newEnd && keyAt(oldIndex, start).equals(keyAt(newIndex, start))) {
+			pair(oldOrder.get(start), newOrder.get(start));
+			start++;
+		}
+		while (oldEnd > start && newEnd > start
+				&& keyAt(oldIndex, oldEnd - 1).equals(keyAt(newIndex, newEnd - 1))) {
+			oldEnd--;
+			newEnd--;
+			pair(oldOrder.get(oldEnd), newOrder.get(newEnd));
+		}
+
+		int n = oldEnd - start;
+		int m = newEnd - start;
+		if (n == 0 || m == 0 || (long) (n + 1) * (m + 1) > MAX_ALIGNMENT_CELLS)
+			return;
+
+		// lcs[i][j] is the length of the longest common subsequence of the
+		// old statements from i and the new statements from j
+		int[][] lcs = new int[n + 1][m + 1];
+		for (int i = n - 1; i >= 0; i--)
+			for (int j = m - 1; j >= 0; j--)
+				if (keyAt(oldIndex, start + i).equals(keyAt(newIndex, start + j)))
+					lcs[i][j] = lcs[i + 1][j + 1] + 1;
+				else
+					lcs[i][j] = Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			if (keyAt(oldIndex, start + i).equals(keyAt(newIndex, start + j))) {
+				pair(oldOrder.get(start + i), newOrder.get(start + j));
+				i++;
+				j++;
+			}
+			else if (lcs[i + 1][j] >= lcs[i][j + 1])
+				i++;
+			else
+				j++;
+		}
+	}
+
+	private static String keyAt(MethodIndex index, int pos) {
+		return index.keys.get(index.order.get(pos));
+	}
+
+	private void pair(UpdatableWrapper<Unit> oldStmt, UpdatableWrapper<Unit> newStmt) {
+		oldToNew.put(oldStmt, newStmt);
+		newToOld.put(newStmt, oldStmt);
+	}
+
+	/**
+	 * Gets the pairs of statements aligned between both versions
+	 * @return A mapping from statements of the old version to statements of
+	 * the new version
+	 */
+	Map<UpdatableWrapper<Unit>, UpdatableWrapper<Unit>> getAlignment() {
+		return Collections.unmodifiableMap(oldToNew);
+	}
+
+}
@@ -0,0 +1,96 @@
+package soot.jimple.interproc.ifds.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import soot.jimple.interproc.ifds.edgefunc.EdgeIdentity;
+import soot.jimple.interproc.ifds.solver.EndSummaries;
+import soot.jimple.interproc.ifds.solver.IncomingEdges;
+
+/**
+ * Benchmark for removing large numbers of expired nodes from the incoming
+ * edges and end summaries as done in IDESolver.update(). The tables are
+ * filled with synthetic methods, each having a start point, a number of call
+ * sites and an exit statement.
+ */
+public class IFDSTestBulkDeletion {
+
+	private static final int METHODS = 20000;
+	private static final int CALLS_PER_METHOD = 8;
+	private static final int FACTS = 4;
+
+	private static String startPoint(int m) {
+		return "sp" + m;
+	}
+
+	private static String callSite(int m, int c) {
+		return "call" + m + "_" + c;
+	}
+
+	private static String exitStmt(int m) {
+		return "ep" + m;
+	}
+
+	/**
+	 * Every method calls the next CALLS_PER_METHOD methods. For every fact at
+	 * the start point, the same fact holds at the exit statement.
+	 */
+	private void fill(IncomingEdges<String,String> incoming,
+			EndSummaries<String,String,String> endSummary) {
+		for (int m = 0; m < METHODS; m++)
+			for (int d = 0; d < FACTS; d++) {
+				endSummary.addEndSummary(startPoint(m), "d" + d, exitStmt(m), "d" + d,
+						EdgeIdentity.<String>v());
+				for (int c = 0; c < CALLS_PER_METHOD; c++)
+					incoming.addIncoming(startPoint((m + c + 1) % METHODS), "d" + d,
+							callSite(m, c), "d" + d);
+			}
+	}
+
+	@Test
+	public void bulkDeletion() {
+		IncomingEdges<String,String> incoming = new IncomingEdges<String,String>();
+		EndSummaries<String,String,String> endSummary = new EndSummaries<String,String,String>();
+		fill(incoming, endSummary);
+		Assert.assertEquals(METHODS * FACTS, incoming.cellSet().size());
+		Assert.assertEquals(METHODS * FACTS, endSummary.cellSet().size());
+
+		// Delete all call sites and exit statements of every second method,
+		// as if a refactoring had removed their bodies
+		List<String> expiredNodes = new ArrayList<String>();
+		for (int m = 0; m < METHODS; m += 2) {
+			expiredNodes.add(exitStmt(m));
+			for (int c = 0; c < CALLS_PER_METHOD; c++)
+				expiredNodes.add(callSite(m, c));
+		}
+
+		long before = System.nanoTime();
+		incoming.removeNodes(expiredNodes);
+		endSummary.removeNodes(expiredNodes);
+		System.out.println("Removed " + expiredNodes.size() + " expired nodes in "
+				+ (System.nanoTime() - before) / 1E9 + " seconds");
+
+		// Only the end summaries of the odd methods are left
+		Assert.assertEquals(METHODS / 2 * FACTS, endSummary.cellSet().size());
+		Assert.assertTrue(endSummary.endSummary(startPoint(0), "d0").isEmpty());
+		Assert.assertEquals(1, endSummary.endSummary(startPoint(1), "d0").size());
+
+		// Every start point is still called from half of its callers
+		Assert.assertEquals(METHODS * FACTS, incoming.cellSet().size());
+		Assert.assertEquals(CALLS_PER_METHOD / 2, incoming.incoming(startPoint(0), "d0").size());
+
+		// Removing the start points removes the remaining entries
+		List<String> startPoints = new ArrayList<String>();
+		for (int m = 0; m < METHODS; m++)
+			startPoints.add(startPoint(m));
+		incoming.removeNodes(startPoints);
+		endSummary.removeNodes(startPoints);
+		Assert.assertTrue(incoming.cellSet().isEmpty());
+		Assert.assertTrue(endSummary.cellSet().isEmpty());
+	}
+
+}
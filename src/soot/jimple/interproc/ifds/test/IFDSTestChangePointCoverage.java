@@ -0,0 +1,130 @@
+package soot.jimple.interproc.ifds.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.ifds.solver.ChangePointCoverage;
+
+/**
+ * Checks the covered nodes and change roots computed by
+ * {@link ChangePointCoverage} on small intraprocedural graphs. Nodes are
+ * strings, the graph only answers containsStmt() and getSuccsOf().
+ */
+public class IFDSTestChangePointCoverage {
+
+	private final Map<String, List<String>> succs = new HashMap<String, List<String>>();
+
+	private void edge(String from, String... to) {
+		List<String> list = succs.get(from);
+		if (list == null) {
+			list = new ArrayList<String>();
+			succs.put(from, list);
+		}
+		list.addAll(Arrays.asList(to));
+		for (String n : to)
+			if (!succs.containsKey(n))
+				succs.put(n, new ArrayList<String>());
+	}
+
+	@SuppressWarnings("unchecked")
+	private InterproceduralCFG<String, String> icfg() {
+		return (InterproceduralCFG<String, String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { InterproceduralCFG.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("containsStmt"))
+					return succs.containsKey(args[0]);
+				if (method.getName().equals("getSuccsOf"))
+					return succs.get(args[0]);
+				throw new UnsupportedOperationException(method.getName());
+			}
+
+		});
+	}
+
+	private static Set<String> nodes(String... nodes) {
+		return new LinkedHashSet<String>(Arrays.asList(nodes));
+	}
+
+	private void check(Set<String> changePoints, Set<String> expectedCovered, String... expectedRoots) {
+		Assert.assertEquals(expectedCovered,
+				new HashSet<String>(ChangePointCoverage.coveredNodes(icfg(), changePoints)));
+		Assert.assertEquals(Arrays.asList(expectedRoots),
+				ChangePointCoverage.changeRoots(icfg(), changePoints));
+	}
+
+	@Test
+	public void chain() {
+		edge("a", "b");
+		edge("b", "c");
+		edge("c", "d");
+		check(nodes("a", "c"), nodes("b", "c", "d"), "a");
+		check(nodes("c", "a"), nodes("b", "c", "d"), "a");
+		check(nodes("d"), nodes(), "d");
+	}
+
+	@Test
+	public void branches() {
+		edge("a", "b", "c");
+		edge("b", "d");
+		edge("c", "d");
+		check(nodes("b", "c"), nodes("d"), "b", "c");
+		check(nodes("b", "c", "a"), nodes("b", "c", "d"), "a");
+	}
+
+	@Test
+	public void loop() {
+		edge("s", "h");
+		edge("h", "x");
+		edge("x", "y");
+		edge("y", "h", "e");
+
+		// Change points inside the loop cover each other, the first one is
+		// kept as representative
+		check(nodes("x", "y"), nodes("h", "x", "y", "e"), "x");
+		check(nodes("y", "x"), nodes("h", "x", "y", "e"), "y");
+
+		// A single change point in the loop does not cover itself
+		check(nodes("x"), nodes("h", "y", "e"), "x");
+
+		// Change points before the loop cover the ones inside
+		check(nodes("x", "s"), nodes("h", "x", "y", "e"), "s");
+
+		// Change points after the loop are covered by the ones inside
+		check(nodes("e", "y"), nodes("h", "x", "e"), "y");
+	}
+
+	@Test
+	public void selfLoop() {
+		edge("a", "a", "b");
+		edge("b", "b", "c");
+		check(nodes("a"), nodes("b", "c"), "a");
+		check(nodes("b"), nodes("c"), "b");
+		check(nodes("b", "a"), nodes("b", "c"), "a");
+		check(nodes("a", "c"), nodes("b", "c"), "a");
+	}
+
+	@Test
+	public void outsideGraph() {
+		edge("a", "b");
+		check(nodes("z", "a"), nodes("b"), "z", "a");
+		check(Collections.<String>emptySet(), nodes());
+	}
+
+}
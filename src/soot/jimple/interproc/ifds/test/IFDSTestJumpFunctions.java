@@ -0,0 +1,323 @@
+package soot.jimple.interproc.ifds.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.jimple.interproc.ifds.edgefunc.AllTop;
+import soot.jimple.interproc.ifds.solver.ConcurrentJumpFunctions;
+import soot.jimple.interproc.ifds.solver.IJumpFunctions;
+import soot.jimple.interproc.ifds.solver.JumpFunctions;
+import soot.jimple.interproc.ifds.solver.PackedJumpFunctions;
+
+import com.google.common.collect.Table.Cell;
+
+/**
+ * Checks that the alternative implementations of the jump functions behave
+ * exactly like the synchronized reference implementation {@link JumpFunctions}.
+ * The same random sequence of operations is applied to all implementations
+ * and the contents are compared after every step. Edge functions are
+ * distinguished by the top element of an {@link AllTop} function.
+ */
+public class IFDSTestJumpFunctions {
+
+	private static final int TARGETS = 10;
+	private static final int FACTS = 40;
+	private static final int OPERATIONS = 20000;
+
+	private static final EdgeFunction<String> ALL_TOP = new AllTop<String>("top");
+
+	private static EdgeFunction<String> function(int i) {
+		return new AllTop<String>("f" + i);
+	}
+
+	private static String describe(EdgeFunction<String> f) {
+		return f == null ? null : f.computeTarget(null);
+	}
+
+	private static Map<String,String> describe(Map<String,EdgeFunction<String>> map) {
+		Map<String,String> res = new TreeMap<String,String>();
+		for (Entry<String,EdgeFunction<String>> entry : map.entrySet())
+			res.put(entry.getKey(), describe(entry.getValue()));
+		return res;
+	}
+
+	private static Set<String> describe(Set<Cell<String,String,EdgeFunction<String>>> cells) {
+		Set<String> res = new TreeSet<String>();
+		for (Cell<String,String,EdgeFunction<String>> cell : cells)
+			res.add(cell.getRowKey() + " -> " + cell.getColumnKey() + ": " + describe(cell.getValue()));
+		return res;
+	}
+
+	/**
+	 * Checks that the given jump functions have the same contents as the
+	 * reference implementation
+	 */
+	private void assertSameContents(IJumpFunctions<String,String,String> expected,
+			IJumpFunctions<String,String,String> actual) {
+		Assert.assertEquals(new TreeSet<String>(expected.getTargets()),
+				new TreeSet<String>(actual.getTargets()));
+		Assert.assertEquals(expected.targetCount(), actual.targetCount());
+		Assert.assertEquals(expected.sourceFactCount(), actual.sourceFactCount());
+		for (int t = 0; t < TARGETS; t++) {
+			String target = "n" + t;
+			Assert.assertEquals(describe(expected.lookupByTarget(target)),
+					describe(actual.lookupByTarget(target)));
+			for (int d = 0; d < FACTS; d++) {
+				String fact = "d" + d;
+				Assert.assertEquals(describe(expected.forwardLookup(fact, target)),
+						describe(actual.forwardLookup(fact, target)));
+				Assert.assertEquals(describe(expected.reverseLookup(target, fact)),
+						describe(actual.reverseLookup(target, fact)));
+			}
+		}
+	}
+
+	/**
+	 * Applies the same random operations to the reference implementation and
+	 * the given implementation. Target n0 receives far more functions than the
+	 * other targets, so that its maps outgrow any copy-on-write limit.
+	 */
+	private void compareWithReference(IJumpFunctions<String,String,String> actual) {
+		IJumpFunctions<String,String,String> expected = new JumpFunctions<String,String,String>(ALL_TOP);
+		Random random = new Random(42);
+		for (int i = 0; i < OPERATIONS; i++) {
+			String target = "n" + (random.nextInt(3) == 0 ? 0 : random.nextInt(TARGETS));
+			String source = "d" + random.nextInt(FACTS);
+			String fact = "d" + random.nextInt(FACTS);
+			EdgeFunction<String> f = function(random.nextInt(5));
+
+			int op = random.nextInt(20);
+			if (op < 10) {
+				expected.addFunction(source, target, fact, f);
+				actual.addFunction(source, target, fact, f);
+			}
+			else if (op < 14)
+				Assert.assertEquals(describe(expected.joinFunction(source, target, fact, f)),
+						describe(actual.joinFunction(source, target, fact, f)));
+			else if (op < 18)
+				Assert.assertEquals(expected.removeFunction(source, target, fact),
+						actual.removeFunction(source, target, fact));
+			else if (op < 19)
+				Assert.assertEquals(describe(expected.removeFunctions(source, target)),
+						describe(actual.removeFunctions(source, target)));
+			else if (random.nextInt(10) == 0) {
+				expected.removeByTarget(target);
+				actual.removeByTarget(target);
+			}
+			if (i % 500 == 0)
+				assertSameContents(expected, actual);
+		}
+		assertSameContents(expected, actual);
+	}
+
+	@Test
+	public void concurrentMatchesReference() {
+		compareWithReference(new ConcurrentJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	@Test
+	public void packedMatchesReference() {
+		compareWithReference(new PackedJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	/**
+	 * Maps handed out by the given implementation must stay valid while the
+	 * index grows beyond the copy-on-write limit
+	 */
+	private void checkLookupDuringGrowth(IJumpFunctions<String,String,String> jumpFn) {
+		jumpFn.addFunction("d0", "n0", "d0", function(0));
+		Map<String,EdgeFunction<String>> small = jumpFn.forwardLookup("d0", "n0");
+		for (int d = 1; d < FACTS; d++)
+			jumpFn.addFunction("d0", "n0", "d" + d, function(d));
+
+		// Small maps are snapshots, large ones are live views
+		Assert.assertEquals(1, small.size());
+		Map<String,EdgeFunction<String>> large = jumpFn.forwardLookup("d0", "n0");
+		Assert.assertEquals(FACTS, large.size());
+		jumpFn.addFunction("d0", "n0", "d" + FACTS, function(0));
+		Assert.assertEquals(FACTS + 1, large.size());
+		try {
+			large.remove("d0");
+			Assert.fail("Lookup results must not be modifiable");
+		}
+		catch (UnsupportedOperationException ex) {
+			// expected
+		}
+
+		// Removed functions are detached from the index
+		Map<String,EdgeFunction<String>> removed = jumpFn.removeFunctions("d0", "n0");
+		Assert.assertEquals(FACTS + 1, removed.size());
+		jumpFn.addFunction("d0", "n0", "d0", function(1));
+		Assert.assertEquals(FACTS + 1, removed.size());
+		Assert.assertEquals("f0", describe(removed.get("d0")));
+		Assert.assertEquals(1, jumpFn.reverseLookup("n0", "d0").size());
+	}
+
+	@Test
+	public void concurrentLookupDuringGrowth() {
+		checkLookupDuringGrowth(new ConcurrentJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	@Test
+	public void packedLookupDuringGrowth() {
+		checkLookupDuringGrowth(new PackedJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	/**
+	 * Threads adding functions for the same targets concurrently must end up
+	 * with the same contents as a sequential run on the reference
+	 */
+	private void compareConcurrentAdditions(final IJumpFunctions<String,String,String> actual)
+			throws InterruptedException {
+		IJumpFunctions<String,String,String> expected = new JumpFunctions<String,String,String>(ALL_TOP);
+		for (int t = 0; t < TARGETS; t++)
+			for (int s = 0; s < FACTS; s++)
+				for (int d = 0; d < FACTS; d++)
+					expected.addFunction("d" + s, "n" + t, "d" + d, function(s + d));
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final int thread = i;
+			threads.add(new Thread() {
+
+				@Override
+				public void run() {
+					for (int t = 0; t < TARGETS; t++)
+						for (int s = thread; s < FACTS; s += 4)
+							for (int d = 0; d < FACTS; d++)
+								actual.addFunction("d" + s, "n" + t, "d" + d, function(s + d));
+				}
+
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		assertSameContents(expected, actual);
+	}
+
+	@Test
+	public void concurrentAdditions() throws InterruptedException {
+		compareConcurrentAdditions(new ConcurrentJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	@Test
+	public void packedAdditions() throws InterruptedException {
+		compareConcurrentAdditions(new PackedJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	/**
+	 * Threads repeatedly adding and removing functions with fresh facts must
+	 * not disturb each other, even though the ids of removed nodes and facts
+	 * are reused
+	 */
+	private void compareConcurrentChurn(final IJumpFunctions<String,String,String> actual)
+			throws InterruptedException {
+		final int rounds = 50;
+		IJumpFunctions<String,String,String> expected = new JumpFunctions<String,String,String>(ALL_TOP);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final int thread = i;
+			for (int d = 0; d < FACTS; d++)
+				expected.addFunction("d0", "n" + thread, "t" + thread + "r" + (rounds - 1) + "d" + d, function(d));
+			threads.add(new Thread() {
+
+				@Override
+				public void run() {
+					for (int r = 0; r < rounds; r++) {
+						for (int d = 0; d < FACTS; d++)
+							actual.addFunction("d0", "n" + thread, "t" + thread + "r" + r + "d" + d, function(d));
+						if (r < rounds - 1) {
+							for (int d = 0; d < FACTS; d += 2)
+								actual.removeFunction("d0", "n" + thread, "t" + thread + "r" + r + "d" + d);
+							actual.removeByTarget("n" + thread);
+						}
+					}
+				}
+
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+
+		Assert.assertEquals(expected.getAllFunctions().size(), actual.getAllFunctions().size());
+		Assert.assertEquals(expected.targetCount(), actual.targetCount());
+		for (int t = 0; t < 4; t++) {
+			String target = "n" + t;
+			Assert.assertEquals(describe(expected.lookupByTarget(target)), describe(actual.lookupByTarget(target)));
+			Assert.assertEquals(describe(expected.forwardLookup("d0", target)),
+					describe(actual.forwardLookup("d0", target)));
+		}
+	}
+
+	@Test
+	public void concurrentChurn() throws InterruptedException {
+		compareConcurrentChurn(new ConcurrentJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	@Test
+	public void packedChurn() throws InterruptedException {
+		compareConcurrentChurn(new PackedJumpFunctions<String,String,String>(ALL_TOP));
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Prints the heap retained by every implementation for the same synthetic
+	 * set of jump functions: 50000 target nodes with 10 functions between
+	 * random facts out of 2000 each
+	 */
+	@Test
+	public void heapUsage() {
+		final int targets = 50000;
+		final int facts = 2000;
+		final int functionsPerTarget = 10;
+		Object[] nodeObjects = new Object[targets];
+		for (int i = 0; i < targets; i++)
+			nodeObjects[i] = new Object();
+		Object[] factObjects = new Object[facts];
+		for (int i = 0; i < facts; i++)
+			factObjects[i] = new Object();
+
+		List<IJumpFunctions<Object,Object,String>> implementations = new ArrayList<IJumpFunctions<Object,Object,String>>();
+		implementations.add(new JumpFunctions<Object,Object,String>(ALL_TOP));
+		implementations.add(new ConcurrentJumpFunctions<Object,Object,String>(ALL_TOP));
+		implementations.add(new PackedJumpFunctions<Object,Object,String>(ALL_TOP));
+		for (int i = 0; i < implementations.size(); i++) {
+			long before = usedHeap();
+			IJumpFunctions<Object,Object,String> jumpFn = implementations.get(i);
+			Random random = new Random(42);
+			for (int t = 0; t < targets; t++)
+				for (int f = 0; f < functionsPerTarget; f++)
+					jumpFn.addFunction(factObjects[random.nextInt(facts)], nodeObjects[t],
+							factObjects[random.nextInt(facts)], function(0));
+			long used = usedHeap() - before;
+			Assert.assertEquals(targets, jumpFn.targetCount());
+			System.out.println(jumpFn.getClass().getSimpleName() + ": "
+					+ used / (1024 * 1024) + " MB, "
+					+ used / (targets * functionsPerTarget) + " bytes per function");
+			// Release the index before measuring the next one
+			implementations.set(i, null);
+		}
+	}
+
+}
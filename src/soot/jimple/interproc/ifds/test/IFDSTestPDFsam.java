@@ -32,6 +32,7 @@ import soot.jimple.interproc.ifds.IFDSTabulationProblem;
 import soot.jimple.interproc.ifds.InterproceduralCFG;
 import soot.jimple.interproc.ifds.problems.IFDSReachingDefinitions;
 import soot.jimple.interproc.ifds.problems.UpdatableReachingDefinition;
+import soot.jimple.interproc.ifds.solver.IDESolver.JumpFunctionsImplementation;
 import soot.jimple.interproc.ifds.solver.IFDSSolver;
 import soot.jimple.interproc.ifds.template.JimpleBasedInterproceduralCFG;
 import soot.jimple.interproc.ifds.utils.Utils;
@@ -326,11 +327,15 @@ public class IFDSTestPDFsam {
 							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver =
 						new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
 							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>(problem);	
+				solver.setJumpFunctionsImplementation(JumpFunctionsImplementation.valueOf
+						(System.getProperty("ifds.jumpFunctions", JumpFunctionsImplementation.Synchronized.name())));
+				System.out.println("Using jump functions implementation " + solver.getJumpFunctionsImplementation());
 				
 				long beforeSolver = System.nanoTime();
 				System.out.println("Running solver...");
 				solver.solve(false);
 				System.out.println("Solver done in " + ((System.nanoTime() - beforeSolver) / 1E9) + "seconds.");
+				printHeapUsage();
 								
 				if (handler != null) {
 					handler.extendBasicTest(icfg, solver);
@@ -396,6 +401,19 @@ public class IFDSTestPDFsam {
 				"-app", className } );
 	}
 
+	/**
+	 * Prints the amount of heap memory still in use after a full garbage
+	 * collection. Run with -Difds.jumpFunctions=Packed (or Concurrent) to
+	 * compare the jump function implementations.
+	 */
+	private void printHeapUsage() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		System.out.println("Heap in use after solving: "
+				+ (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024) + " MB");
+	}
+
 	/**
 	 * Performs a generic test and calls the extension handler when it is complete.
 	 * This method runs the analysis once, then modifies the program and afterwards
@@ -1,16 +1,24 @@
 package soot.jimple.interproc.ifds.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -30,13 +38,24 @@ import soot.Unit;
 import soot.JastAddJ.CompilationUnit;
 import soot.JastAddJ.Program;
 import soot.jimple.DefinitionStmt;
+import soot.jimple.Jimple;
 import soot.jimple.interproc.ifds.IFDSTabulationProblem;
 import soot.jimple.interproc.ifds.InterproceduralCFG;
 import soot.jimple.interproc.ifds.problems.IFDSReachingDefinitions;
+import soot.jimple.interproc.ifds.problems.IFDSReachingDefinitionsCodec;
 import soot.jimple.interproc.ifds.problems.UpdatableReachingDefinition;
+import soot.jimple.interproc.ifds.solver.IDESolver.FunctionCacheImplementation;
+import soot.jimple.interproc.ifds.solver.IDESolver.JumpFunctionsImplementation;
+import soot.jimple.interproc.ifds.solver.IDESolver.SchedulerMode;
+import soot.jimple.interproc.ifds.solver.IDESolver.UpdateMode;
+import soot.jimple.interproc.ifds.solver.IDESolver.ValueMode;
 import soot.jimple.interproc.ifds.solver.IFDSSolver;
+import soot.jimple.interproc.ifds.solver.IFDSSolver.SolvingMode;
+import soot.jimple.interproc.ifds.template.CompactInterproceduralCFG;
 import soot.jimple.interproc.ifds.template.JimpleBasedInterproceduralCFG;
 import soot.jimple.interproc.ifds.utils.Utils;
+import soot.jimple.interproc.incremental.BodyFingerprint;
+import soot.jimple.interproc.incremental.SceneDiff;
 import soot.jimple.interproc.incremental.UpdatableWrapper;
 import soot.jimple.toolkits.callgraph.ReachableMethods;
 
@@ -291,6 +310,108 @@ public class IFDSTestReachingDefinitionsDynamic {
 		}
 	};
 	
+	/**
+	 * Configures the solver of a test before it is run for the first time
+	 */
+	private interface SolverConfigurator {
+		public void configure(IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+				InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver);
+	}
+
+	/**
+	 * Gets a textual representation of the given reaching definitions that
+	 * does not depend on object identities, so that results from different
+	 * solvers can be compared
+	 */
+	private static Set<String> signatures(Set<UpdatableReachingDefinition> results) {
+		Set<String> res = new TreeSet<String>();
+		for (UpdatableReachingDefinition rd : results) {
+			Set<String> defs = new TreeSet<String>();
+			for (DefinitionStmt def : rd.getDefinitions())
+				defs.add(def.toString());
+			res.add(rd.getValue() + " -> " + defs);
+		}
+		return res;
+	}
+
+	/**
+	 * Checks that the results of the given solver are the same as the ones of
+	 * a default solver that is run from scratch on the current scene
+	 * @param icfg The control-flow graph of the solver to check
+	 * @param solver The solver to check
+	 */
+	private void assertSameAsFreshSolve
+			(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> icfg,
+			IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+				InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver) {
+		InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> freshCfg =
+				new JimpleBasedInterproceduralCFG(false);
+		IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+				InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> freshSolver =
+			new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+				InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>
+				(new IFDSReachingDefinitions(freshCfg));
+		freshSolver.solve(false);
+
+		int checked = 0;
+		for (UpdatableWrapper<Unit> n : freshCfg.getAllNodes()) {
+			Set<String> expected = signatures(freshSolver.ifdsResultsAt(n));
+			Set<String> actual = signatures(solver.ifdsResultsAt(icfg.wrapWeak(n.getContents())));
+			Assert.assertEquals("Results differ at " + n + " in "
+					+ freshCfg.getMethodOf(n), expected, actual);
+			if (!expected.isEmpty())
+				checked++;
+		}
+		Assert.assertTrue("No results to compare", checked > 0);
+		System.out.println("Results at " + checked + " statements match a fresh solve");
+	}
+
+	/**
+	 * Calls the setter for the given setting on the given solver
+	 * @param setting A value of one of the solver's mode or implementation
+	 * enums, e.g. {@link UpdateMode#Batched}
+	 */
+	private static void configure(IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+				InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver, Enum<?> setting) {
+		if (setting instanceof SchedulerMode)
+			solver.setSchedulerMode((SchedulerMode) setting);
+		else if (setting instanceof JumpFunctionsImplementation)
+			solver.setJumpFunctionsImplementation((JumpFunctionsImplementation) setting);
+		else if (setting instanceof FunctionCacheImplementation)
+			solver.setFunctionCacheImplementation((FunctionCacheImplementation) setting);
+		else if (setting instanceof ValueMode)
+			solver.setValueMode((ValueMode) setting);
+		else if (setting instanceof UpdateMode)
+			solver.setUpdateMode((UpdateMode) setting);
+		else if (setting instanceof SolvingMode)
+			solver.setSolvingMode((SolvingMode) setting);
+		else
+			throw new IllegalArgumentException("Unsupported solver setting " + setting);
+	}
+
+	/**
+	 * Performs a test on the JUnit fixture with a solver configured by the
+	 * given setting and compares the results after every update to those of
+	 * the default solver run from scratch
+	 * @param name The name of the test
+	 * @param handler The handler that changes the program
+	 * @param setting The setting to apply to the solver before it is run
+	 */
+	private void performConfiguredTest(String name, ITestHandler<UpdatableReachingDefinition> handler,
+			final Enum<?> setting) {
+		System.out.println("Starting " + name + " with " + setting + "...");
+		performTestDirect(handler, "org.junit.runner.JUnitCore", new SolverConfigurator() {
+
+			@Override
+			public void configure(IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+					InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver) {
+				IFDSTestReachingDefinitionsDynamic.configure(solver, setting);
+			}
+
+		});
+		System.out.println(name + " finished.");
+	}
+
 	/**
 	 * Performs a generic test and calls the extension handler when it is complete.
 	 * This method does not create indices for dynamic updates. Instead, updates are
@@ -300,6 +421,22 @@ public class IFDSTestReachingDefinitionsDynamic {
 	 * @param className The name of the test class to use
 	 */
 	private void performTestDirect(final ITestHandler<UpdatableReachingDefinition> handler, final String className) {
+		performTestDirect(handler, className, null);
+	}
+
+	/**
+	 * Performs a generic test and calls the extension handler when it is complete.
+	 * Updates are propagated along the edges until a fix point is reached.
+	 * @param handler The handler to call after finishing the generic information
+	 * leakage analysis
+	 * @param className The name of the test class to use
+	 * @param configurator The object that configures the solver before it is
+	 * run or null to use the default configuration. If a configurator is given,
+	 * the results after every update are also compared to those of a default
+	 * solver run from scratch.
+	 */
+	private void performTestDirect(final ITestHandler<UpdatableReachingDefinition> handler, final String className,
+			final SolverConfigurator configurator) {
 		soot.G.reset();
 		handler.initialize();
 
@@ -320,6 +457,8 @@ public class IFDSTestReachingDefinitionsDynamic {
 							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver =
 						new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
 							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>(problem);	
+				if (configurator != null)
+					configurator.configure(solver);
 				
 				long beforeSolver = System.nanoTime();
 				System.out.println("Running solver...");
@@ -350,6 +489,8 @@ public class IFDSTestReachingDefinitionsDynamic {
 						System.out.println("IDE results updated in " + (System.nanoTime() - nanoBeforeUpdate) / 1E9 + " seconds.");						
 						
 						handler.performExtendedTest(icfg, solver, i);
+						if (configurator != null)
+							assertSameAsFreshSolve(icfg, solver);
 //						solver.dumpResults(className + "_Propagate.csv");
 					}
 				}
@@ -357,6 +498,15 @@ public class IFDSTestReachingDefinitionsDynamic {
 			}
 		}));
 
+		runSoot(className);
+	}
+
+	/**
+	 * Runs Soot on the test jar with the given main class. The analyses must
+	 * have been registered as transformers in the wjtp pack before.
+	 * @param className The name of the test class to use
+	 */
+	private void runSoot(String className) {
 		String os = System.getProperty("os.name");
 		String cpSep = ":";
 		if (os.contains("Windows"))
@@ -1078,6 +1228,52 @@ public class IFDSTestReachingDefinitionsDynamic {
 		}
 	}
 
+	private ITestHandler<UpdatableReachingDefinition> ITestHandlerDeleteCallTest() {
+		return new DynamicTestHandler("junit-4.10-addCallAssignmentTest.jar", "junit-4.10-original.jar", "junit-4.10.jar") {
+
+			UpdatableWrapper<Unit> calleeExit;
+			
+			@Override
+			public void extendBasicTest
+					(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> icfg,
+					IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+						InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver) {
+				// getVersion() is only called from the call that is deleted
+				SootMethod meth = Scene.v().getMainClass().getMethodByName("getVersion");
+				calleeExit = icfg.wrapWeak(meth.getActiveBody().getUnits().getLast());
+				Set<UpdatableReachingDefinition> results = solver.ifdsResultsAt(calleeExit);
+				System.out.println("Original size: " + results.size());
+				Assert.assertFalse(results.isEmpty());
+			}
+			
+			@Override
+			public void performExtendedTest
+					(InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> icfg,
+					IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+						InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver,
+					int phase) {
+				Set<UpdatableReachingDefinition> results = solver.ifdsResultsAt(calleeExit);
+				Assert.assertTrue("Stale facts in removed callee: " + results, results.isEmpty());
+				assertSameAsFreshSolve(icfg, solver);
+			}
+
+			@Override
+			public void initApplicationClasses() {
+			}
+		};
+	}
+
+	/**
+	 * Performs a simple analysis, then deletes a call and checks that the
+	 * facts in the callee are gone
+	 */
+	@Test
+	public void deleteCallJU_Propagate() {
+		System.out.println("Starting deleteCallJU_Propagate...");
+		performTestDirect(ITestHandlerDeleteCallTest(), "org.junit.runner.JUnitCore");
+		System.out.println("deleteCallJU_Propagate finished.");
+	}
+
 	private ITestHandler<UpdatableReachingDefinition> ITestHandlerRemoveStmtFromLoopTest() {
 		return new DynamicTestHandler("junit-4.10-original.jar", "junit-4.10-removeStmtFromLoopTest.jar", "junit-4.10.jar") {
 
@@ -1203,6 +1399,18 @@ public class IFDSTestReachingDefinitionsDynamic {
 		}
 	}
 
+	/**
+	 * Performs a simple analysis, then changes runMain() in several places:
+	 * a new assignment before the first loop, a removed call and a new
+	 * assignment inside the loop, and new uses after both loops. The change
+	 * points are re-processed in a single batch and the results are compared
+	 * to those of the default solver run from scratch.
+	 */
+	@Test
+	public void removeStmtFromLoopJU_Batched() {
+		performConfiguredTest("removeStmtFromLoopJU_Batched", ITestHandlerRemoveStmtFromLoopTest(), UpdateMode.Batched);
+	}
+
 	private ITestHandler<UpdatableReachingDefinition> ITestHandlerRedefineReturnTest() {
 		return new DynamicTestHandler("junit-4.10-original.jar", "junit-4.10-redefineReturnTest.jar", "junit-4.10.jar") {
 
@@ -1477,4 +1685,426 @@ System.out.println("GET RESULTS AT " + wrapped + " (" + Integer.toHexString(Syst
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Performs a simple analysis using the jump function index selected by the
+	 * ifds.jumpFunctions system property (Concurrent by default), then
+	 * redefines a variable and compares the updated results to those of the
+	 * default solver run from scratch
+	 */
+	@Test
+	public void redefineVarJU_JumpFunctions() {
+		JumpFunctionsImplementation implementation = JumpFunctionsImplementation.valueOf
+				(System.getProperty("ifds.jumpFunctions", JumpFunctionsImplementation.Concurrent.name()));
+		performConfiguredTest("redefineVarJU_JumpFunctions", ITestHandlerRedefineVarTest(), implementation);
+	}
+
+	/**
+	 * Performs a simple analysis in reachability mode, then redefines a
+	 * variable and compares the updated results to those of the default
+	 * solver run from scratch
+	 */
+	@Test
+	public void redefineVarJU_Reachability() {
+		performConfiguredTest("redefineVarJU_Reachability", ITestHandlerRedefineVarTest(), SolvingMode.Reachability);
+	}
+
+	/**
+	 * Performs a simple analysis with the work-stealing scheduler, then adds a
+	 * call inside a new assignment and compares the updated results to those
+	 * of the default solver run from scratch
+	 */
+	@Test
+	public void addCallAssignmentJU_WorkStealing() {
+		performConfiguredTest("addCallAssignmentJU_WorkStealing", ITestHandlerAddCallAssignmentTest(), SchedulerMode.WorkStealing);
+	}
+
+	/**
+	 * Performs a simple analysis computing the values lazily, then removes a
+	 * statement and compares the updated results to those of the default
+	 * solver run from scratch
+	 */
+	@Test
+	public void removeStmtJU_LazyValues() {
+		performConfiguredTest("removeStmtJU_LazyValues", ITestHandlerRemoveStmtTest(), ValueMode.Lazy);
+	}
+
+	/**
+	 * Performs a simple analysis with the packed function caches, then
+	 * removes an assignment and compares the updated results to those of the
+	 * default solver run from scratch. The update invalidates the cached
+	 * functions of the changed methods and releases the ids of the removed
+	 * statements.
+	 */
+	@Test
+	public void removeAssignmentJU_PackedCaches() {
+		performConfiguredTest("removeAssignmentJU_PackedCaches", ITestHandlerRemoveAssignmentTest(), FunctionCacheImplementation.Packed);
+	}
+
+	/**
+	 * Solves the initial program and saves the solver and scene diff state.
+	 * Soot is then reset and the state is restored as it would be in a new
+	 * process. Afterwards, a variable is redefined and the updated results
+	 * are compared to those of the default solver run from scratch.
+	 */
+	@Test
+	public void redefineVarJU_RestoredState() {
+		System.out.println("Starting redefineVarJU_RestoredState...");
+		final String className = "org.junit.runner.JUnitCore";
+		final ITestHandler<UpdatableReachingDefinition> handler = ITestHandlerRedefineVarTest();
+		final ByteArrayOutputStream solverState = new ByteArrayOutputStream();
+		final ByteArrayOutputStream sceneDiffState = new ByteArrayOutputStream();
+
+		// Solve the original program and save the state
+		soot.G.reset();
+		handler.initialize();
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.ifds", new SceneTransformer() {
+			protected void internalTransform(String phaseName, @SuppressWarnings("rawtypes") Map options) {
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG icfg = new JimpleBasedInterproceduralCFG();
+				IFDSReachingDefinitions problem = new IFDSReachingDefinitions(icfg);
+				IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver =
+						new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>(problem);
+				solver.solve(false);
+
+				try {
+					solver.saveState(solverState, new IFDSReachingDefinitionsCodec(problem));
+					icfg.getSceneDiff().saveState(new DataOutputStream(sceneDiffState));
+				}
+				catch (IOException ex) {
+					ex.printStackTrace();
+					Assert.fail("Could not save state: " + ex.getMessage());
+				}
+			}
+		}));
+		runSoot(className);
+
+		// Restore the state on a fresh Soot instance and update it
+		soot.G.reset();
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.ifds", new SceneTransformer() {
+			protected void internalTransform(String phaseName, @SuppressWarnings("rawtypes") Map options) {
+				Scene.v().getSootClass(className).setApplicationClass();
+				SceneDiff sceneDiff = new SceneDiff();
+				InterproceduralCFG<UpdatableWrapper<Unit>, UpdatableWrapper<SootMethod>> icfg = null;
+				IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+						InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver = null;
+				try {
+					sceneDiff.loadState(new DataInputStream(new ByteArrayInputStream(sceneDiffState.toByteArray())));
+					icfg = new JimpleBasedInterproceduralCFG(sceneDiff);
+					IFDSReachingDefinitions problem = new IFDSReachingDefinitions(icfg);
+					solver = new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>(problem);
+					solver.loadState(new ByteArrayInputStream(solverState.toByteArray()),
+							new IFDSReachingDefinitionsCodec(problem));
+				}
+				catch (IOException ex) {
+					ex.printStackTrace();
+					Assert.fail("Could not restore state: " + ex.getMessage());
+				}
+				assertSameAsFreshSolve(icfg, solver);
+
+				handler.extendBasicTest(icfg, solver);
+				handler.patchGraph(0);
+				icfg = new JimpleBasedInterproceduralCFG();
+				solver.update(icfg);
+				handler.performExtendedTest(icfg, solver, 0);
+				assertSameAsFreshSolve(icfg, solver);
+			}
+		}));
+		runSoot(className);
+		System.out.println("redefineVarJU_RestoredState finished.");
+	}
+
+
+	/**
+	 * Checks that the compact representation of the control-flow graph
+	 * answers all queries like the graph it was built from and that querying
+	 * unknown statements does not number them. Afterwards, the compact graph
+	 * is used to solve the problem and the results are compared to those of
+	 * the default solver.
+	 */
+	@Test
+	public void compactCFGJU() {
+		System.out.println("Starting compactCFGJU...");
+		final String className = "org.junit.runner.JUnitCore";
+		soot.G.reset();
+		ITestHandlerRedefineVarTest().initialize();
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.ifds", new SceneTransformer() {
+			protected void internalTransform(String phaseName, @SuppressWarnings("rawtypes") Map options) {
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG icfg = new JimpleBasedInterproceduralCFG();
+				CompactInterproceduralCFG compact = new CompactInterproceduralCFG(icfg, 4);
+
+				Assert.assertEquals(new HashSet<UpdatableWrapper<Unit>>(icfg.getAllNodes()),
+						new HashSet<UpdatableWrapper<Unit>>(compact.getAllNodes()));
+				Assert.assertEquals(icfg.allNonCallStartNodes(), compact.allNonCallStartNodes());
+
+				Set<UpdatableWrapper<SootMethod>> methods = new HashSet<UpdatableWrapper<SootMethod>>();
+				for (UpdatableWrapper<Unit> n : icfg.getAllNodes()) {
+					Assert.assertTrue(compact.containsStmt(n));
+					Assert.assertEquals(icfg.getMethodOf(n), compact.getMethodOf(n));
+					Assert.assertEquals(icfg.getSuccsOf(n), compact.getSuccsOf(n));
+					Assert.assertEquals(icfg.getPredsOf(n), compact.getPredsOf(n));
+					Assert.assertEquals(icfg.isCallStmt(n), compact.isCallStmt(n));
+					Assert.assertEquals(icfg.isExitStmt(n), compact.isExitStmt(n));
+					Assert.assertEquals(icfg.isStartPoint(n), compact.isStartPoint(n));
+					methods.add(icfg.getMethodOf(n));
+					if (icfg.isCallStmt(n)) {
+						Assert.assertEquals(icfg.getCalleesOfCallAt(n), compact.getCalleesOfCallAt(n));
+						Assert.assertEquals(icfg.getReturnSitesOfCallAt(n), compact.getReturnSitesOfCallAt(n));
+						methods.addAll(icfg.getCalleesOfCallAt(n));
+					}
+				}
+				for (UpdatableWrapper<SootMethod> m : methods) {
+					Assert.assertEquals(icfg.getCallersOf(m), compact.getCallersOf(m));
+					Assert.assertEquals(icfg.getCallsFromWithin(m), compact.getCallsFromWithin(m));
+					Assert.assertEquals(icfg.getStartPointsOf(m), compact.getStartPointsOf(m));
+				}
+
+				int idCount = icfg.getIdCount();
+				UpdatableWrapper<Unit> unknown = icfg.wrapWeak((Unit) Jimple.v().newNopStmt());
+				Assert.assertFalse(compact.containsStmt(unknown));
+				Assert.assertEquals(idCount, icfg.getIdCount());
+
+				IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver =
+						new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>
+							(new IFDSReachingDefinitions(compact));
+				solver.solve(false);
+				assertSameAsFreshSolve(compact, solver);
+			}
+		}));
+		runSoot(className);
+		System.out.println("compactCFGJU finished.");
+	}
+
+
+	private static <X> List<X> contents(Collection<UpdatableWrapper<X>> wrappers) {
+		if (wrappers == null)
+			return null;
+		List<X> res = new ArrayList<X>(wrappers.size());
+		for (UpdatableWrapper<X> w : wrappers)
+			res.add(w.getContents());
+		return res;
+	}
+
+	/**
+	 * Gets the methods of all statements in the given graph
+	 */
+	private static Set<SootMethod> methods(JimpleBasedInterproceduralCFG icfg) {
+		Set<SootMethod> res = new HashSet<SootMethod>();
+		for (UpdatableWrapper<Unit> n : icfg.getAllNodes())
+			res.add(icfg.getMethodOf(n).getContents());
+		return res;
+	}
+
+	/**
+	 * Gets the body fingerprints of all methods in the given graph by
+	 * signature
+	 */
+	private static Map<String, Long> fingerprints(JimpleBasedInterproceduralCFG icfg) {
+		Map<String, Long> res = new HashMap<String, Long>();
+		for (SootMethod m : methods(icfg))
+			res.put(m.getSignature(), BodyFingerprint.of(m));
+		return res;
+	}
+
+	/**
+	 * Gets the methods of the given graph built on the current scene whose
+	 * bodies differ from the given fingerprints
+	 */
+	private static List<SootMethod> changedMethods(Map<String, Long> fingerprints,
+			JimpleBasedInterproceduralCFG fresh) {
+		List<SootMethod> res = new ArrayList<SootMethod>();
+		for (SootMethod m : methods(fresh)) {
+			Long fingerprint = fingerprints.get(m.getSignature());
+			if (fingerprint == null || fingerprint != BodyFingerprint.of(m))
+				res.add(m);
+		}
+		Assert.assertFalse("No changed methods found", res.isEmpty());
+		return res;
+	}
+
+	/**
+	 * Builds a graph, reloads the program with a redefined variable and
+	 * patches the graph with the changed methods. The patched graph must
+	 * refer to the reloaded methods and statements and must agree with a
+	 * graph built from scratch on all statements of the fresh graph.
+	 */
+	@Test
+	public void patchedCFGJU() {
+		System.out.println("Starting patchedCFGJU...");
+		final String className = "org.junit.runner.JUnitCore";
+		final ITestHandler<UpdatableReachingDefinition> handler = ITestHandlerRedefineVarTest();
+		soot.G.reset();
+		handler.initialize();
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.ifds", new SceneTransformer() {
+			protected void internalTransform(String phaseName, @SuppressWarnings("rawtypes") Map options) {
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG icfg = new JimpleBasedInterproceduralCFG();
+				Map<String, Long> fingerprints = fingerprints(icfg);
+
+				handler.patchGraph(0);
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG fresh = new JimpleBasedInterproceduralCFG(false);
+				Set<SootMethod> freshMethods = methods(fresh);
+				JimpleBasedInterproceduralCFG patched = new JimpleBasedInterproceduralCFG(icfg,
+						changedMethods(fingerprints, fresh));
+
+				// The patched graph must only contain objects of the current scene
+				for (UpdatableWrapper<Unit> n : patched.getAllNodes()) {
+					SootMethod m = patched.getMethodOf(n).getContents();
+					Assert.assertSame(Scene.v().grabMethod(m.getSignature()), m);
+					Assert.assertTrue(m.getActiveBody().getUnits().contains(n.getContents()));
+					if (!freshMethods.contains(m))
+						Assert.assertFalse(fresh.containsStmt(fresh.wrapWeak(n.getContents())));
+				}
+
+				for (UpdatableWrapper<Unit> fn : fresh.getAllNodes()) {
+					UpdatableWrapper<Unit> pn = patched.wrapWeak(fn.getContents());
+					Assert.assertTrue("Statement missing in patched graph: " + fn, patched.containsStmt(pn));
+					Assert.assertSame(fresh.getMethodOf(fn).getContents(), patched.getMethodOf(pn).getContents());
+					Assert.assertEquals(contents(fresh.getSuccsOf(fn)), contents(patched.getSuccsOf(pn)));
+					Assert.assertEquals(contents(fresh.getPredsOf(fn)), contents(patched.getPredsOf(pn)));
+					Assert.assertEquals(fresh.isCallStmt(fn), patched.isCallStmt(pn));
+					Assert.assertEquals(fresh.isExitStmt(fn), patched.isExitStmt(pn));
+					Assert.assertEquals(fresh.isStartPoint(fn), patched.isStartPoint(pn));
+					if (fresh.isCallStmt(fn)) {
+						Assert.assertEquals(contents(fresh.getCalleesOfCallAt(fn)),
+								contents(patched.getCalleesOfCallAt(pn)));
+						Assert.assertEquals(contents(fresh.getReturnSitesOfCallAt(fn)),
+								contents(patched.getReturnSitesOfCallAt(pn)));
+					}
+				}
+				for (SootMethod m : freshMethods) {
+					UpdatableWrapper<SootMethod> fm = fresh.wrapWeak(m);
+					UpdatableWrapper<SootMethod> pm = patched.wrapWeak(m);
+					Assert.assertEquals(contents(fresh.getCallersOf(fm)), contents(patched.getCallersOf(pm)));
+					Assert.assertEquals(contents(fresh.getCallsFromWithin(fm)), contents(patched.getCallsFromWithin(pm)));
+					Assert.assertEquals(contents(fresh.getStartPointsOf(fm)), contents(patched.getStartPointsOf(pm)));
+				}
+			}
+		}));
+		runSoot(className);
+		System.out.println("patchedCFGJU finished.");
+	}
+
+
+	/**
+	 * Describes the given change set by the statements involved, so that
+	 * change sets computed in different runs of Soot can be compared
+	 */
+	private static List<String> describeChangeset(Map<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> expiredEdges,
+			Map<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> newEdges,
+			Set<UpdatableWrapper<Unit>> newNodes, Set<UpdatableWrapper<Unit>> expiredNodes) {
+		List<String> res = new ArrayList<String>();
+		for (Entry<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> entry : expiredEdges.entrySet())
+			for (UpdatableWrapper<Unit> n : entry.getValue())
+				res.add("expired edge " + entry.getKey() + " -> " + n);
+		for (Entry<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> entry : newEdges.entrySet())
+			for (UpdatableWrapper<Unit> n : entry.getValue())
+				res.add("new edge " + entry.getKey() + " -> " + n);
+		for (UpdatableWrapper<Unit> n : newNodes)
+			res.add("new node " + n);
+		for (UpdatableWrapper<Unit> n : expiredNodes)
+			res.add("expired node " + n);
+		Collections.sort(res);
+		return res;
+	}
+
+	/**
+	 * Builds a graph, redefines a variable and computes the change set
+	 * against a graph of the changed program
+	 * @param patch True if the graph of the changed program shall be patched
+	 * from the previous one, false if it shall be built from scratch
+	 * @return The description of the change set
+	 */
+	private List<String> computeChangeset(final boolean patch) {
+		final String className = "org.junit.runner.JUnitCore";
+		final ITestHandler<UpdatableReachingDefinition> handler = ITestHandlerRedefineVarTest();
+		final List<String> res = new ArrayList<String>();
+		soot.G.reset();
+		handler.initialize();
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.ifds", new SceneTransformer() {
+			protected void internalTransform(String phaseName, @SuppressWarnings("rawtypes") Map options) {
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG icfg = new JimpleBasedInterproceduralCFG();
+				Map<String, Long> fingerprints = fingerprints(icfg);
+
+				handler.patchGraph(0);
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG newCFG = patch
+						? new JimpleBasedInterproceduralCFG(icfg,
+								changedMethods(fingerprints, new JimpleBasedInterproceduralCFG(false)))
+						: new JimpleBasedInterproceduralCFG();
+
+				Map<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> expiredEdges =
+						new HashMap<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>>();
+				Map<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>> newEdges =
+						new HashMap<UpdatableWrapper<Unit>, List<UpdatableWrapper<Unit>>>();
+				Set<UpdatableWrapper<Unit>> newNodes = new HashSet<UpdatableWrapper<Unit>>();
+				Set<UpdatableWrapper<Unit>> expiredNodes = new HashSet<UpdatableWrapper<Unit>>();
+				icfg.computeCFGChangeset(newCFG, expiredEdges, newEdges, newNodes, expiredNodes);
+				res.addAll(describeChangeset(expiredEdges, newEdges, newNodes, expiredNodes));
+			}
+		}));
+		runSoot(className);
+		return res;
+	}
+
+	/**
+	 * Computes the change set for a redefined variable once against a
+	 * patched graph and once against a graph built from scratch. Both change
+	 * sets must be the same.
+	 */
+	@Test
+	public void patchedCFGJU_Changeset() {
+		System.out.println("Starting patchedCFGJU_Changeset...");
+		List<String> expected = computeChangeset(false);
+		List<String> actual = computeChangeset(true);
+		Assert.assertFalse("Empty change set", expected.isEmpty());
+		Assert.assertEquals(expected, actual);
+		System.out.println("patchedCFGJU_Changeset finished.");
+	}
+
+	/**
+	 * Solves the original program, redefines a variable and updates the
+	 * solver with a patched graph. The updated results must be the same as
+	 * those of the default solver run from scratch.
+	 */
+	@Test
+	public void patchedCFGJU_Update() {
+		System.out.println("Starting patchedCFGJU_Update...");
+		final String className = "org.junit.runner.JUnitCore";
+		final ITestHandler<UpdatableReachingDefinition> handler = ITestHandlerRedefineVarTest();
+		soot.G.reset();
+		handler.initialize();
+		PackManager.v().getPack("wjtp").add(new Transform("wjtp.ifds", new SceneTransformer() {
+			protected void internalTransform(String phaseName, @SuppressWarnings("rawtypes") Map options) {
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG icfg = new JimpleBasedInterproceduralCFG();
+				Map<String, Long> fingerprints = fingerprints(icfg);
+				IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>> solver =
+						new IFDSSolver<UpdatableWrapper<Unit>,UpdatableReachingDefinition,UpdatableWrapper<SootMethod>,
+							InterproceduralCFG<UpdatableWrapper<Unit>,UpdatableWrapper<SootMethod>>>
+							(new IFDSReachingDefinitions(icfg));
+				solver.solve(false);
+
+				handler.extendBasicTest(icfg, solver);
+				handler.patchGraph(0);
+				Scene.v().getSootClass(className).setApplicationClass();
+				JimpleBasedInterproceduralCFG patched = new JimpleBasedInterproceduralCFG(icfg,
+						changedMethods(fingerprints, new JimpleBasedInterproceduralCFG(false)));
+				solver.update(patched);
+				handler.performExtendedTest(patched, solver, 0);
+				assertSameAsFreshSolve(patched, solver);
+			}
+		}));
+		runSoot(className);
+		System.out.println("patchedCFGJU_Update finished.");
+	}
+
+}
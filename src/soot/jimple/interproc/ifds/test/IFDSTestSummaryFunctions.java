@@ -0,0 +1,146 @@
+package soot.jimple.interproc.ifds.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import soot.jimple.interproc.ifds.EdgeFunction;
+import soot.jimple.interproc.ifds.solver.SummaryFunctions;
+
+/**
+ * Checks the {@link SummaryFunctions} against a plain map, both sequentially
+ * and with concurrent joins into the same leaf. Edge functions are constant
+ * functions joined by taking the maximum.
+ */
+public class IFDSTestSummaryFunctions {
+
+	private static final int FACTS = 40;
+	private static final int OPERATIONS = 20000;
+	private static final int THREADS = 4;
+
+	private static class Max implements EdgeFunction<Integer> {
+
+		private final int value;
+
+		private Max(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public Integer computeTarget(Integer source) {
+			return value;
+		}
+
+		@Override
+		public EdgeFunction<Integer> composeWith(EdgeFunction<Integer> secondFunction) {
+			return secondFunction;
+		}
+
+		@Override
+		public EdgeFunction<Integer> joinWith(EdgeFunction<Integer> otherFunction) {
+			return ((Max) otherFunction).value >= value ? otherFunction : this;
+		}
+
+		@Override
+		public boolean equalTo(EdgeFunction<Integer> other) {
+			return other instanceof Max && ((Max) other).value == value;
+		}
+
+		@Override
+		public EdgeFunction<Integer> invert() {
+			return this;
+		}
+
+	}
+
+	private static final EdgeFunction<Integer> ALL_TOP = new Max(-1);
+
+	private static Map<String,Integer> describe(Map<String,EdgeFunction<Integer>> map) {
+		Map<String,Integer> res = new TreeMap<String,Integer>();
+		for (Entry<String,EdgeFunction<Integer>> entry : map.entrySet())
+			res.put(entry.getKey(), entry.getValue().computeTarget(null));
+		return res;
+	}
+
+	@Test
+	public void sameAsMap() {
+		SummaryFunctions<String,String,Integer> actual = new SummaryFunctions<String,String,Integer>(ALL_TOP);
+		Map<String,Integer> expected = new TreeMap<String,Integer>();
+		Random random = new Random(42);
+		for (int i = 0; i < OPERATIONS; i++) {
+			String fact = "d" + random.nextInt(FACTS);
+			int value = random.nextInt(10);
+
+			int op = random.nextInt(20);
+			if (op < 8) {
+				actual.insertFunction("c", "d", "r", fact, new Max(value));
+				expected.put(fact, value);
+			}
+			else if (op < 16) {
+				EdgeFunction<Integer> f = actual.joinAndGetIfChanged("c", "d", "r", fact, new Max(value));
+				Integer old = expected.get(fact);
+				if (old == null || old < value) {
+					Assert.assertEquals(Integer.valueOf(value), f.computeTarget(null));
+					expected.put(fact, value);
+				}
+				else
+					Assert.assertNull(f);
+			}
+			else if (op < 19) {
+				actual.removeFunction("c", "d", "r", fact);
+				expected.remove(fact);
+			}
+			else if (random.nextInt(10) == 0) {
+				Assert.assertEquals(expected.size(), actual.removeFunctions("c", "d", "r"));
+				expected.clear();
+			}
+			Assert.assertEquals(expected, describe(actual.summariesFor("c", "d", "r")));
+		}
+	}
+
+	/**
+	 * Lets several threads join increasing values into the same leaf. Every
+	 * value can raise a function at most once, whichever thread joins it.
+	 */
+	@Test
+	public void concurrentJoins() throws InterruptedException {
+		final SummaryFunctions<String,String,Integer> summaries = new SummaryFunctions<String,String,Integer>(ALL_TOP);
+		final int[][] changes = new int[THREADS][FACTS];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int value = 0; value < 1000; value++)
+						for (int d = 0; d < FACTS; d++)
+							if (summaries.joinAndGetIfChanged("c", "d", "r", "d" + d, new Max(value)) != null)
+								changes[thread][d]++;
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		Map<String,Integer> expected = new HashMap<String,Integer>();
+		for (int d = 0; d < FACTS; d++) {
+			int count = 0;
+			for (int t = 0; t < THREADS; t++)
+				count += changes[t][d];
+			Assert.assertTrue(count <= 1000);
+			expected.put("d" + d, 999);
+		}
+		Assert.assertEquals(new TreeMap<String,Integer>(expected), describe(summaries.summariesFor("c", "d", "r")));
+	}
+
+}
@@ -0,0 +1,141 @@
+package soot.jimple.interproc.ifds.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import soot.jimple.interproc.ifds.JoinLattice;
+import soot.jimple.interproc.ifds.solver.ValueTable;
+
+/**
+ * Checks the {@link ValueTable} that stores the values of phase II against a
+ * plain map, both sequentially and with concurrent joins into the same cells.
+ * Values are integers joined by taking the maximum.
+ */
+public class IFDSTestValueTable {
+
+	private static final int NODES = 10;
+	private static final int FACTS = 20;
+	private static final int OPERATIONS = 20000;
+	private static final int THREADS = 4;
+	private static final int VALUES = 1000;
+
+	private static final JoinLattice<Integer> MAX = new JoinLattice<Integer>() {
+
+		@Override
+		public Integer topElement() {
+			return -1;
+		}
+
+		@Override
+		public Integer bottomElement() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public Integer join(Integer left, Integer right) {
+			return Math.max(left, right);
+		}
+
+	};
+
+	@Test
+	public void sameAsMap() {
+		ValueTable<String,String,Integer> actual = new ValueTable<String,String,Integer>();
+		Map<String,Map<String,Integer>> expected = new TreeMap<String,Map<String,Integer>>();
+		Random random = new Random(42);
+		for (int i = 0; i < OPERATIONS; i++) {
+			String n = "n" + random.nextInt(NODES);
+			String d = "d" + random.nextInt(FACTS);
+			int value = random.nextInt(100);
+			Map<String,Integer> row = expected.get(n);
+			if (row == null) {
+				row = new TreeMap<String,Integer>();
+				expected.put(n, row);
+			}
+
+			int op = random.nextInt(20);
+			if (op < 4) {
+				actual.put(n, d, value);
+				row.put(d, value);
+			}
+			else if (op < 19) {
+				Integer joined = actual.join(n, d, value, MAX);
+				Integer old = row.get(d);
+				if (old == null || old < value) {
+					Assert.assertEquals(Integer.valueOf(value), joined);
+					row.put(d, value);
+				}
+				else
+					Assert.assertNull(joined);
+			}
+			else {
+				actual.removeRow(n);
+				row.clear();
+			}
+			Assert.assertEquals(row, new TreeMap<String,Integer>(actual.row(n)));
+			Assert.assertEquals(row.get(d), actual.get(n, d));
+		}
+
+		int cells = 0;
+		for (Map<String,Integer> row : expected.values())
+			cells += row.size();
+		Assert.assertEquals(cells, actual.cellSet().size());
+	}
+
+	/**
+	 * Lets several threads join the same values in different orders into the
+	 * same cells. Every value can only be reported as a change by one thread,
+	 * and each cell must end up with the maximum.
+	 */
+	@Test
+	public void concurrentJoins() throws InterruptedException {
+		final ValueTable<String,String,Integer> table = new ValueTable<String,String,Integer>();
+		final ConcurrentMap<String,Set<Integer>> changes = new ConcurrentHashMap<String,Set<Integer>>();
+		final List<AssertionError> errors = Collections.synchronizedList(new ArrayList<AssertionError>());
+		for (int d = 0; d < FACTS; d++)
+			changes.put("d" + d, Collections.newSetFromMap(new ConcurrentHashMap<Integer,Boolean>()));
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			final List<Integer> values = new ArrayList<Integer>();
+			for (int value = 0; value < VALUES; value++)
+				values.add(value);
+			Collections.shuffle(values, new Random(t));
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int value : values)
+						for (int d = 0; d < FACTS; d++) {
+							Integer joined = table.join("n", "d" + d, value, MAX);
+							if (joined != null && !changes.get("d" + d).add(joined))
+								errors.add(new AssertionError("Value " + joined + " reported twice for d" + d));
+						}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		if (!errors.isEmpty())
+			throw errors.get(0);
+
+		Map<String,Integer> expected = new HashMap<String,Integer>();
+		for (int d = 0; d < FACTS; d++)
+			expected.put("d" + d, VALUES - 1);
+		Assert.assertEquals(expected, new HashMap<String,Integer>(table.row("n")));
+	}
+
+}
@@ -0,0 +1,263 @@
+package soot.jimple.interproc.ifds.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+
+/**
+ * Thread-safe hash map from keys consisting of up to three primitive longs
+ * to objects. The entries are distributed onto a fixed number of segments,
+ * each of which is an open-addressing table with linear probing. Insertions
+ * lock the segment, lookups do not lock at all: every segment publishes its
+ * table through a volatile reference, and a value is only published after
+ * its key. Neither lookups nor insertions of existing keys create any
+ * objects, so the map is suited for caches that are queried very frequently
+ * with keys packed from integer ids (see
+ * {@link LongObjectHashMap#pack(int, int)}). Unused key parts should be
+ * passed as zero.
+ *
+ * @param <V> The type of values stored in the map
+ */
+@ThreadSafe
+public class ConcurrentPackedKeyMap<V> {
+
+	private static final float LOAD_FACTOR = 0.6f;
+
+	/**
+	 * Decides which entries shall be removed by
+	 * {@link ConcurrentPackedKeyMap#removeIf(KeyFilter)}
+	 */
+	public interface KeyFilter {
+
+		/**
+		 * Checks whether the entry with the given key shall be removed
+		 * @return True if the entry shall be removed, otherwise false
+		 */
+		public boolean matches(long k1, long k2, long k3);
+
+	}
+
+	/**
+	 * Receives the keys of all entries in
+	 * {@link ConcurrentPackedKeyMap#forEachKey(KeyVisitor)}
+	 */
+	public interface KeyVisitor {
+
+		/**
+		 * Called for the key of every entry in the map
+		 */
+		public void visit(long k1, long k2, long k3);
+
+	}
+
+	@SynchronizedBy("writes lock the respective segment, reads are lock-free")
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	/**
+	 * Creates a new instance of the ConcurrentPackedKeyMap class
+	 * @param expectedSize The expected number of entries
+	 */
+	public ConcurrentPackedKeyMap(int expectedSize) {
+		int segmentCount = 1;
+		while (segmentCount < Runtime.getRuntime().availableProcessors() * 4)
+			segmentCount <<= 1;
+		this.segments = new Segment[segmentCount];
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = new Segment(expectedSize / segmentCount);
+	}
+
+	private static int hash(long k1, long k2, long k3) {
+		long h = k1 * 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 29) ^ k2) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 32) ^ k3) * 0x94D049BB133111EBL;
+		return (int) (h ^ (h >>> 31));
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[segments.length == 1 ? 0 : hash >>> segmentShift];
+	}
+
+	/**
+	 * Gets the value associated with the given key. This method does not
+	 * lock, it may miss an entry that is inserted concurrently.
+	 * @return The value associated with the given key or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long k1, long k2, long k3) {
+		int hash = hash(k1, k2, k3);
+		Table table = segmentFor(hash).table;
+		int idx = table.indexOf(hash, k1, k2, k3);
+		return idx < 0 ? null : (V) table.values.get(idx);
+	}
+
+	/**
+	 * Associates the given value with the given key unless the key is already
+	 * associated with a value
+	 * @param value The value, must not be null
+	 * @return The value associated with the key after the operation, i.e.
+	 * either the existing value or the given one
+	 */
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(long k1, long k2, long k3, V value) {
+		assert value != null;
+		int hash = hash(k1, k2, k3);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			int idx = segment.table.indexOf(hash, k1, k2, k3);
+			if (idx >= 0)
+				return (V) segment.table.values.get(idx);
+			segment.insert(-1 - idx, k1, k2, k3, value);
+			return value;
+		}
+	}
+
+	/**
+	 * Removes all entries whose keys match the given filter
+	 * @param filter The filter deciding which entries to remove
+	 */
+	public void removeIf(KeyFilter filter) {
+		for (Segment segment : segments)
+			synchronized (segment) {
+				segment.rehash(segment.table.capacity(), filter);
+			}
+	}
+
+	/**
+	 * Passes the keys of all entries to the given visitor
+	 * @param visitor The visitor receiving the keys
+	 */
+	public void forEachKey(KeyVisitor visitor) {
+		for (Segment segment : segments)
+			synchronized (segment) {
+				Table table = segment.table;
+				for (int i = 0; i < table.capacity(); i++)
+					if (table.values.get(i) != null)
+						visitor.visit(table.keys1[i], table.keys2[i], table.keys3[i]);
+			}
+	}
+
+	/**
+	 * Gets the number of entries in this map
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				size += segment.size;
+			}
+		return size;
+	}
+
+	/**
+	 * Removes all entries from this map
+	 */
+	public void clear() {
+		for (Segment segment : segments)
+			synchronized (segment) {
+				segment.allocate(16);
+			}
+	}
+
+	/**
+	 * A single open-addressing table. Slots are filled in place, the value
+	 * is written after the key, so that readers which see the value also
+	 * see the key. Entries are only removed by copying the table.
+	 */
+	private static class Table {
+
+		private final long[] keys1, keys2, keys3;
+		private final AtomicReferenceArray<Object> values;
+
+		private Table(int capacity) {
+			this.keys1 = new long[capacity];
+			this.keys2 = new long[capacity];
+			this.keys3 = new long[capacity];
+			this.values = new AtomicReferenceArray<Object>(capacity);
+		}
+
+		private int capacity() {
+			return keys1.length;
+		}
+
+		private int indexOf(int hash, long k1, long k2, long k3) {
+			int mask = keys1.length - 1;
+			int idx = hash & mask;
+			while (values.get(idx) != null) {
+				if (keys1[idx] == k1 && keys2[idx] == k2 && keys3[idx] == k3)
+					return idx;
+				idx = (idx + 1) & mask;
+			}
+			return -1 - idx;
+		}
+
+		private void set(int idx, long k1, long k2, long k3, Object value) {
+			keys1[idx] = k1;
+			keys2[idx] = k2;
+			keys3[idx] = k3;
+			values.set(idx, value);
+		}
+
+	}
+
+	/**
+	 * The table of a segment together with its bookkeeping. All writes must
+	 * hold the lock on the segment.
+	 */
+	private static class Segment {
+
+		@SynchronizedBy("written under lock on this segment, reference is volatile")
+		private volatile Table table;
+
+		@SynchronizedBy("lock on this segment")
+		private int size;
+
+		@SynchronizedBy("lock on this segment")
+		private int resizeAt;
+
+		private Segment(int expectedSize) {
+			int capacity = 16;
+			while (capacity * LOAD_FACTOR < expectedSize)
+				capacity <<= 1;
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			this.size = 0;
+			this.resizeAt = (int) (capacity * LOAD_FACTOR);
+			this.table = new Table(capacity);
+		}
+
+		private void insert(int idx, long k1, long k2, long k3, Object value) {
+			table.set(idx, k1, k2, k3, value);
+			if (++size > resizeAt)
+				rehash(table.capacity() << 1, null);
+		}
+
+		/**
+		 * Moves all entries not matching the given filter into a new table of
+		 * the given capacity, which is published once it is complete
+		 */
+		private void rehash(int newCapacity, KeyFilter filter) {
+			Table oldTable = table;
+			Table newTable = new Table(newCapacity);
+			int newSize = 0;
+			for (int i = 0; i < oldTable.capacity(); i++) {
+				Object value = oldTable.values.get(i);
+				long k1 = oldTable.keys1[i], k2 = oldTable.keys2[i], k3 = oldTable.keys3[i];
+				if (value != null && (filter == null || !filter.matches(k1, k2, k3))) {
+					newTable.set(-1 - newTable.indexOf(hash(k1, k2, k3), k1, k2, k3), k1, k2, k3, value);
+					newSize++;
+				}
+			}
+			this.size = newSize;
+			this.resizeAt = (int) (newCapacity * LOAD_FACTOR);
+			this.table = newTable;
+		}
+
+	}
+
+}
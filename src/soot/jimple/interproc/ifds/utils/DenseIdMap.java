@@ -0,0 +1,269 @@
+package soot.jimple.interproc.ifds.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.ThreadSafe;
+
+/**
+ * Assigns dense integer ids (0, 1, 2, ...) to objects. While an object is
+ * assigned an id, the id never changes, so ids can be used as array indices
+ * or be packed into primitive keys. Looking up an existing id does not lock.
+ *
+ * Ids can be released when their objects are no longer needed and are then
+ * handed out again to new objects, so that the ids stay dense. Callers that
+ * keep ids outside of this map can compare {@link #generation()} to find out
+ * whether any id has been released in the meantime. Objects can also be
+ * reference counted with {@link #retain(int, Object)} and
+ * {@link #release(int)}, in which case the id is released together with the
+ * last reference.
+ *
+ * @param <T> The type of objects to be numbered
+ */
+@ThreadSafe
+public class DenseIdMap<T> {
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	//reference count of an id that has been released
+	private static final int RELEASED = -1;
+
+	@SynchronizedBy("thread safe data structure, ids are created and released under lock on this")
+	private final ConcurrentMap<T, Integer> ids;
+
+	@SynchronizedBy("written under lock on this, array reference is volatile")
+	private volatile Object[] objects;
+
+	@SynchronizedBy("chunks are added under lock on this, array reference is volatile")
+	private volatile AtomicIntegerArray[] references;
+
+	@SynchronizedBy("lock on this")
+	private int size = 0;
+
+	@SynchronizedBy("lock on this")
+	private int[] freeIds = new int[16];
+
+	@SynchronizedBy("lock on this")
+	private int freeCount = 0;
+
+	@SynchronizedBy("written under lock on this")
+	private volatile int generation = 0;
+
+	/**
+	 * Creates a new instance of the DenseIdMap class
+	 */
+	public DenseIdMap() {
+		this(1024);
+	}
+
+	/**
+	 * Creates a new instance of the DenseIdMap class
+	 * @param initialCapacity The expected number of objects
+	 */
+	public DenseIdMap(int initialCapacity) {
+		initialCapacity = Math.max(initialCapacity, 16);
+		this.ids = new ConcurrentHashMap<T, Integer>(initialCapacity, 0.75f,
+				Runtime.getRuntime().availableProcessors());
+		this.objects = new Object[initialCapacity];
+		this.references = new AtomicIntegerArray[(initialCapacity >> CHUNK_BITS) + 1];
+	}
+
+	private AtomicIntegerArray referencesOf(int id) {
+		return references[id >> CHUNK_BITS];
+	}
+
+	/**
+	 * Gets the id of the given object, assigning a new one if the object has
+	 * not been seen before
+	 * @param obj The object for which to get the id
+	 * @return The id of the given object
+	 */
+	public int getOrCreateId(T obj) {
+		assert obj != null;
+		Integer id = ids.get(obj);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = ids.get(obj);
+			if (id != null)
+				return id;
+			int newId;
+			if (freeCount > 0)
+				newId = freeIds[--freeCount];
+			else {
+				newId = size++;
+				if (newId >= objects.length)
+					objects = Arrays.copyOf(objects, objects.length * 2);
+				int chunk = newId >> CHUNK_BITS;
+				if (chunk >= references.length)
+					references = Arrays.copyOf(references, references.length * 2);
+				if (references[chunk] == null)
+					references[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+			}
+			referencesOf(newId).set(newId & (CHUNK_SIZE - 1), 0);
+			objects[newId] = obj;
+			ids.put(obj, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * Gets the id of the given object
+	 * @param obj The object for which to get the id
+	 * @return The id of the given object or -1 if the object has not been
+	 * assigned an id yet
+	 */
+	public int getId(T obj) {
+		Integer id = ids.get(obj);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the object with the given id
+	 * @param id The id for which to get the object
+	 * @return The object with the given id
+	 */
+	@SuppressWarnings("unchecked")
+	public T getObject(int id) {
+		Object[] objs = objects;
+		if (id < 0 || id >= objs.length)
+			throw new IndexOutOfBoundsException("Invalid id: " + id);
+		return (T) objs[id];
+	}
+
+	/**
+	 * Lets the new object take over the id of the old object. Afterwards, the
+	 * old object no longer has an id.
+	 * @param oldObj The object whose id to take over
+	 * @param newObj The object that shall receive the id
+	 * @return The id of the new object or -1 if the old object had no id
+	 */
+	public synchronized int replace(T oldObj, T newObj) {
+		assert newObj != null;
+		Integer id = ids.remove(oldObj);
+		if (id == null)
+			return -1;
+		ids.put(newObj, id);
+		objects[id] = newObj;
+		return id;
+	}
+
+	/**
+	 * Removes the given object from this map. Its id is released and may be
+	 * assigned to another object afterwards.
+	 * @param obj The object to remove
+	 * @return The released id or -1 if the object had no id
+	 */
+	public synchronized int remove(T obj) {
+		Integer id = ids.remove(obj);
+		if (id == null)
+			return -1;
+		free(id);
+		return id;
+	}
+
+	/**
+	 * Removes all objects whose ids are not contained in the given set.
+	 * Their ids are released and may be assigned to other objects
+	 * afterwards.
+	 * @param usedIds The ids to keep
+	 */
+	public synchronized void removeAllExcept(BitSet usedIds) {
+		for (int id = 0; id < size; id++)
+			if (objects[id] != null && !usedIds.get(id)) {
+				ids.remove(objects[id]);
+				free(id);
+			}
+	}
+
+	/**
+	 * Adds a reference to the object with the given id. Referenced objects
+	 * keep their ids until the last reference has been released.
+	 * @param id The id of the object
+	 * @param obj The object the caller expects to have the given id
+	 * @return True if the reference has been added, false if the id is no
+	 * longer assigned to the given object
+	 */
+	public boolean retain(int id, T obj) {
+		AtomicIntegerArray counts = referencesOf(id);
+		int index = id & (CHUNK_SIZE - 1);
+		while (true) {
+			int count = counts.get(index);
+			if (count == RELEASED)
+				return false;
+			if (counts.compareAndSet(index, count, count + 1))
+				break;
+		}
+		//the id can no longer be released, but it might have been reassigned
+		//before we added the reference
+		if (getId(obj) == id)
+			return true;
+		release(id);
+		return false;
+	}
+
+	/**
+	 * Removes a reference added by {@link #retain(int, Object)}. When the
+	 * last reference goes away, the object is removed from this map and its
+	 * id is released.
+	 * @param id The id of the object
+	 */
+	public void release(int id) {
+		AtomicIntegerArray counts = referencesOf(id);
+		int index = id & (CHUNK_SIZE - 1);
+		if (counts.decrementAndGet(index) == 0)
+			synchronized (this) {
+				if (counts.compareAndSet(index, 0, RELEASED)) {
+					ids.remove(objects[id]);
+					free(id);
+				}
+			}
+	}
+
+	private void free(int id) {
+		assert Thread.holdsLock(this);
+		objects[id] = null;
+		referencesOf(id).set(id & (CHUNK_SIZE - 1), RELEASED);
+		if (freeCount == freeIds.length)
+			freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+		freeIds[freeCount++] = id;
+		generation++;
+	}
+
+	/**
+	 * Gets a counter that is increased whenever an id is released. If it has
+	 * not changed, all ids obtained in the meantime are still assigned to the
+	 * same objects.
+	 * @return The number of ids released so far
+	 */
+	public int generation() {
+		return generation;
+	}
+
+	/**
+	 * Gets the upper bound of the ids assigned so far. All ids are smaller
+	 * than this value.
+	 * @return The upper bound of the ids assigned so far
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all objects from this map. Ids are assigned from zero again
+	 * afterwards.
+	 */
+	public synchronized void clear() {
+		ids.clear();
+		Arrays.fill(objects, null);
+		size = 0;
+		freeCount = 0;
+		generation++;
+	}
+
+}
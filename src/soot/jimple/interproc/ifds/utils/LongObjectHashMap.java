@@ -0,0 +1,204 @@
+package soot.jimple.interproc.ifds.utils;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to objects using open addressing with
+ * linear probing. In contrast to a {@link java.util.HashMap}, no entry or
+ * boxed key objects are created. This class is not thread-safe.
+ *
+ * @param <V> The type of values stored in the map
+ */
+public class LongObjectHashMap<V> {
+
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int resizeAt;
+
+	/**
+	 * Creates a new instance of the LongObjectHashMap class
+	 */
+	public LongObjectHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates a new instance of the LongObjectHashMap class
+	 * @param expectedSize The expected number of entries
+	 */
+	public LongObjectHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Packs two integers into a single long key
+	 * @param high The integer to store in the upper 32 bits
+	 * @param low The integer to store in the lower 32 bits
+	 * @return The packed key
+	 */
+	public static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gets the integer stored in the upper 32 bits of a packed key
+	 */
+	public static int high(long key) {
+		return (int) (key >>> 32);
+	}
+
+	/**
+	 * Gets the integer stored in the lower 32 bits of a packed key
+	 */
+	public static int low(long key) {
+		return (int) key;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		int idx = hash(key) & mask;
+		while (values[idx] != null) {
+			if (keys[idx] == key)
+				return idx;
+			idx = (idx + 1) & mask;
+		}
+		return -1 - idx;
+	}
+
+	/**
+	 * Gets the value associated with the given key
+	 * @param key The key to look up
+	 * @return The value associated with the given key or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int idx = indexOf(key);
+		return idx < 0 ? null : (V) values[idx];
+	}
+
+	/**
+	 * Checks whether this map contains the given key
+	 */
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Associates the given value with the given key
+	 * @param key The key
+	 * @param value The value, must not be null
+	 * @return The value previously associated with the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		assert value != null;
+		int idx = indexOf(key);
+		if (idx >= 0) {
+			V old = (V) values[idx];
+			values[idx] = value;
+			return old;
+		}
+		idx = -1 - idx;
+		keys[idx] = key;
+		values[idx] = value;
+		if (++size > resizeAt)
+			rehash(keys.length << 1);
+		return null;
+	}
+
+	/**
+	 * Removes the given key from this map
+	 * @param key The key to remove
+	 * @return The value previously associated with the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int idx = indexOf(key);
+		if (idx < 0)
+			return null;
+		V old = (V) values[idx];
+		size--;
+
+		// Shift back the following entries of the probe sequence so that
+		// lookups do not stop early at the freed slot
+		int mask = keys.length - 1;
+		int gap = idx;
+		int cur = (idx + 1) & mask;
+		while (values[cur] != null) {
+			int home = hash(keys[cur]) & mask;
+			if (((cur - home) & mask) >= ((cur - gap) & mask)) {
+				keys[gap] = keys[cur];
+				values[gap] = values[cur];
+				gap = cur;
+			}
+			cur = (cur + 1) & mask;
+		}
+		values[gap] = null;
+		return old;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(newCapacity);
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldValues[i] != null) {
+				int idx = -1 - indexOf(oldKeys[i]);
+				keys[idx] = oldKeys[i];
+				values[idx] = oldValues[i];
+			}
+	}
+
+	/**
+	 * Gets the number of entries in this map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether this map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries from this map
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Gets a copy of all keys in this map
+	 * @return An array containing all keys in this map
+	 */
+	public long[] keys() {
+		long[] res = new long[size];
+		int j = 0;
+		for (int i = 0; i < keys.length; i++)
+			if (values[i] != null)
+				res[j++] = keys[i];
+		return res;
+	}
+
+}
@@ -1,13 +1,17 @@
 package soot.jimple.interproc.incremental;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import soot.jimple.interproc.ifds.InterproceduralCFG;
+import soot.jimple.interproc.ifds.SynchronizedBy;
+import soot.jimple.interproc.ifds.utils.DenseIdMap;
 import soot.jimple.interproc.ifds.utils.Utils;
 
 import com.google.common.cache.CacheBuilder;
@@ -19,6 +23,13 @@ import com.google.common.collect.MapMaker;
  * Abstract base class that provides listener registration and deregistration
  * functionality for interprocedural program graphs.
  *
+ * Additionally, every wrapper handed out by this graph can be assigned a
+ * dense integer id. Since wrappers keep their identity when the wrapped
+ * object is exchanged, the ids remain stable across reference changes. The
+ * int-based accessors return the ids of successors, predecessors and callees
+ * and cache them per node, so repeated queries do not allocate wrappers or
+ * lists.
+ *
  * @param <N> Nodes in the CFG, typically Unit or Block
  * @param <M> Method representation
  */
@@ -29,6 +40,16 @@ public abstract class AbstractUpdatableInterproceduralCFG<N,M> implements Interp
 	private final LoadingCache<Object, UpdatableWrapper<?>> wrappedObjects;
 	private final Map<Object, Set<CFGChangeListener>> objectListeners;
 	private final Set<CFGChangeListener> globalListeners = new HashSet<CFGChangeListener>();
+
+	@SynchronizedBy("thread safe data structure, replaced only when merging wrappers")
+	private volatile DenseIdMap<UpdatableWrapper<?>> wrapperIds = new DenseIdMap<UpdatableWrapper<?>>(100000);
+
+	@SynchronizedBy("thread safe data structures")
+	private final IdArrayCache succIds = new IdArrayCache();
+	@SynchronizedBy("thread safe data structures")
+	private final IdArrayCache predIds = new IdArrayCache();
+	@SynchronizedBy("thread safe data structures")
+	private final IdArrayCache calleeIds = new IdArrayCache();
 	
 	public AbstractUpdatableInterproceduralCFG() {
 		CacheBuilder<Object, Object> cb = CacheBuilder.newBuilder().concurrencyLevel
@@ -166,6 +187,114 @@ public abstract class AbstractUpdatableInterproceduralCFG<N,M> implements Interp
 		return resSet;
 	}
 
+	/**
+	 * Gets the dense id of the given wrapper, assigning a new one if the
+	 * wrapper has not been numbered yet. The id does not change when the
+	 * wrapped object is exchanged.
+	 * @param wrapper The wrapper for which to get the id
+	 * @return The id of the given wrapper
+	 */
+	public int getId(UpdatableWrapper<?> wrapper) {
+		return wrapperIds.getOrCreateId(wrapper);
+	}
+
+	/**
+	 * Gets the dense id of the given wrapper without assigning a new one
+	 * @param wrapper The wrapper for which to get the id
+	 * @return The id of the given wrapper or -1 if the wrapper has not been
+	 * numbered yet
+	 */
+	public int lookupId(UpdatableWrapper<?> wrapper) {
+		return wrapperIds.getId(wrapper);
+	}
+
+	/**
+	 * Gets the wrapper with the given id
+	 * @param id The id for which to get the wrapper
+	 * @return The wrapper with the given id
+	 */
+	@SuppressWarnings("unchecked")
+	public <X> UpdatableWrapper<X> getWrapper(int id) {
+		return (UpdatableWrapper<X>) wrapperIds.getObject(id);
+	}
+
+	/**
+	 * Gets the number of ids assigned so far. All ids are smaller than this
+	 * value, so it can be used to size arrays indexed by id.
+	 * @return The number of ids assigned so far
+	 */
+	public int getIdCount() {
+		return wrapperIds.size();
+	}
+
+	/**
+	 * Gets the ids of the successors of the node with the given id
+	 * @param nodeId The id of the node for which to get the successors
+	 * @return The ids of the successors. The returned array must not be
+	 * modified.
+	 */
+	public int[] getSuccIdsOf(int nodeId) {
+		int[] ids = succIds.get(nodeId);
+		if (ids == null) {
+			ids = toIds(getSuccsOf(this.<N>getNode(nodeId)));
+			succIds.put(nodeId, ids);
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the ids of the predecessors of the node with the given id
+	 * @param nodeId The id of the node for which to get the predecessors
+	 * @return The ids of the predecessors. The returned array must not be
+	 * modified.
+	 */
+	public int[] getPredIdsOf(int nodeId) {
+		int[] ids = predIds.get(nodeId);
+		if (ids == null) {
+			ids = toIds(getPredsOf(this.<N>getNode(nodeId)));
+			predIds.put(nodeId, ids);
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the ids of the methods called at the node with the given id
+	 * @param nodeId The id of the call site for which to get the callees
+	 * @return The ids of the callees. The returned array must not be
+	 * modified.
+	 */
+	public int[] getCalleeIdsOfCallAt(int nodeId) {
+		int[] ids = calleeIds.get(nodeId);
+		if (ids == null) {
+			ids = toIds(getCalleesOfCallAt(this.<N>getNode(nodeId)));
+			calleeIds.put(nodeId, ids);
+		}
+		return ids;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <X> X getNode(int id) {
+		return (X) wrapperIds.getObject(id);
+	}
+
+	private int[] toIds(Collection<?> wrappers) {
+		if (wrappers == null || wrappers.isEmpty())
+			return EMPTY_IDS;
+		int[] ids = new int[wrappers.size()];
+		int i = 0;
+		for (Object o : wrappers)
+			ids[i++] = getId((UpdatableWrapper<?>) o);
+		return ids;
+	}
+
+	private static final int[] EMPTY_IDS = new int[0];
+
+	/**
+	 * Merges the wrappers of this graph with the ones of the given graph. This
+	 * graph also adopts the id registry of the other graph so that the ids of
+	 * the wrappers taken over remain the same. Ids previously assigned by this
+	 * graph are discarded.
+	 */
 	@Override
 	public void mergeWrappers(InterproceduralCFG<N, M> otherCfg) {
 		if (!(otherCfg instanceof AbstractUpdatableInterproceduralCFG))
@@ -174,6 +303,46 @@ public abstract class AbstractUpdatableInterproceduralCFG<N,M> implements Interp
 		AbstractUpdatableInterproceduralCFG<N, M> other =
 				(AbstractUpdatableInterproceduralCFG<N, M>) otherCfg;
 		this.wrappedObjects.asMap().putAll(other.wrappedObjects.asMap());
+		this.wrapperIds = other.wrapperIds;
+		this.succIds.clear();
+		this.predIds.clear();
+		this.calleeIds.clear();
+	}
+
+	/**
+	 * Cache of id arrays indexed by node id. Entries written concurrently
+	 * while the array grows may be lost, they are then simply recomputed.
+	 */
+	private static class IdArrayCache {
+
+		private volatile AtomicReferenceArray<int[]> entries = new AtomicReferenceArray<int[]>(1024);
+
+		int[] get(int id) {
+			AtomicReferenceArray<int[]> e = entries;
+			return id < e.length() ? e.get(id) : null;
+		}
+
+		void put(int id, int[] ids) {
+			AtomicReferenceArray<int[]> e = entries;
+			if (id >= e.length()) {
+				synchronized (this) {
+					e = entries;
+					if (id >= e.length()) {
+						AtomicReferenceArray<int[]> newEntries = new AtomicReferenceArray<int[]>
+								(Math.max(e.length() * 2, id + 1));
+						for (int i = 0; i < e.length(); i++)
+							newEntries.set(i, e.get(i));
+						entries = e = newEntries;
+					}
+				}
+			}
+			e.set(id, ids);
+		}
+
+		synchronized void clear() {
+			entries = new AtomicReferenceArray<int[]>(1024);
+		}
+
 	}
 
 }
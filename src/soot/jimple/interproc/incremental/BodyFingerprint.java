@@ -0,0 +1,223 @@
+package soot.jimple.interproc.incremental;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.ArrayType;
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.SootFieldRef;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Trap;
+import soot.Type;
+import soot.Unit;
+import soot.UnitBox;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.CastExpr;
+import soot.jimple.ClassConstant;
+import soot.jimple.DoubleConstant;
+import soot.jimple.FieldRef;
+import soot.jimple.FloatConstant;
+import soot.jimple.InstanceOfExpr;
+import soot.jimple.IntConstant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.LongConstant;
+import soot.jimple.LookupSwitchStmt;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
+import soot.jimple.NullConstant;
+import soot.jimple.ParameterRef;
+import soot.jimple.StringConstant;
+import soot.jimple.TableSwitchStmt;
+import soot.jimple.ThisRef;
+
+/**
+ * Computes a 64-bit structural fingerprint of a method body. The fingerprint
+ * covers the method's signature and modifiers, the locals with their names
+ * and types, every statement with the values it uses and defines, branch
+ * targets as statement indices, and the traps. Unlike hashing the result of
+ * {@link Body#toString()}, no strings are built for the body, and the wider
+ * hash makes accidental collisions between different bodies unlikely. Names
+ * and string constants enter the fingerprint with all their characters, not
+ * through their 32-bit hash codes.
+ *
+ * Fingerprints only depend on names, types and constants, so they are stable
+ * across program runs and can be persisted.
+ */
+public class BodyFingerprint {
+
+	private static final long SEED = 0x6A09E667F3BCC909L;
+
+	private long hash = SEED;
+
+	private BodyFingerprint() {
+	}
+
+	/**
+	 * Computes the fingerprint of the active body of the given method
+	 * @param m The method for which to compute the fingerprint. The method
+	 * must have an active body.
+	 * @return The fingerprint of the method's body
+	 */
+	public static long of(SootMethod m) {
+		BodyFingerprint fp = new BodyFingerprint();
+		fp.addMethod(m);
+		fp.addBody(m.getActiveBody());
+		return fp.finish();
+	}
+
+	private void add(long value) {
+		hash = Long.rotateLeft(hash ^ (value * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Adds the given string character by character, four characters per
+	 * step. Unlike {@link String#hashCode()}, this does not map different
+	 * strings to the same 32-bit value before they enter the fingerprint.
+	 */
+	private void addString(String s) {
+		int length = s.length();
+		add(length);
+		for (int i = 0; i < length; i += 4) {
+			long chunk = 0;
+			for (int j = i; j < Math.min(length, i + 4); j++)
+				chunk = (chunk << 16) | s.charAt(j);
+			add(chunk);
+		}
+	}
+
+	private long finish() {
+		long h = hash;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private void addMethod(SootMethod m) {
+		addString(m.getName());
+		add(m.getModifiers());
+		addType(m.getReturnType());
+		@SuppressWarnings("unchecked")
+		List<Type> paramTypes = m.getParameterTypes();
+		add(paramTypes.size());
+		for (Type t : paramTypes)
+			addType(t);
+	}
+
+	private void addBody(Body body) {
+		add(body.getLocalCount());
+		for (Local l : body.getLocals()) {
+			addString(l.getName());
+			addType(l.getType());
+		}
+
+		Map<Unit, Integer> unitIndices = new HashMap<Unit, Integer>(body.getUnits().size() * 2);
+		int idx = 0;
+		for (Unit u : body.getUnits())
+			unitIndices.put(u, idx++);
+		add(idx);
+
+		for (Unit u : body.getUnits()) {
+			addString(u.getClass().getName());
+			for (ValueBox vb : u.getUseAndDefBoxes())
+				addValue(vb.getValue());
+			for (UnitBox ub : u.getUnitBoxes())
+				add(indexOf(unitIndices, ub.getUnit()));
+			if (u instanceof LookupSwitchStmt) {
+				for (Object o : ((LookupSwitchStmt) u).getLookupValues())
+					addValue((Value) o);
+			}
+			else if (u instanceof TableSwitchStmt) {
+				add(((TableSwitchStmt) u).getLowIndex());
+				add(((TableSwitchStmt) u).getHighIndex());
+			}
+		}
+
+		add(body.getTraps().size());
+		for (Trap t : body.getTraps()) {
+			addString(t.getException().getName());
+			add(indexOf(unitIndices, t.getBeginUnit()));
+			add(indexOf(unitIndices, t.getEndUnit()));
+			add(indexOf(unitIndices, t.getHandlerUnit()));
+		}
+	}
+
+	private static int indexOf(Map<Unit, Integer> unitIndices, Unit u) {
+		Integer idx = unitIndices.get(u);
+		return idx == null ? -1 : idx;
+	}
+
+	private void addValue(Value v) {
+		addString(v.getClass().getName());
+		if (v instanceof Local) {
+			addString(((Local) v).getName());
+			addType(v.getType());
+		}
+		else if (v instanceof IntConstant)
+			add(((IntConstant) v).value);
+		else if (v instanceof LongConstant)
+			add(((LongConstant) v).value);
+		else if (v instanceof FloatConstant)
+			add(Float.floatToIntBits(((FloatConstant) v).value));
+		else if (v instanceof DoubleConstant)
+			add(Double.doubleToLongBits(((DoubleConstant) v).value));
+		else if (v instanceof StringConstant)
+			addString(((StringConstant) v).value);
+		else if (v instanceof ClassConstant)
+			addString(((ClassConstant) v).value);
+		else if (v instanceof NullConstant)
+			add(0);
+		else if (v instanceof InvokeExpr) {
+			SootMethodRef ref = ((InvokeExpr) v).getMethodRef();
+			addString(ref.declaringClass().getName());
+			addString(ref.name());
+			addType(ref.returnType());
+			for (Object t : ref.parameterTypes())
+				addType((Type) t);
+		}
+		else if (v instanceof FieldRef) {
+			SootFieldRef ref = ((FieldRef) v).getFieldRef();
+			addString(ref.declaringClass().getName());
+			addString(ref.name());
+			addType(ref.type());
+		}
+		else if (v instanceof CastExpr)
+			addType(((CastExpr) v).getCastType());
+		else if (v instanceof InstanceOfExpr)
+			addType(((InstanceOfExpr) v).getCheckType());
+		else if (v instanceof NewExpr)
+			addType(((NewExpr) v).getBaseType());
+		else if (v instanceof NewArrayExpr)
+			addType(((NewArrayExpr) v).getBaseType());
+		else if (v instanceof NewMultiArrayExpr)
+			addType(((NewMultiArrayExpr) v).getBaseType());
+		else if (v instanceof ParameterRef) {
+			add(((ParameterRef) v).getIndex());
+			addType(v.getType());
+		}
+		else if (v instanceof ThisRef)
+			addType(v.getType());
+		// Other values are fully described by their kind and their operands,
+		// which appear as separate value boxes
+	}
+
+	private void addType(Type t) {
+		if (t instanceof RefType)
+			addString(((RefType) t).getClassName());
+		else if (t instanceof ArrayType) {
+			add(((ArrayType) t).numDimensions);
+			addType(((ArrayType) t).baseType);
+		}
+		else
+			addString(t.getClass().getName());
+	}
+
+}
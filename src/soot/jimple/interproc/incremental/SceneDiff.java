@@ -1,5 +1,8 @@
 package soot.jimple.interproc.incremental;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -9,6 +12,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import soot.MethodOrMethodContext;
 import soot.Scene;
@@ -31,12 +40,20 @@ import com.google.common.collect.Table.Cell;
 public class SceneDiff {
 
 	private final static boolean DIFF_ALL_CLASSES = false;
+	private final static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
 	
 	/**
 	 * Map between the names of all classes in the scene and the actual classes. It is updated with every build. Classes in here are said to be equal if their names are equal.
 	 */
 	private Map<String, SootClass> classNameToClass = new HashMap<String, SootClass>();
-	private Table<SootClass, SootMethod, Integer> methodBodies = HashBasedTable.create();
+	private Table<SootClass, SootMethod, Long> methodBodies = HashBasedTable.create();
+
+	/**
+	 * Body fingerprints computed for the build currently running. Bodies can
+	 * be modified in place between builds, so the cache is discarded after
+	 * every build.
+	 */
+	private Map<SootMethod, Long> fingerprints = Collections.emptyMap();
 
 	/**
 	 * Returns true if the SceneDiff was initialized, false otherwise. A SceneDiff is initialized iff a full build was started in the past or an incremental build has succeeded.
@@ -44,10 +61,57 @@ public class SceneDiff {
 	 * @return true if the SceneDiff was initialized, false otherwise
 	 */
 	public boolean isInitialized() {
-		// TODO actually we should persist this data so that it is still available when we close and re-open a project
+		// The data can be persisted using saveState() and loadState() so that
+		// it is still available when we close and re-open a project
 		return classNameToClass != null;
 	}
 
+	/**
+	 * Writes the method body hashes of this SceneDiff to the given stream so
+	 * that they can be restored in another process using
+	 * {@link #loadState(DataInput)}.
+	 * 
+	 * @param out The stream to write to
+	 * @throws IOException If the data cannot be written
+	 */
+	public void saveState(DataOutput out) throws IOException {
+		out.writeInt(methodBodies.size());
+		for (Cell<SootClass, SootMethod, Long> cell : methodBodies.cellSet()) {
+			out.writeUTF(cell.getRowKey().getName());
+			out.writeUTF(cell.getColumnKey().getSignature());
+			out.writeLong(cell.getValue());
+		}
+	}
+
+	/**
+	 * Restores the method body hashes written by {@link #saveState(DataOutput)},
+	 * replacing the current contents of this SceneDiff. Classes and methods that
+	 * are no longer in the scene are skipped. The next incremental build
+	 * then reports the differences to the program at the time the state was
+	 * saved.
+	 * 
+	 * @param in The stream to read from
+	 * @throws IOException If the data cannot be read
+	 */
+	public void loadState(DataInput in) throws IOException {
+		classNameToClass.clear();
+		methodBodies.clear();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			String className = in.readUTF();
+			String signature = in.readUTF();
+			long hash = in.readLong();
+			if (!Scene.v().containsClass(className))
+				continue;
+			SootMethod m = Scene.v().grabMethod(signature);
+			if (m == null)
+				continue;
+			SootClass c = Scene.v().getSootClass(className);
+			classNameToClass.put(className, c);
+			methodBodies.put(c, m, hash);
+		}
+	}
+
 	/**
 	 * Does a full build on the SceneDiff. Since there is nothing to diff, the method only initializes the SceneDiff.
 	 */
@@ -57,6 +121,7 @@ public class SceneDiff {
 		eps.addAll(Scene.v().getEntryPoints());
 		ReachableMethods reachableMethods = new ReachableMethods(Scene.v().getCallGraph(), eps.iterator(), new EdgeFilter());
 		reachableMethods.update();
+		computeFingerprints(reachableMethods);
 
 		for(Iterator<MethodOrMethodContext> iter = reachableMethods.listener(); iter.hasNext(); ) {
 			SootMethod m = iter.next().method();
@@ -67,9 +132,79 @@ public class SceneDiff {
 				SootClass oldClass = classNameToClass.put(c.getName(), c);
 				if (oldClass != null && oldClass != c && !oldClass.equals(c))
 					throw new RuntimeException("Class name conflict for " + c + " <> " + oldClass);
-				this.methodBodies.put(c, m, m.getActiveBody().toString().hashCode());
+				this.methodBodies.put(c, m, fingerprint(m));
 			}
 		}
+		fingerprints = Collections.emptyMap();
+	}
+
+	/**
+	 * Computes the body fingerprints of all reachable methods in parallel and
+	 * caches them for the current build
+	 * @param reachableMethods The reachable methods
+	 */
+	private void computeFingerprints(ReachableMethods reachableMethods) {
+		final List<SootMethod> methods = new ArrayList<SootMethod>();
+		for(Iterator<MethodOrMethodContext> iter = reachableMethods.listener(); iter.hasNext(); ) {
+			SootMethod m = iter.next().method();
+			if (m.hasActiveBody())
+				methods.add(m);
+		}
+		
+		final ConcurrentMap<SootMethod, Long> res = new ConcurrentHashMap<SootMethod, Long>(methods.size());
+		int chunkSize = Math.max(16, methods.size() / (NUM_THREADS * 8));
+		List<Callable<Void>> chunks = new ArrayList<Callable<Void>>();
+		for (int start = 0; start < methods.size(); start += chunkSize) {
+			final int from = start;
+			final int to = Math.min(methods.size(), start + chunkSize);
+			chunks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() {
+					for (SootMethod m : methods.subList(from, to))
+						res.put(m, BodyFingerprint.of(m));
+					return null;
+				}
+
+			});
+		}
+		runParallel(chunks);
+		fingerprints = res;
+	}
+
+	/**
+	 * Runs the given tasks in parallel and waits for all of them to complete
+	 * @param tasks The tasks to run
+	 * @return The results of the tasks in the order of the tasks
+	 */
+	private static <T> List<T> runParallel(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (tasks.isEmpty())
+			return results;
+		ForkJoinPool pool = new ForkJoinPool(NUM_THREADS);
+		try {
+			for (Future<T> f : pool.invokeAll(tasks))
+				results.add(f.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing scene diff", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not compute scene diff", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+	/**
+	 * Gets the fingerprint of the active body of the given method
+	 * @param m The method for which to get the fingerprint. The method must
+	 * have an active body.
+	 * @return The fingerprint of the method's body
+	 */
+	private long fingerprint(SootMethod m) {
+		Long fp = fingerprints.get(m);
+		return fp == null ? BodyFingerprint.of(m) : fp;
 	}
 	
 	/**
@@ -97,10 +232,16 @@ public class SceneDiff {
 	 * @return A ProgramDiffNode that contains the differences to the last program that was built
 	 */
 	public ProgramDiffNode incrementalBuild() {
+		long beforeReachable = System.nanoTime();
 		List<MethodOrMethodContext> eps = new ArrayList<MethodOrMethodContext>();
 		eps.addAll(Scene.v().getEntryPoints());
-		ReachableMethods reachableMethods = new ReachableMethods(Scene.v().getCallGraph(), eps.iterator(), new EdgeFilter());
+		final ReachableMethods reachableMethods = new ReachableMethods(Scene.v().getCallGraph(), eps.iterator(), new EdgeFilter());
 		reachableMethods.update();
+		long durationReachable = System.nanoTime() - beforeReachable;
+
+		long beforeFingerprints = System.nanoTime();
+		computeFingerprints(reachableMethods);
+		long durationFingerprints = System.nanoTime() - beforeFingerprints;
 
 		HashMap<String, SootClass> newClassNameToClass = new HashMap<String, SootClass>();
 		for(Iterator<MethodOrMethodContext> iter = reachableMethods.listener(); iter.hasNext(); ) {
@@ -121,10 +262,17 @@ public class SceneDiff {
 		*/
 		
 		Map<SootClass, List<SootMethod>> oldMethods = new HashMap<SootClass, List<SootMethod>>(methodBodies.size());
-		for (Cell<SootClass, SootMethod, Integer> cell : methodBodies.cellSet())
+		for (Cell<SootClass, SootMethod, Long> cell : methodBodies.cellSet())
 			Utils.addElementToMapList(oldMethods, cell.getRowKey(), cell.getColumnKey());
 		ProgramDiffNode programDiff = new ProgramDiffNode(this.classNameToClass, oldMethods);
 		
+		// Find the pairs of classes to compare. Classes are diffed in parallel.
+		// The tasks only read the body fingerprints of the previous build and
+		// collect their updates, which are applied afterwards in the original
+		// order of the classes.
+		long beforeClassDiffs = System.nanoTime();
+		List<Callable<ClassDiffResult>> classDiffTasks = new ArrayList<Callable<ClassDiffResult>>();
+		
 		// check for added classes
 		for (SootClass newClass : newClassNameToClass.values())
 			if (!classNameToClass.containsKey(newClass.getName()))
@@ -142,29 +290,86 @@ public class SceneDiff {
 				 * hence the "or" in the if clause.
 				 */
 				if (DIFF_ALL_CLASSES || newClass.isApplicationClass() || oldClass.isApplicationClass()) {
-					ClassDiffNode classDiff = diffClasses(oldClass, newClass, reachableMethods);
-					if (classDiff != null)
-						programDiff.addDiffNode(classDiff);
+					final SootClass oc = oldClass;
+					final SootClass nc = newClass;
+					classDiffTasks.add(new Callable<ClassDiffResult>() {
+
+						@Override
+						public ClassDiffResult call() {
+							ClassDiffResult res = new ClassDiffResult();
+							res.classDiff = diffClasses(oc, nc, reachableMethods, res.bodyUpdates);
+							return res;
+						}
+
+					});
 				}
 			}
 		}
+		List<ClassDiffResult> classDiffResults = runParallel(classDiffTasks);
+		long durationClassDiffs = System.nanoTime() - beforeClassDiffs;
+		
+		long beforeMerge = System.nanoTime();
+		for (ClassDiffResult res : classDiffResults) {
+			if (res.classDiff != null)
+				programDiff.addDiffNode(res.classDiff);
+			for (BodyUpdate update : res.bodyUpdates)
+				if (update.fingerprint == null)
+					this.methodBodies.remove(update.clazz, update.method);
+				else
+					this.methodBodies.put(update.clazz, update.method, update.fingerprint);
+		}
+		
 		// update our cache
 		classNameToClass = newClassNameToClass;
+		fingerprints = Collections.emptyMap();
+		long durationMerge = System.nanoTime() - beforeMerge;
+		
+		System.out.println("Scene diff: reachable methods took " + durationReachable / 1E9
+				+ " seconds, fingerprints took " + durationFingerprints / 1E9
+				+ " seconds, diffing " + classDiffTasks.size() + " classes took " + durationClassDiffs / 1E9
+				+ " seconds, merging took " + durationMerge / 1E9 + " seconds");
 		return programDiff;
 	}
 
+	/**
+	 * A change to the stored body fingerprints found while diffing a class
+	 */
+	private static class BodyUpdate {
+		final SootClass clazz;
+		final SootMethod method;
+		/** The new fingerprint or null if the entry shall be removed */
+		final Long fingerprint;
+		
+		BodyUpdate(SootClass clazz, SootMethod method, Long fingerprint) {
+			this.clazz = clazz;
+			this.method = method;
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * The outcome of diffing a single class
+	 */
+	private static class ClassDiffResult {
+		ClassDiffNode classDiff;
+		final List<BodyUpdate> bodyUpdates = new ArrayList<BodyUpdate>();
+	}
+
 	/**
 	 * Generates a ClassDiffNode that contains the difference between the two given classes.
 	 * 
 	 * @param oldClass the old class
 	 * @param newClass the new class
 	 * @param reachableMethods Listener for the reachable methods in the new class
+	 * @param bodyUpdates The list that receives the changes to the stored
+	 * body fingerprints
 	 * @return a ClassDiffNode that contains the difference between the two given classes, or <code>null</code> if there is none
 	 */
-	private ClassDiffNode diffClasses(SootClass oldClass, SootClass newClass, ReachableMethods reachableMethods) {
+	private ClassDiffNode diffClasses(SootClass oldClass, SootClass newClass, ReachableMethods reachableMethods,
+			List<BodyUpdate> bodyUpdates) {
 		ClassDiffNode classDiff = new ClassDiffNode(oldClass, newClass, DiffType.CHANGED);
 		diffFields(oldClass, newClass, classDiff);
-		diffMethods(oldClass, newClass, reachableMethods, classDiff);
+		diffMethods(oldClass, newClass, reachableMethods, classDiff, bodyUpdates);
 		diffSuperClass(oldClass, newClass, classDiff);
 		diffInterfaces(oldClass, newClass, classDiff);
 		if (classDiff.getFieldDiffs().isEmpty()
@@ -182,8 +387,11 @@ public class SceneDiff {
 	 * @param newClass the new class
 	 * @param reachableMethods Listener for the reachable methods in the new class
 	 * @param classDiff the ClassDiffNode that should contain the differences
+	 * @param bodyUpdates The list that receives the changes to the stored
+	 * body fingerprints
 	 */
-	private void diffMethods(SootClass oldClass, SootClass newClass, ReachableMethods reachableMethods, ClassDiffNode classDiff) {
+	private void diffMethods(SootClass oldClass, SootClass newClass, ReachableMethods reachableMethods, ClassDiffNode classDiff,
+			List<BodyUpdate> bodyUpdates) {
 		// construct the wrapper maps used for tracking similar, but not necessarily equal methods
 		Map<SootMethodEqualsWrapper, SootMethod> oldSootMethods =
 				new HashMap<SootMethodEqualsWrapper, SootMethod>();
@@ -209,14 +417,14 @@ public class SceneDiff {
 			
 			boolean isNewMethod = (matchingOldMethod == null);
 			if (!isNewMethod) {
-				Integer oldBody = this.methodBodies.get(oldClass, matchingOldMethod);
+				Long oldBody = this.methodBodies.get(oldClass, matchingOldMethod);
 				if (newMethod.hasActiveBody() && oldBody == null)
 					isNewMethod = true;
 				else if (!equal(newMethod, oldBody, matchingOldMethod.getSubSignature())) {
 					classDiff.addMethodDiff(new MethodDiffNode(matchingOldMethod, newMethod, DiffType.CHANGED));
 					
 					// Remove the old body and method reference
-					this.methodBodies.remove(oldClass, matchingOldMethod);
+					bodyUpdates.add(new BodyUpdate(oldClass, matchingOldMethod, null));
 					
 					if(newMethod.getName().contains("addListener"))
 						System.out.println("x");
@@ -228,7 +436,7 @@ public class SceneDiff {
 			
 			// Put the new body and class reference
 			if (newMethod.hasActiveBody())
-				this.methodBodies.put(newClass, newMethod, newMethod.getActiveBody().toString().hashCode());
+				bodyUpdates.add(new BodyUpdate(newClass, newMethod, fingerprint(newMethod)));
 		}
 		// check for removal
 		for (SootMethod oldMethod : oldSootMethods.values()) {
@@ -240,7 +448,7 @@ public class SceneDiff {
 				classDiff.addMethodDiff(new MethodDiffNode(oldMethod, null, DiffType.REMOVED));
 				
 				// Remove the old body and method reference
-				this.methodBodies.remove(oldClass, oldMethod);
+				bodyUpdates.add(new BodyUpdate(oldClass, oldMethod, null));
 			}
 		}
 	}
@@ -362,18 +570,18 @@ public class SceneDiff {
 	 * equal iff their sub signatures and their active bodies (if any) match.
 	 * 
 	 * @param m1 the first SootMethod to test
-	 * @param body The hash of the second SootMethod's body
+	 * @param body The fingerprint of the second SootMethod's body
 	 * @param subSignature The second SootMethod's sub-signature 
 	 * @return true if the methods are considered equal, false otherwise
 	 */
-	public boolean equal(SootMethod m1, Integer body, String subSiganture) {
+	public boolean equal(SootMethod m1, Long body, String subSiganture) {
 		if (!m1.getSubSignature().equals(subSiganture))
 			return false;
 		if ((m1.hasActiveBody() && body == null) || (!m1.hasActiveBody() && body != null))
 			return false;
 		if (!m1.hasActiveBody())
 			return true;
-		return body.equals(m1.getActiveBody().toString().hashCode());
+		return body.longValue() == fingerprint(m1);
 	}
 
 	/**